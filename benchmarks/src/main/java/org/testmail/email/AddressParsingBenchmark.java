@@ -0,0 +1,54 @@
+package org.testmail.email;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.mail.Message.RecipientType;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting an address list with {@link EmailUtils#extractEmailAddresses(String)} and interpreting the addresses with
+ * {@link Email#interpretRecipientData(String, String, RecipientType)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddressParsingBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	private int recipientCount;
+
+	private String addressList;
+	private String[] addresses;
+
+	@Setup
+	public void setUp() {
+		addressList = Fixtures.addressList(recipientCount);
+		addresses = Fixtures.addresses(recipientCount);
+	}
+
+	@Benchmark
+	public String[] extractEmailAddresses() {
+		return EmailUtils.extractEmailAddresses(addressList);
+	}
+
+	@Benchmark
+	public void interpretRecipientData(final Blackhole blackhole) {
+		for (final String address : addresses) {
+			blackhole.consume(Email.interpretRecipientData("Default name", address, RecipientType.TO));
+		}
+	}
+}
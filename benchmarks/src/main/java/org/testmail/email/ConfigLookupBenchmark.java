@@ -0,0 +1,59 @@
+package org.testmail.email;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.testmail.email.EmailUtils.Property.DEFAULT_BCC_ADDRESS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_FROM_ADDRESS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_SUBJECT;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_TO_ADDRESS;
+
+/**
+ * Reading the configuration from as many threads as there are processors, directly and through the defaults of a new {@link Email}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class ConfigLookupBenchmark {
+
+	@Setup
+	public void setUp() {
+		final Properties properties = new Properties();
+		properties.setProperty(DEFAULT_SUBJECT.key(), "Default subject");
+		properties.setProperty(DEFAULT_FROM_ADDRESS.key(), "sender@domain.org");
+		properties.setProperty(DEFAULT_TO_ADDRESS.key(), "Recipient <recipient@domain.org>");
+		properties.setProperty(DEFAULT_BCC_ADDRESS.key(), "archive@domain.org");
+		EmailUtils.loadProperties(properties, false);
+	}
+
+	@Benchmark
+	public Object getProperty() {
+		return EmailUtils.getProperty(DEFAULT_SUBJECT);
+	}
+
+	@Benchmark
+	public boolean hasProperty() {
+		return EmailUtils.hasProperty(DEFAULT_FROM_ADDRESS);
+	}
+
+	@Benchmark
+	public Email newEmailWithDefaults() {
+		return new Email();
+	}
+}
@@ -0,0 +1,57 @@
+package org.testmail.email;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building an email with a given number of recipients: {@link #build()} measures {@link EmailBuilder#build()} on its own, the others
+ * include adding the recipients to a new builder.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmailBuilderBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	private int recipientCount;
+
+	private Recipient[] recipients;
+	private String addressList;
+	private EmailBuilder builder;
+
+	@Setup
+	public void setUp() {
+		recipients = Fixtures.recipients(recipientCount);
+		addressList = Fixtures.addressList(recipientCount);
+		builder = Fixtures.builder().to(recipients);
+	}
+
+	@Benchmark
+	public Email build() {
+		return builder.build();
+	}
+
+	@Benchmark
+	public Email buildWithRecipients() {
+		return Fixtures.builder().to(recipients).build();
+	}
+
+	@Benchmark
+	public Email buildWithAddressList() {
+		return Fixtures.builder().to(addressList).build();
+	}
+}
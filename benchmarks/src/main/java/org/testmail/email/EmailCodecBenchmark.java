@@ -0,0 +1,50 @@
+package org.testmail.email;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding an email with {@link EmailCodec} and decoding it again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmailCodecBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	private int recipientCount;
+
+	private Email email;
+	private ByteBuffer encoded;
+
+	@Setup
+	public void setUp() {
+		email = Fixtures.builder().to(Fixtures.recipients(recipientCount)).build();
+		encoded = EmailCodec.encode(email);
+	}
+
+	@Benchmark
+	public ByteBuffer encode() {
+		return EmailCodec.encode(email);
+	}
+
+	@Benchmark
+	public Email decode() {
+		return EmailCodec.decode(encoded.duplicate());
+	}
+}
@@ -0,0 +1,62 @@
+package org.testmail.email;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparing two equal emails that are distinct instances, with the recipients in the same and in reverse order.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EqualsBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	private int recipientCount;
+
+	private Email email;
+	private Email sameOrder;
+	private Email reverseOrder;
+
+	@Setup
+	public void setUp() {
+		final Recipient[] recipients = Fixtures.recipients(recipientCount);
+		email = Fixtures.builder().to(recipients).build();
+		sameOrder = Fixtures.builder().to(recipients).build();
+		final List<Recipient> reversed = Arrays.asList(recipients.clone());
+		Collections.reverse(reversed);
+		reverseOrder = Fixtures.builder().to(reversed.toArray(new Recipient[reversed.size()])).build();
+	}
+
+	@Benchmark
+	public boolean equalsSameOrder() {
+		return email.equals(sameOrder);
+	}
+
+	@Benchmark
+	public boolean equalsReverseOrder() {
+		return email.equals(reverseOrder);
+	}
+
+	@Benchmark
+	public boolean equalsEmail() {
+		return EqualsHelper.equalsEmail(email, reverseOrder);
+	}
+}
@@ -0,0 +1,63 @@
+package org.testmail.email;
+
+import javax.mail.Message.RecipientType;
+
+/**
+ * Generates the recipients the benchmarks work with, so that every benchmark measures the same data for a given size.
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @return Addresses in the format {@code "Recipient 1 <recipient.1@domain.org>"}.
+	 */
+	static String[] addresses(final int count) {
+		final String[] addresses = new String[count];
+		for (int i = 0; i < count; i++) {
+			addresses[i] = "Recipient " + i + " <recipient." + i + "@domain.org>";
+		}
+		return addresses;
+	}
+
+	/**
+	 * @return The {@link #addresses(int)} as a single list, alternately separated by a comma and a semicolon.
+	 */
+	static String addressList(final int count) {
+		final StringBuilder addressList = new StringBuilder();
+		final String[] addresses = addresses(count);
+		for (int i = 0; i < addresses.length; i++) {
+			if (i > 0) {
+				addressList.append(i % 2 == 0 ? ", " : "; ");
+			}
+			addressList.append(addresses[i]);
+		}
+		return addressList.toString();
+	}
+
+	/**
+	 * @return Recipients with alternating recipient types.
+	 */
+	static Recipient[] recipients(final int count) {
+		final RecipientType[] types = { RecipientType.TO, RecipientType.CC, RecipientType.BCC };
+		final Recipient[] recipients = new Recipient[count];
+		for (int i = 0; i < count; i++) {
+			recipients[i] = new Recipient("Recipient " + i, "recipient." + i + "@domain.org", types[i % types.length]);
+		}
+		return recipients;
+	}
+
+	/**
+	 * @return A builder with a sender, subject, body and header, without recipients.
+	 */
+	static EmailBuilder builder() {
+		return new EmailBuilder()
+				.from("Sender", "sender@domain.org")
+				.replyTo("Reply", "reply@domain.org")
+				.subject("Benchmark subject")
+				.text("Plain text body")
+				.textHTML("<p>HTML body</p>")
+				.addHeader("X-Priority", 2);
+	}
+}
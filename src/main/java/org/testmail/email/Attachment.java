@@ -0,0 +1,171 @@
+package org.testmail.email;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
+
+/**
+ * A file attached to an email, or a resource such as an image shown inline in its HTML. The data isn't held by the attachment but read
+ * from a file, stream or buffer each time a message is written, and base64 encoded straight into the output, so that an attachment is
+ * never on the heap as a whole.
+ * <p>
+ * An inline resource has a content-id, by which the HTML refers to it with a {@code cid:} URL: an attachment made
+ * {@link #inline(String) inline} as {@code "logo"} is shown by {@code <img src="cid:logo">}.
+ *
+ * @see Email#addAttachment(Attachment)
+ * @see EmailBuilder#addAttachment(Attachment)
+ */
+public final class Attachment {
+
+	private final String name;
+	private final String contentType;
+	/**
+	 * The file, buffer or stream supplier the data is read from.
+	 */
+	private final Object source;
+	private final String contentId;
+
+	private Attachment(final String name, final String contentType, final Object source, final String contentId) {
+		this.name = name;
+		this.contentType = contentType;
+		this.source = source;
+		this.contentId = contentId;
+	}
+
+	/**
+	 * @param name        The file name shown to the recipient.
+	 * @param contentType The MIME type of the data, for example {@code application/pdf}.
+	 * @param file        Read each time the attachment is written, so it must exist as long as the email is sent.
+	 */
+	public static Attachment of(final String name, final String contentType, final Path file) {
+		return new Attachment(checkNonEmptyArgument(name, "name"), checkNonEmptyArgument(contentType, "contentType"),
+				checkNonEmptyArgument(file, "file"), null);
+	}
+
+	/**
+	 * @param name        The file name shown to the recipient.
+	 * @param contentType The MIME type of the data, for example {@code application/pdf}.
+	 * @param content     The data from its position to its limit, for example a region of a file mapped with
+	 *                    {@link java.nio.channels.FileChannel#map}. The buffer itself is left untouched and must not be changed.
+	 */
+	public static Attachment of(final String name, final String contentType, final ByteBuffer content) {
+		return new Attachment(checkNonEmptyArgument(name, "name"), checkNonEmptyArgument(contentType, "contentType"),
+				checkNonEmptyArgument(content, "content").duplicate(), null);
+	}
+
+	/**
+	 * @param name        The file name shown to the recipient.
+	 * @param contentType The MIME type of the data, for example {@code application/pdf}.
+	 * @param streams     Called each time the attachment is written, to open a new stream over the data, which is closed afterwards.
+	 */
+	public static Attachment of(final String name, final String contentType, final Callable<? extends InputStream> streams) {
+		return new Attachment(checkNonEmptyArgument(name, "name"), checkNonEmptyArgument(contentType, "contentType"),
+				checkNonEmptyArgument(streams, "streams"), null);
+	}
+
+	/**
+	 * @param contentId Identifies the resource within the email, for example {@code "logo"} or {@code "logo@example.com"}, without angle
+	 *                  brackets or whitespace.
+	 * @return The same attachment as resource shown inline in the HTML, which refers to it as {@code cid:} followed by the content-id.
+	 */
+	public Attachment inline(final String contentId) {
+		checkNonEmptyArgument(contentId, "contentId");
+		for (int i = 0; i < contentId.length(); i++) {
+			final char c = contentId.charAt(i);
+			if (c == '<' || c == '>' || c <= ' ' || c >= 0x7f) {
+				throw new IllegalArgumentException("invalid character in content-id: " + contentId);
+			}
+		}
+		return new Attachment(name, contentType, source, contentId);
+	}
+
+	/**
+	 * @return A new stream over the data, which the caller must close.
+	 */
+	public InputStream openStream() throws IOException {
+		if (source instanceof Path) {
+			return Files.newInputStream((Path) source);
+		} else if (source instanceof ByteBuffer) {
+			return new ByteBufferInputStream((ByteBuffer) source);
+		}
+		@SuppressWarnings("unchecked")
+		final Callable<? extends InputStream> streams = (Callable<? extends InputStream>) source;
+		final InputStream stream;
+		try {
+			stream = streams.call();
+		} catch (final IOException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new IOException("could not open attachment " + name, e);
+		}
+		if (stream == null) {
+			throw new IOException("no stream for attachment " + name);
+		}
+		return stream;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return The content-id of an {@link #isInline() inline} resource, else {@code null}.
+	 */
+	public String getContentId() {
+		return contentId;
+	}
+
+	/**
+	 * @return Whether this is a resource shown inline in the HTML rather than an attached file.
+	 */
+	public boolean isInline() {
+		return contentId != null;
+	}
+
+	/**
+	 * Attachments are equal when they have the same name, content type and content-id, and the data comes from the same file, a buffer with
+	 * equal content or the same stream supplier. Files and streams aren't read to compare them.
+	 */
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		final Attachment that = (Attachment) o;
+		return name.equals(that.name) &&
+				contentType.equals(that.contentType) &&
+				Objects.equals(contentId, that.contentId) &&
+				source.equals(that.source);
+	}
+
+	/**
+	 * Leaves out the source, since the hash code of a buffer would read all of its data.
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, contentType, contentId);
+	}
+
+	@Override
+	public String toString() {
+		return "Attachment{" +
+				"name='" + name + '\'' +
+				", contentType='" + contentType + '\'' +
+				", contentId=" + contentId +
+				", source=" + source +
+				'}';
+	}
+}
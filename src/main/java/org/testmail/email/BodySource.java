@@ -0,0 +1,363 @@
+package org.testmail.email;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
+
+/**
+ * The plain text or HTML body of an email when it shouldn't stay on the heap as a {@code String} for as long as the email exists: content
+ * produced on demand, read from a file, or held in a buffer outside the heap such as a memory-mapped file. The content is read again each
+ * time a message is written, streaming it into the transfer encoding, so only a buffer's worth of it is on the heap at a time.
+ * <p>
+ * Reading the body as a string, through {@link Email#getText()} or when emails are compared or serialized, reads the whole content.
+ * <p>
+ * A source can also keep a body that is already in memory {@link #compressed(CharSequence) compressed}.
+ *
+ * @see Email#setTextSource(BodySource)
+ * @see EmailBuilder#textSource(BodySource)
+ */
+public abstract class BodySource {
+
+	BodySource() {
+	}
+
+	/**
+	 * @param supplier Called each time the body is read, for example to render a template. Its result is encoded as UTF-8.
+	 */
+	public static BodySource of(final Callable<? extends CharSequence> supplier) {
+		return new SuppliedSource(checkNonEmptyArgument(supplier, "supplier"));
+	}
+
+	/**
+	 * @param file    Read each time the body is read, so it must exist as long as the email is sent.
+	 * @param charset The encoding of the file.
+	 */
+	public static BodySource of(final Path file, final Charset charset) {
+		return new FileSource(checkNonEmptyArgument(file, "file"), checkNonEmptyArgument(charset, "charset"));
+	}
+
+	/**
+	 * @param content The encoded content from its position to its limit, for example a direct buffer or a file mapped with
+	 *                {@link java.nio.channels.FileChannel#map}. The buffer itself is left untouched and must not be changed.
+	 * @param charset The encoding of the content.
+	 */
+	public static BodySource of(final ByteBuffer content, final Charset charset) {
+		return new BufferSource(checkNonEmptyArgument(content, "content").duplicate(), checkNonEmptyArgument(charset, "charset"));
+	}
+
+	/**
+	 * Compresses the content with DEFLATE right away, to be decompressed again each time the body is read. Meant for emails that are queued
+	 * for a while: HTML typically compresses to a fifth of its size or less. The compressed content is shared by every email that has this
+	 * source, such as the emails built from one {@link EmailBuilder} or copied from one prototype.
+	 *
+	 * @param content Encoded as UTF-8.
+	 * @throws IllegalArgumentException When the content has unpaired surrogates, which UTF-8 can't encode.
+	 * @see Email#compressBodies()
+	 */
+	public static BodySource compressed(final CharSequence content) {
+		try {
+			return CompressedSource.compress(checkNonEmptyArgument(content, "content"));
+		} catch (final CharacterCodingException e) {
+			throw new IllegalArgumentException("content has unpaired surrogates, which UTF-8 can't encode", e);
+		}
+	}
+
+	/**
+	 * @param content A body kept as string, or {@code null}.
+	 * @return The body compressed, or {@code null} when there is no body, when compressing it doesn't make it smaller than its UTF-8
+	 * encoding, or when it has unpaired surrogates, which would not read back the same.
+	 */
+	static BodySource compressIfSmaller(final String content) {
+		if (content == null) {
+			return null;
+		}
+		final CompressedSource compressed;
+		try {
+			compressed = CompressedSource.compress(content);
+		} catch (final CharacterCodingException e) {
+			return null;
+		}
+		return compressed.compressed.length < compressed.length ? compressed : null;
+	}
+
+	/**
+	 * @return The encoding of the bytes from {@link #openStream()}, which is declared as charset of the body.
+	 */
+	public abstract Charset getCharset();
+
+	/**
+	 * @return A new stream over the whole content, encoded in {@link #getCharset()}.
+	 */
+	public abstract InputStream openStream() throws IOException;
+
+	/**
+	 * @return The whole content as string.
+	 */
+	public String read() throws IOException {
+		try (Reader reader = openReader()) {
+			final StringBuilder content = new StringBuilder();
+			final char[] buffer = new char[8192];
+			for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+				content.append(buffer, 0, read);
+			}
+			return content.toString();
+		}
+	}
+
+	/**
+	 * Like {@link #read()}, for getters that can't throw checked exceptions.
+	 *
+	 * @throws MailException When the content could not be read.
+	 */
+	String readBody() {
+		try {
+			return read();
+		} catch (final IOException e) {
+			throw new MailException("could not read email body from " + this, e);
+		}
+	}
+
+	/**
+	 * @return A new reader over the whole content.
+	 */
+	public Reader openReader() throws IOException {
+		return new InputStreamReader(openStream(), getCharset());
+	}
+
+	private static final class SuppliedSource extends BodySource {
+
+		private final Callable<? extends CharSequence> supplier;
+
+		SuppliedSource(final Callable<? extends CharSequence> supplier) {
+			this.supplier = supplier;
+		}
+
+		private CharSequence supply() throws IOException {
+			final CharSequence content;
+			try {
+				content = supplier.call();
+			} catch (final IOException e) {
+				throw e;
+			} catch (final Exception e) {
+				throw new IOException("could not supply body", e);
+			}
+			if (content == null) {
+				throw new IOException("supplier returned no body");
+			}
+			return content;
+		}
+
+		@Override
+		public Charset getCharset() {
+			return StandardCharsets.UTF_8;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			return new CharSequenceInputStream(supply(), CodingErrorAction.REPLACE);
+		}
+
+		@Override
+		public String read() throws IOException {
+			return supply().toString();
+		}
+
+		@Override
+		public String toString() {
+			return "BodySource{supplier=" + supplier + '}';
+		}
+	}
+
+	private static final class FileSource extends BodySource {
+
+		private final Path file;
+		private final Charset charset;
+
+		FileSource(final Path file, final Charset charset) {
+			this.file = file;
+			this.charset = charset;
+		}
+
+		@Override
+		public Charset getCharset() {
+			return charset;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			return Files.newInputStream(file);
+		}
+
+		@Override
+		public String toString() {
+			return "BodySource{file=" + file + ", charset=" + charset + '}';
+		}
+	}
+
+	private static final class BufferSource extends BodySource {
+
+		private final ByteBuffer content;
+		private final Charset charset;
+
+		BufferSource(final ByteBuffer content, final Charset charset) {
+			this.content = content;
+			this.charset = charset;
+		}
+
+		@Override
+		public Charset getCharset() {
+			return charset;
+		}
+
+		@Override
+		public InputStream openStream() {
+			return new ByteBufferInputStream(content);
+		}
+
+		@Override
+		public String toString() {
+			return "BodySource{buffer=" + content + ", charset=" + charset + '}';
+		}
+	}
+
+	private static final class CompressedSource extends BodySource {
+
+		private final byte[] compressed;
+		/**
+		 * The number of bytes before compression.
+		 */
+		private final long length;
+
+		private CompressedSource(final byte[] compressed, final long length) {
+			this.compressed = compressed;
+			this.length = length;
+		}
+
+		/**
+		 * @throws CharacterCodingException When the content has unpaired surrogates.
+		 */
+		static CompressedSource compress(final CharSequence content) throws CharacterCodingException {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final Deflater deflater = new Deflater();
+			long length = 0;
+			try (InputStream input = new CharSequenceInputStream(content, CodingErrorAction.REPORT);
+					OutputStream deflated = new DeflaterOutputStream(output, deflater)) {
+				final byte[] buffer = new byte[8192];
+				for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+					deflated.write(buffer, 0, read);
+					length += read;
+				}
+			} catch (final CharacterCodingException e) {
+				throw e;
+			} catch (final IOException e) {
+				throw new IllegalStateException("in-memory streams can't fail", e);
+			} finally {
+				deflater.end();
+			}
+			return new CompressedSource(output.toByteArray(), length);
+		}
+
+		@Override
+		public Charset getCharset() {
+			return StandardCharsets.UTF_8;
+		}
+
+		@Override
+		public InputStream openStream() {
+			return new InflaterInputStream(new ByteArrayInputStream(compressed));
+		}
+
+		@Override
+		public String toString() {
+			return "BodySource{compressed=" + compressed.length + " of " + length + " bytes}";
+		}
+	}
+
+	/**
+	 * Encodes the characters as UTF-8 a buffer at a time, rather than into one array for all of them.
+	 */
+	private static final class CharSequenceInputStream extends InputStream {
+
+		private final CharBuffer chars;
+		private final CharsetEncoder encoder;
+		private final ByteBuffer bytes = ByteBuffer.allocate(8192);
+		private boolean flushed;
+
+		/**
+		 * @param malformedInputAction What to do with unpaired surrogates: {@link CodingErrorAction#REPORT} has reading fail with a
+		 *                             {@link CharacterCodingException}.
+		 */
+		CharSequenceInputStream(final CharSequence chars, final CodingErrorAction malformedInputAction) {
+			this.chars = CharBuffer.wrap(chars);
+			this.encoder = StandardCharsets.UTF_8.newEncoder()
+					.onMalformedInput(malformedInputAction)
+					.onUnmappableCharacter(malformedInputAction);
+			bytes.flip();
+		}
+
+		/**
+		 * @return Whether there may be more bytes, {@code false} once all characters were encoded and read.
+		 */
+		private boolean fill() throws CharacterCodingException {
+			if (flushed) {
+				return false;
+			}
+			bytes.clear();
+			CoderResult result = encoder.encode(chars, bytes, true);
+			if (result.isUnderflow()) {
+				result = encoder.flush(bytes);
+				flushed = result.isUnderflow();
+			}
+			if (result.isError()) {
+				result.throwException();
+			}
+			bytes.flip();
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			while (!bytes.hasRemaining()) {
+				if (!fill()) {
+					return -1;
+				}
+			}
+			return bytes.get() & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			while (!bytes.hasRemaining()) {
+				if (!fill()) {
+					return -1;
+				}
+			}
+			final int read = Math.min(length, bytes.remaining());
+			bytes.get(buffer, offset, read);
+			return read;
+		}
+	}
+}
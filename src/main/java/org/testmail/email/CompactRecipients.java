@@ -0,0 +1,231 @@
+package org.testmail.email;
+
+import javax.mail.Message.RecipientType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Columnar store for large numbers of recipients: all names and addresses are packed into a single byte array, Latin-1 encoded when
+ * possible and UTF-8 encoded otherwise, with an offset table to find them back and one attribute byte per recipient holding its type and
+ * encoding. Compared to a list of {@link Recipient} instances, this saves the object headers of the recipients and their strings, and half
+ * of the bytes of most names and addresses.
+ * <p>
+ * {@link #get(int)} creates a new {@link Recipient} every time, trading some allocation when reading for a much smaller footprint.
+ * <p>
+ * Unpaired surrogates are encoded as three bytes each, like {@link EmailCodec} does, rather than replaced as by
+ * {@link String#getBytes(java.nio.charset.Charset)}, so that every recipient reads back exactly as it was added.
+ *
+ * @see RecipientList
+ */
+final class CompactRecipients {
+
+	private static final int TYPE_MASK = 0x03;
+	private static final int NAME_NULL = 0x04;
+	private static final int NAME_LATIN1 = 0x08;
+	private static final int ADDRESS_LATIN1 = 0x10;
+
+	/**
+	 * Indexed by the type bits of the attributes.
+	 */
+	private static final RecipientType[] TYPES = { null, RecipientType.TO, RecipientType.CC, RecipientType.BCC };
+
+	private byte[] data;
+	private int dataLength;
+	/**
+	 * For recipient {@code i}, the name starts at {@code offsets[2 * i]} and the address at {@code offsets[2 * i + 1]}. Each ends where
+	 * the next one starts, the last address at {@code offsets[2 * size]}.
+	 */
+	private int[] offsets;
+	private byte[] attributes;
+	private int size;
+
+	CompactRecipients(final int capacity) {
+		data = new byte[Math.max(capacity, 1) * 32];
+		offsets = new int[Math.max(capacity, 1) * 2 + 1];
+		attributes = new byte[Math.max(capacity, 1)];
+	}
+
+	private CompactRecipients(final CompactRecipients other) {
+		data = Arrays.copyOf(other.data, other.dataLength);
+		dataLength = other.dataLength;
+		offsets = Arrays.copyOf(other.offsets, other.size * 2 + 1);
+		attributes = Arrays.copyOf(other.attributes, other.size);
+		size = other.size;
+	}
+
+	/**
+	 * @return Whether the recipient type can be coded in the attributes: none, TO, CC or BCC.
+	 */
+	static boolean canStore(final RecipientType type) {
+		return typeCode(type) >= 0;
+	}
+
+	private static int typeCode(final RecipientType type) {
+		for (int i = 0; i < TYPES.length; i++) {
+			if (type == null ? TYPES[i] == null : type.equals(TYPES[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @throws IllegalArgumentException When the recipient can't be stored, see {@link #canStore(RecipientType)}.
+	 */
+	void add(final Recipient recipient) {
+		final int typeCode = typeCode(recipient.getType());
+		if (typeCode < 0) {
+			throw new IllegalArgumentException("unsupported recipient type " + recipient.getType());
+		}
+		if (size == attributes.length) {
+			final int capacity = size + (size >> 1) + 1;
+			attributes = Arrays.copyOf(attributes, capacity);
+			offsets = Arrays.copyOf(offsets, capacity * 2 + 1);
+		}
+		int attribute = typeCode;
+		if (recipient.getName() == null) {
+			attribute |= NAME_NULL;
+		} else if (append(recipient.getName())) {
+			attribute |= NAME_LATIN1;
+		}
+		offsets[size * 2 + 1] = dataLength;
+		if (append(recipient.getAddress())) {
+			attribute |= ADDRESS_LATIN1;
+		}
+		offsets[size * 2 + 2] = dataLength;
+		attributes[size] = (byte) attribute;
+		size++;
+	}
+
+	/**
+	 * @return Whether the value was stored as Latin-1, rather than as UTF-8.
+	 */
+	private boolean append(final String value) {
+		boolean latin1 = true;
+		for (int i = 0; i < value.length() && latin1; i++) {
+			latin1 = value.charAt(i) <= 0xFF;
+		}
+		if (latin1) {
+			ensureDataCapacity(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				data[dataLength++] = (byte) value.charAt(i);
+			}
+		} else {
+			// at most three bytes per character, a surrogate pair takes four
+			ensureDataCapacity(value.length() * 3);
+			for (int i = 0; i < value.length(); i++) {
+				final char c = value.charAt(i);
+				if (c < 0x80) {
+					data[dataLength++] = (byte) c;
+				} else if (c < 0x800) {
+					data[dataLength++] = (byte) (0xC0 | (c >> 6));
+					data[dataLength++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+					final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					data[dataLength++] = (byte) (0xF0 | (codePoint >> 18));
+					data[dataLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					data[dataLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					data[dataLength++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else {
+					data[dataLength++] = (byte) (0xE0 | (c >> 12));
+					data[dataLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					data[dataLength++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+		return latin1;
+	}
+
+	private void ensureDataCapacity(final int additional) {
+		if (dataLength + additional > data.length) {
+			data = Arrays.copyOf(data, Math.max(dataLength + additional, data.length + (data.length >> 1)));
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException When the type can't be stored, see {@link #canStore(RecipientType)}.
+	 */
+	void setType(final int index, final RecipientType type) {
+		checkIndex(index);
+		final int typeCode = typeCode(type);
+		if (typeCode < 0) {
+			throw new IllegalArgumentException("unsupported recipient type " + type);
+		}
+		attributes[index] = (byte) ((attributes[index] & ~TYPE_MASK) | typeCode);
+	}
+
+	Recipient get(final int index) {
+		return new Recipient(getName(index), getAddress(index), getType(index));
+	}
+
+	String getName(final int index) {
+		checkIndex(index);
+		final int attribute = attributes[index];
+		if ((attribute & NAME_NULL) != 0) {
+			return null;
+		}
+		return decode(offsets[index * 2], offsets[index * 2 + 1], (attribute & NAME_LATIN1) != 0);
+	}
+
+	String getAddress(final int index) {
+		checkIndex(index);
+		return decode(offsets[index * 2 + 1], offsets[index * 2 + 2], (attributes[index] & ADDRESS_LATIN1) != 0);
+	}
+
+	RecipientType getType(final int index) {
+		checkIndex(index);
+		return TYPES[attributes[index] & TYPE_MASK];
+	}
+
+	/**
+	 * Decodes UTF-8 as written by {@link #append(String)}, including unpaired surrogates, which the UTF-8 charset would replace.
+	 */
+	private String decode(final int start, final int end, final boolean latin1) {
+		if (latin1) {
+			return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+		final char[] chars = new char[end - start];
+		int count = 0;
+		int i = start;
+		while (i < end) {
+			final int b = data[i++];
+			if (b >= 0) {
+				chars[count++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				chars[count++] = (char) (((b & 0x1F) << 6) | (data[i++] & 0x3F));
+			} else if ((b & 0xF0) == 0xE0) {
+				chars[count++] = (char) (((b & 0x0F) << 12) | ((data[i++] & 0x3F) << 6) | (data[i++] & 0x3F));
+			} else {
+				final int codePoint = ((b & 0x07) << 18) | ((data[i++] & 0x3F) << 12) | ((data[i++] & 0x3F) << 6) | (data[i++] & 0x3F);
+				chars[count++] = Character.highSurrogate(codePoint);
+				chars[count++] = Character.lowSurrogate(codePoint);
+			}
+		}
+		return new String(chars, 0, count);
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * Removes all recipients, keeping the arrays to add new ones to.
+	 */
+	void clear() {
+		dataLength = 0;
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return An independent copy, without spare capacity.
+	 */
+	CompactRecipients copy() {
+		return new CompactRecipients(this);
+	}
+}
@@ -0,0 +1,113 @@
+package org.testmail.email;
+
+import org.testmail.email.EmailUtils.Property;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Immutable view of the resolved configuration at one point in time. {@link EmailUtils} publishes a new snapshot every time properties are
+ * loaded, so readers never need a lock and always see a complete configuration, never one that is halfway through being replaced.
+ */
+final class ConfigSnapshot {
+
+	static final ConfigSnapshot EMPTY = new ConfigSnapshot(new EnumMap<Property, Object>(Property.class));
+
+	private final Map<Property, Object> properties;
+
+	/**
+	 * Resolved on first use rather than when loading, so that invalid defaults surface where emails are created, as they always have.
+	 */
+	private volatile EmailDefaults emailDefaults;
+
+	private volatile RecipientPool recipientPool;
+
+	private ConfigSnapshot(final EnumMap<Property, Object> properties) {
+		this.properties = Collections.unmodifiableMap(properties);
+	}
+
+	/**
+	 * @param resolvedProperties The properties that are added to, or replace those in, this snapshot.
+	 * @param addProperties      Whether to keep the properties of this snapshot that are not resolved again.
+	 * @return A new snapshot, leaving this one as is.
+	 */
+	ConfigSnapshot with(final Map<Property, Object> resolvedProperties, final boolean addProperties) {
+		final EnumMap<Property, Object> combined = new EnumMap<>(Property.class);
+		if (addProperties) {
+			combined.putAll(properties);
+		}
+		combined.putAll(resolvedProperties);
+		return new ConfigSnapshot(combined);
+	}
+
+	boolean hasProperty(final Property property) {
+		return !EmailUtils.valueNullOrEmpty(properties.get(property));
+	}
+
+	Object getProperty(final Property property) {
+		return properties.get(property);
+	}
+
+	/**
+	 * Reads a numeric property, which is an Integer when loaded from text, except for {@code 0} and {@code 1}, which are read as booleans.
+	 * Values that were put in the properties as strings, rather than loaded, are parsed here.
+	 *
+	 * @throws IllegalArgumentException When the value is not a whole number that fits an int, naming the property.
+	 */
+	int getIntProperty(final Property property) {
+		final Object value = properties.get(property);
+		if (value instanceof Integer) {
+			return (Integer) value;
+		}
+		if (value instanceof Boolean) {
+			return (Boolean) value ? 1 : 0;
+		}
+		if (value instanceof String) {
+			try {
+				return Integer.parseInt(((String) value).trim());
+			} catch (final NumberFormatException e) {
+				throw new IllegalArgumentException(format("%s should be a number, was '%s'", property.key(), value), e);
+			}
+		}
+		throw new IllegalArgumentException(format("%s should be a number, was '%s'", property.key(), value));
+	}
+
+	/**
+	 * @return The default sender, recipients and subject of this configuration, parsed only the first time.
+	 */
+	EmailDefaults getEmailDefaults() {
+		EmailDefaults result = emailDefaults;
+		if (result == null) {
+			result = EmailDefaults.resolve(this);
+			emailDefaults = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The pool in which recipients are interned while this configuration is current, created the first time.
+	 */
+	RecipientPool getRecipientPool() {
+		RecipientPool result = recipientPool;
+		if (result == null) {
+			synchronized (this) {
+				result = recipientPool;
+				if (result == null) {
+					result = RecipientPool.resolve(this);
+					recipientPool = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return All resolved properties, unmodifiable.
+	 */
+	Map<Property, Object> getProperties() {
+		return properties;
+	}
+}
@@ -1,29 +1,18 @@
 package org.testmail.email;
 
 import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static org.testmail.email.EmailUtils.extractEmailAddresses;
 import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_BCC_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_BCC_NAME;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_CC_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_CC_NAME;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_FROM_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_FROM_NAME;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_REPLYTO_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_REPLYTO_NAME;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_SUBJECT;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_TO_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_TO_NAME;
-import static org.testmail.email.EmailUtils.getProperty;
-import static org.testmail.email.EmailUtils.hasProperty;
 
 
 public class Email {
@@ -52,6 +41,16 @@ public class Email {
 	 */
 	private String textHTML;
 
+	/**
+	 * Set instead of {@link #text} when the plain text is read from a source whenever it's needed.
+	 */
+	private BodySource textSource;
+
+	/**
+	 * Set instead of {@link #textHTML} when the html is read from a source whenever it's needed.
+	 */
+	private BodySource textHTMLSource;
+
 	/**
 	 * The subject of the email message.
 	 */
@@ -60,12 +59,18 @@ public class Email {
 	/**
 	 * List of {@link Recipient}.
 	 */
-	private final List<Recipient> recipients;
+	private final RecipientList recipients;
+
+	/**
+	 * Headers such as <code>X-Priority</code>, in the order they were added; a name can occur more than once.
+	 */
+	private final HeaderList headers;
 
 	/**
-	 * Map of header name and values.
+	 * Files and inline resources, in the order they were added. Never changed in place, but replaced by a copy when one is added, so that it
+	 * can be shared with the emails copied from this one.
 	 */
-	private final Map<String, String> headers;
+	private List<Attachment> attachments = Collections.emptyList();
 
 	private boolean useReturnReceiptTo;
 	
@@ -74,6 +79,16 @@ public class Email {
 	 */
 	private Recipient returnReceiptTo;
 
+	/**
+	 * The MIME encoding of {@link #text} and {@link #textHTML}, rendered on first use and shared by every message produced from this email.
+	 */
+	private volatile RenderedBody renderedBody;
+
+	/**
+	 * Computed on first use and discarded whenever the content of this email changes.
+	 */
+	private volatile EmailFingerprint fingerprint;
+
 	/**
 	 * Constructor, creates all internal lists. Populates default from, reply-to, to, cc and bcc if provided in the config file.
 	 */
@@ -82,40 +97,15 @@ public class Email {
 	}
 
 	public Email(final boolean readFromDefaults) {
-		recipients = new ArrayList<>();
-		headers = new HashMap<>();
+		recipients = new RecipientList();
+		headers = new HeaderList();
 
 		if (readFromDefaults) {
-			if (hasProperty(DEFAULT_FROM_ADDRESS)) {
-				setFromAddress((String) getProperty(DEFAULT_FROM_NAME), (String) getProperty(DEFAULT_FROM_ADDRESS));
-			}
-			if (hasProperty(DEFAULT_REPLYTO_ADDRESS)) {
-				setReplyToAddress((String) getProperty(DEFAULT_REPLYTO_NAME), (String) getProperty(DEFAULT_REPLYTO_ADDRESS));
-			}
-			if (hasProperty(DEFAULT_TO_ADDRESS)) {
-				if (hasProperty(DEFAULT_TO_NAME)) {
-					addNamedToRecipients((String) getProperty(DEFAULT_TO_NAME), (String) getProperty(DEFAULT_TO_ADDRESS));
-				} else {
-					addToRecipients((String) getProperty(DEFAULT_TO_ADDRESS));
-				}
-			}
-			if (hasProperty(DEFAULT_CC_ADDRESS)) {
-				if (hasProperty(DEFAULT_CC_NAME)) {
-					addNamedCcRecipients((String) getProperty(DEFAULT_CC_NAME), (String) getProperty(DEFAULT_CC_ADDRESS));
-				} else {
-					addCcRecipients((String) getProperty(DEFAULT_CC_ADDRESS));
-				}
-			}
-			if (hasProperty(DEFAULT_BCC_ADDRESS)) {
-				if (hasProperty(DEFAULT_BCC_NAME)) {
-					addNamedBccRecipients((String) getProperty(DEFAULT_BCC_NAME), (String) getProperty(DEFAULT_BCC_ADDRESS));
-				} else {
-					addBccRecipients((String) getProperty(DEFAULT_BCC_ADDRESS));
-				}
-			}
-			if (hasProperty(DEFAULT_SUBJECT)) {
-				setSubject((String) getProperty(DEFAULT_SUBJECT));
-			}
+			final EmailDefaults defaults = EmailUtils.config().getEmailDefaults();
+			fromRecipient = defaults.getFromRecipient();
+			replyToRecipient = defaults.getReplyToRecipient();
+			recipients.addAll(defaults.getRecipients());
+			subject = defaults.getSubject();
 		}
 	}
 
@@ -131,6 +121,7 @@ public class Email {
 	 */
 	public void setFromAddress(final String name, final String fromAddress) {
 		fromRecipient = new Recipient(name, checkNonEmptyArgument(fromAddress, "fromAddress"), null);
+		fingerprint = null;
 	}
 	
 	/**
@@ -140,6 +131,7 @@ public class Email {
 	 */
 	public void setFromAddress(Recipient recipient) {
 		fromRecipient = new Recipient(recipient.getName(), checkNonEmptyArgument(recipient.getAddress(), "fromAddress"), null);
+		fingerprint = null;
 	}
 
 	/**
@@ -150,6 +142,7 @@ public class Email {
 	 */
 	public void setReplyToAddress(final String name, final String replyToAddress) {
 		replyToRecipient = new Recipient(name, checkNonEmptyArgument(replyToAddress, "replyToAddress"), null);
+		fingerprint = null;
 	}
 	
 	/**
@@ -159,6 +152,7 @@ public class Email {
 	 */
 	public void setReplyToAddress(Recipient recipient) {
 		replyToRecipient = new Recipient(recipient.getName(), checkNonEmptyArgument(recipient.getAddress(), "replyToAddress"), null);
+		fingerprint = null;
 	}
 
 	/**
@@ -166,6 +160,7 @@ public class Email {
 	 */
 	public void setSubject(final String subject) {
 		this.subject = checkNonEmptyArgument(subject, "subject");
+		this.fingerprint = null;
 	}
 
 	/**
@@ -173,6 +168,7 @@ public class Email {
 	 */
 	public void setUseReturnReceiptTo(boolean useReturnReceiptTo) {
 		this.useReturnReceiptTo = useReturnReceiptTo;
+		this.fingerprint = null;
 	}
 	
 	/**
@@ -181,6 +177,7 @@ public class Email {
 	public void setReturnReceiptTo(Recipient returnReceiptTo) {
 		setUseReturnReceiptTo(true);
 		this.returnReceiptTo = returnReceiptTo;
+		this.fingerprint = null;
 	}
 	
 	/**
@@ -188,6 +185,37 @@ public class Email {
 	 */
 	public void setText(final String text) {
 		this.text = text;
+		this.textSource = null;
+		this.renderedBody = null;
+		this.fingerprint = null;
+	}
+
+	/**
+	 * Sets the plain text as source to read it from whenever it's needed, replacing {@link #text}. The text is then streamed from the
+	 * source each time the email is written, rather than kept in memory.
+	 */
+	public void setTextSource(final BodySource textSource) {
+		this.textSource = textSource;
+		this.text = null;
+		this.renderedBody = null;
+		this.fingerprint = null;
+	}
+
+	/**
+	 * Keeps the text and HTML set so far {@link BodySource#compressed(CharSequence) compressed} from now on, to be decompressed whenever
+	 * they're rendered or read. Bodies that already have a source, that compressing doesn't make smaller, or that have unpaired
+	 * surrogates, which would not read back the same, are left as they are. The compressed bodies are shared by the emails derived from
+	 * this one, see {@link #withRecipients(Recipient...)}.
+	 */
+	public void compressBodies() {
+		final BodySource compressedText = BodySource.compressIfSmaller(text);
+		if (compressedText != null) {
+			setTextSource(compressedText);
+		}
+		final BodySource compressedTextHTML = BodySource.compressIfSmaller(textHTML);
+		if (compressedTextHTML != null) {
+			setTextHTMLSource(compressedTextHTML);
+		}
 	}
 
 	/**
@@ -195,8 +223,35 @@ public class Email {
 	 */
 	public void setTextHTML(final String textHTML) {
 		this.textHTML = textHTML;
+		this.textHTMLSource = null;
+		this.renderedBody = null;
+		this.fingerprint = null;
+	}
+
+	/**
+	 * Like {@link #setTextSource(BodySource)}, for the html.
+	 */
+	public void setTextHTMLSource(final BodySource textHTMLSource) {
+		this.textHTMLSource = textHTMLSource;
+		this.textHTML = null;
+		this.renderedBody = null;
+		this.fingerprint = null;
 	}
 	
+	/**
+	 * Adds a file or, when {@link Attachment#inline(String) inline}, a resource that the html refers to by its content-id. The data is read
+	 * and encoded only while the email is written, each time it's sent.
+	 */
+	public void addAttachment(final Attachment attachment) {
+		checkNonEmptyArgument(attachment, "attachment");
+		final List<Attachment> added = new ArrayList<>(attachments.size() + 1);
+		added.addAll(attachments);
+		added.add(attachment);
+		this.attachments = Collections.unmodifiableList(added);
+		this.renderedBody = null;
+		this.fingerprint = null;
+	}
+
 	/**
 	 * Delegates to {@link #addRecipients(String, RecipientType, String...)}, using empty default name and {@link RecipientType#TO}.
 	 */
@@ -260,9 +315,11 @@ public class Email {
 	public void addRecipients(final String recipientName, final RecipientType type, final String... recipientEmailAddressesToAdd) {
 		checkNonEmptyArgument(type, "type");
 		checkNonEmptyArgument(recipientEmailAddressesToAdd, "recipientEmailAddressesToAdd");
+		fingerprint = null;
 		for (final String potentiallyCombinedEmailAddress : recipientEmailAddressesToAdd) {
-			for (final String emailAddress : extractEmailAddresses(potentiallyCombinedEmailAddress)) {
-				recipients.add(interpretRecipientData(recipientName, emailAddress, type));
+			final EmailAddressTokenizer emailAddresses = new EmailAddressTokenizer(checkNonEmptyArgument(potentiallyCombinedEmailAddress, "emailAddressList"));
+			while (emailAddresses.next()) {
+				recipients.add(interpretRecipientData(recipientName, emailAddresses.token(), type));
 			}
 		}
 	}
@@ -271,9 +328,9 @@ public class Email {
 		try {
 			InternetAddress parsedAddress = InternetAddress.parse(emailAddress, false)[0];
 			String relevantName = parsedAddress.getPersonal() != null ? parsedAddress.getPersonal() : recipientName;
-			return new Recipient(relevantName, parsedAddress.getAddress(), type);
+			return RecipientPool.intern(new Recipient(relevantName, parsedAddress.getAddress(), type));
 		} catch (AddressException e) {
-			return new Recipient(recipientName, emailAddress, type);
+			return RecipientPool.intern(new Recipient(recipientName, emailAddress, type));
 		}
 	}
 
@@ -286,16 +343,30 @@ public class Email {
 	 * @see RecipientType
 	 */
 	public void addRecipients(final Recipient... recipientsToAdd) {
+		fingerprint = null;
 		for (final Recipient recipient : checkNonEmptyArgument(recipientsToAdd, "recipientsToAdd")) {
 			final String address = checkNonEmptyArgument(recipient.getAddress(), "recipient.address");
 			final RecipientType type = checkNonEmptyArgument(recipient.getType(), "recipient.type");
-			recipients.add(new Recipient(recipient.getName(), address, type));
+			recipients.add(RecipientPool.intern(new Recipient(recipient.getName(), address, type)));
 		}
 	}
 
+	/**
+	 * Turns on deduplication of recipients: from now on a recipient whose address is already present is not added again. Instead, the
+	 * recipient that was added first is kept, with whichever of both types comes first in the given precedence. Addresses are compared
+	 * trimmed and with the domain in lower case. Recipients that are already duplicates are merged right away.
+	 *
+	 * @param precedence Recipient types in order of precedence; TO, CC, BCC when none are given. Types not listed come last.
+	 */
+	public void deduplicateRecipients(final RecipientType... precedence) {
+		recipients.deduplicate(checkNonEmptyArgument(precedence, "precedence"));
+		fingerprint = null;
+	}
+
 	/**
 	 * Adds a header to the {@link #headers} list. The value is stored as a <code>String</code>. example: <code>email.addHeader("X-Priority",
-	 * 2)</code>
+	 * 2)</code>. A header that was added before with the same name, ignoring case, is kept: the header is then sent once for each value,
+	 * in the order they were added. Use {@link #setHeader(String, Object)} to replace it instead.
 	 *
 	 * @param name  The name of the header.
 	 * @param value The value of the header, which will be stored using {@link String#valueOf(Object)}.
@@ -304,7 +375,20 @@ public class Email {
 	public void addHeader(final String name, final Object value) {
 		checkNonEmptyArgument(name, "name");
 		checkNonEmptyArgument(value, "value");
-		headers.put(name, String.valueOf(value));
+		headers.add(name, String.valueOf(value));
+		fingerprint = null;
+	}
+
+	/**
+	 * Like {@link #addHeader(String, Object)}, but replaces the values of any header that was added before with the same name, ignoring
+	 * case. The header keeps the position of the first one.
+	 */
+	@SuppressWarnings("WeakerAccess")
+	public void setHeader(final String name, final Object value) {
+		checkNonEmptyArgument(name, "name");
+		checkNonEmptyArgument(value, "value");
+		headers.set(name, String.valueOf(value));
+		fingerprint = null;
 	}
 
 	/**
@@ -350,17 +434,77 @@ public class Email {
 	}
 	
 	/**
-	 * Bean getter for {@link #text}.
+	 * Bean getter for {@link #text}. When the text has a {@link #getTextSource() source}, reads it from there every time.
+	 *
+	 * @throws MailException When the source could not be read.
 	 */
 	public String getText() {
-		return text;
+		return textSource != null ? textSource.readBody() : text;
 	}
 
 	/**
-	 * Bean getter for {@link #textHTML}.
+	 * Bean getter for {@link #textHTML}. When the html has a {@link #getTextHTMLSource() source}, reads it from there every time.
+	 *
+	 * @throws MailException When the source could not be read.
 	 */
 	public String getTextHTML() {
-		return textHTML;
+		return textHTMLSource != null ? textHTMLSource.readBody() : textHTML;
+	}
+
+	/**
+	 * Bean getter for {@link #textSource}.
+	 */
+	public BodySource getTextSource() {
+		return textSource;
+	}
+
+	/**
+	 * Bean getter for {@link #textHTMLSource}.
+	 */
+	public BodySource getTextHTMLSource() {
+		return textHTMLSource;
+	}
+
+	/**
+	 * Bean getter for {@link #attachments} as unmodifiable list.
+	 */
+	public List<Attachment> getAttachments() {
+		return attachments;
+	}
+
+	/**
+	 * Returns {@link #renderedBody}, rendering it the first time. Changing the text, HTML or attachments of this email discards the rendered
+	 * body. When the text or HTML has a source or there are attachments, the rendered body is streamed from them, see
+	 * {@link RenderedBody#isStreamed()}.
+	 *
+	 * @throws MailException When the body could not be encoded.
+	 */
+	public RenderedBody getRenderedBody() {
+		RenderedBody result = renderedBody;
+		if (result == null) {
+			try {
+				result = RenderedBody.render(text, textSource, textHTML, textHTMLSource, attachments);
+			} catch (final MessagingException e) {
+				throw new MailException("could not encode email body", e);
+			}
+			renderedBody = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns {@link #fingerprint}, computing it the first time.
+	 *
+	 * @throws MailException When computing it and the text or html source could not be read.
+	 * @see EmailFingerprint
+	 */
+	public EmailFingerprint getFingerprint() {
+		EmailFingerprint result = fingerprint;
+		if (result == null) {
+			result = EmailFingerprint.of(this);
+			fingerprint = result;
+		}
+		return result;
 	}
 
 	/**
@@ -371,16 +515,95 @@ public class Email {
 	}
 
 	/**
-	 * Bean getter for {@link #headers} as unmodifiable map.
+	 * @return Read-only view on the {@link RecipientType#TO} recipients, in the order they were added.
+	 */
+	public List<Recipient> getToRecipients() {
+		return recipients.ofType(RecipientType.TO);
+	}
+
+	/**
+	 * @return Read-only view on the {@link RecipientType#CC} recipients, in the order they were added.
+	 */
+	public List<Recipient> getCcRecipients() {
+		return recipients.ofType(RecipientType.CC);
+	}
+
+	/**
+	 * @return Read-only view on the {@link RecipientType#BCC} recipients, in the order they were added.
+	 */
+	public List<Recipient> getBccRecipients() {
+		return recipients.ofType(RecipientType.BCC);
+	}
+
+	/**
+	 * Bean getter for {@link #headers} as unmodifiable map of each name to its first value, in the order the names were first added. Names
+	 * are looked up ignoring case.
+	 *
+	 * @see #getHeaderValues(String)
+	 * @see #getAllHeaders()
 	 */
 	public Map<String, String> getHeaders() {
-		return Collections.unmodifiableMap(headers);
+		return headers.asMap();
+	}
+
+	/**
+	 * @return All values of the header with the given name, ignoring case, in the order they were added.
+	 */
+	public List<String> getHeaderValues(final String name) {
+		return headers.getAll(checkNonEmptyArgument(name, "name"));
+	}
+
+	/**
+	 * @return Read-only view on all headers in the order they were added, including every value of headers that occur more than once.
+	 */
+	public List<Map.Entry<String, String>> getAllHeaders() {
+		return headers.entries();
+	}
+
+	/**
+	 * Creates an email with the same content as this one, addressed to the given recipients instead of to the recipients of this email.
+	 * Everything else is taken over by reference, including the rendered body, so that sending the same email to many recipients
+	 * individually neither copies nor renders the content again. The {@link #getId() id} is not taken over, since every message needs a
+	 * Message-ID of its own.
+	 *
+	 * @param recipientsToUse The recipients of the new email, see {@link #addRecipients(Recipient...)}.
+	 */
+	public Email withRecipients(final Recipient... recipientsToUse) {
+		final Email email = new Email(this);
+		email.addRecipients(recipientsToUse);
+		return email;
 	}
 
+	/**
+	 * @return The recipients themselves rather than a view, so that {@link EmailBuilder#copyOf(Email)} can take a snapshot of them.
+	 */
+	RecipientList recipients() {
+		return recipients;
+	}
+
+	/**
+	 * @return The headers themselves rather than a view, so that {@link EmailBuilder#copyOf(Email)} can take a snapshot of them.
+	 */
+	HeaderList headers() {
+		return headers;
+	}
+
+	/**
+	 * @return {@link #renderedBody} if it was rendered already, else {@code null}.
+	 */
+	RenderedBody renderedBody() {
+		return renderedBody;
+	}
 
+	/**
+	 * Derived from the {@link #getFingerprint() fingerprint}. The first call computes it, which reads the text and html from their
+	 * {@link BodySource} if they have one, so it may do I/O and throw a {@link MailException} like {@link #getText()} does.
+	 *
+	 * @see #getFingerprint()
+	 */
 	@Override
 	public int hashCode() {
-		return 0;
+		return getFingerprint().hashCode();
 	}
 
 	@Override
@@ -391,23 +614,89 @@ public class Email {
 
 	@Override
 	public String toString() {
-		String s = "Email{" +
-				"\n\tid=" + id +
-				"\n\tfromRecipient=" + fromRecipient +
-				",\n\treplyToRecipient=" + replyToRecipient +
-				",\n\ttext='" + text + '\'' +
-				",\n\ttextHTML='" + textHTML + '\'' +
-				",\n\tsubject='" + subject + '\'' +
-				",\n\trecipients=" + recipients;
+		final StringBuilder s = new StringBuilder();
+		try {
+			appendTo(s, LimitOptions.UNLIMITED);
+		} catch (final IOException e) {
+			throw new AssertionError(e);
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Writes the same as {@link #toString()} field by field, leaving out what exceeds the limits. The text and the HTML are cut off after
+	 * the maximum number of characters, followed by their full length; recipients beyond the maximum are only counted. Nothing is copied
+	 * into an intermediate string, so this is cheap enough to log every email that is sent.
+	 *
+	 * @param out    For example a log buffer or {@link StringBuilder}.
+	 * @param limits For example {@code new LimitOptions(200, 10)}, or {@link LimitOptions#UNLIMITED}.
+	 * @return The given appendable.
+	 */
+	public <A extends Appendable> A appendTo(final A out, final LimitOptions limits) throws IOException {
+		checkNonEmptyArgument(out, "out");
+		checkNonEmptyArgument(limits, "limits");
+		out.append("Email{")
+				.append("\n\tid=").append(id)
+				.append("\n\tfromRecipient=").append(String.valueOf(fromRecipient))
+				.append(",\n\treplyToRecipient=").append(String.valueOf(replyToRecipient))
+				.append(",\n\ttext=");
+		appendBody(out, text, textSource, limits.getMaxBodyLength());
+		out.append(",\n\ttextHTML=");
+		appendBody(out, textHTML, textHTMLSource, limits.getMaxBodyLength());
+		out.append(",\n\tsubject='").append(subject).append('\'')
+				.append(",\n\trecipients=[");
+		final int shownRecipients = Math.min(recipients.size(), limits.getMaxRecipients());
+		for (int i = 0; i < shownRecipients; i++) {
+			if (i > 0) {
+				out.append(", ");
+			}
+			out.append(recipients.get(i).toString());
+		}
+		if (shownRecipients < recipients.size()) {
+			out.append(shownRecipients > 0 ? ", " : "")
+					.append("... ").append(String.valueOf(recipients.size() - shownRecipients)).append(" more");
+		}
+		out.append(']');
 		if (useReturnReceiptTo) {
-			s += ",\n\tuseReturnReceiptTo=" + true +
-					",\n\t\treturnReceiptTo=" + returnReceiptTo;
+			out.append(",\n\tuseReturnReceiptTo=true")
+					.append(",\n\t\treturnReceiptTo=").append(String.valueOf(returnReceiptTo));
 		}
 		if (!headers.isEmpty()) {
-			s += ",\n\theaders=" + headers;
+			out.append(",\n\theaders={");
+			for (int i = 0; i < headers.size(); i++) {
+				out.append(i > 0 ? ", " : "").append(headers.name(i)).append('=').append(headers.value(i));
+			}
+			out.append('}');
+		}
+		if (!attachments.isEmpty()) {
+			out.append(",\n\tattachments=").append(attachments.toString());
+		}
+		out.append("\n}");
+		return out;
+	}
+
+	/**
+	 * Reads a body with a source no further than the maximum length, leaving out its full length, which isn't known without reading it all.
+	 */
+	private static void appendBody(final Appendable out, final String body, final BodySource source, final int maxLength)
+			throws IOException {
+		if (source != null) {
+			try (Reader reader = source.openReader()) {
+				out.append('\'');
+				final char[] buffer = new char[(int) Math.min(maxLength, 8192L) + 1];
+				int remaining = maxLength;
+				int read = 0;
+				while (remaining > 0 && (read = reader.read(buffer, 0, Math.min(remaining, buffer.length))) >= 0) {
+					out.append(CharBuffer.wrap(buffer, 0, read));
+					remaining -= read;
+				}
+				out.append(read >= 0 && reader.read() >= 0 ? "'... (truncated)" : "'");
+			}
+		} else if (body == null || body.length() <= maxLength) {
+			out.append('\'').append(body).append('\'');
+		} else {
+			out.append('\'').append(body, 0, maxLength).append("'... (").append(String.valueOf(body.length())).append(" characters)");
 		}
-		s += "\n}";
-		return s;
 	}
 
 	/**
@@ -417,15 +706,20 @@ public class Email {
 	 */
 	Email(final EmailBuilder builder) {
 		checkNonEmptyArgument(builder, "builder");
-		recipients = builder.getRecipients();
-		headers = builder.getHeaders();
+		recipients = builder.recipients().snapshot();
+		headers = builder.headers().snapshot();
 
 		id = builder.getId();
 		fromRecipient = builder.getFromRecipient();
 		replyToRecipient = builder.getReplyToRecipient();
-		text = builder.getText();
-		textHTML = builder.getTextHTML();
+		textSource = builder.getTextSource();
+		textHTMLSource = builder.getTextHTMLSource();
+		text = textSource == null ? builder.getText() : null;
+		textHTML = textHTMLSource == null ? builder.getTextHTML() : null;
 		subject = builder.getSubject();
+		final List<Attachment> builderAttachments = builder.getAttachments();
+		attachments = builderAttachments.isEmpty() ? Collections.<Attachment>emptyList() : Collections.unmodifiableList(builderAttachments);
+		renderedBody = builder.renderedBody();
 
 		useReturnReceiptTo = builder.isUseReturnReceiptTo();
 
@@ -440,4 +734,23 @@ public class Email {
 				}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Copy constructor for {@link #withRecipients(Recipient...)}, which takes over everything but the id and the recipients.
+	 */
+	private Email(final Email prototype) {
+		recipients = new RecipientList();
+		headers = prototype.headers.snapshot();
+		fromRecipient = prototype.fromRecipient;
+		replyToRecipient = prototype.replyToRecipient;
+		text = prototype.text;
+		textHTML = prototype.textHTML;
+		textSource = prototype.textSource;
+		textHTMLSource = prototype.textHTMLSource;
+		subject = prototype.subject;
+		attachments = prototype.attachments;
+		useReturnReceiptTo = prototype.useReturnReceiptTo;
+		returnReceiptTo = prototype.returnReceiptTo;
+		renderedBody = prototype.renderedBody;
+	}
+}
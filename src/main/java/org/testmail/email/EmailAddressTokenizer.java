@@ -0,0 +1,131 @@
+package org.testmail.email;
+
+/**
+ * Single pass tokenizer for comma or semicolon separated address lists, such as {@code "a@domain.com; Name <b@domain.com>"}.
+ * <p>
+ * A comma or semicolon only separates addresses when an {@code @} occurred since the previous separator, so names like
+ * {@code "Doe, John <john@domain.com>"} stay intact. Whitespace around separators is not part of the addresses, a trailing separator
+ * (optionally followed by whitespace or a final line break) is ignored. As in a regular expression, an {@code @} is no longer considered
+ * once a line break follows it other than right before the separator.
+ * <p>
+ * Usage: call {@link #next()} until it returns {@code false}, reading the span of each address with {@link #start()} and {@link #end()},
+ * or as string with {@link #token()}.
+ *
+ * @see EmailUtils#extractEmailAddresses(String)
+ */
+final class EmailAddressTokenizer {
+
+	private final CharSequence input;
+	private final int length;
+
+	/**
+	 * Where the next token starts, or {@code length + 1} when the input is exhausted.
+	 */
+	private int position;
+	private boolean afterSeparator;
+	private int start;
+	private int end;
+
+	EmailAddressTokenizer(final CharSequence input) {
+		this.input = input;
+		this.length = input.length();
+	}
+
+	/**
+	 * Advances to the next address.
+	 *
+	 * @return Whether there was another address.
+	 */
+	boolean next() {
+		if (position > length) {
+			return false;
+		}
+		final int separatorEnd = position;
+		int tokenStart = position;
+		if (afterSeparator) {
+			while (tokenStart < length && isWhitespace(input.charAt(tokenStart))) {
+				tokenStart++;
+			}
+		}
+		boolean atSeen = false;
+		boolean lineBreakSinceAt = false;
+		for (int i = tokenStart; i < length; i++) {
+			final char c = input.charAt(i);
+			if (c == '@') {
+				atSeen = true;
+				lineBreakSinceAt = false;
+			} else if ((c == ',' || c == ';') && atSeen) {
+				int tokenEnd = i;
+				while (tokenEnd > tokenStart && isWhitespace(input.charAt(tokenEnd - 1))) {
+					tokenEnd--;
+				}
+				start = tokenStart;
+				end = tokenEnd;
+				position = i + 1;
+				afterSeparator = true;
+				return true;
+			} else if (atSeen) {
+				if (isLineTerminator(c)) {
+					if (isWhitespace(c)) {
+						// fine if only whitespace follows up to the separator
+						lineBreakSinceAt = true;
+					} else {
+						atSeen = false;
+					}
+				} else if (lineBreakSinceAt && !isWhitespace(c)) {
+					atSeen = false;
+					lineBreakSinceAt = false;
+				}
+			}
+		}
+		position = length + 1;
+		if (afterSeparator && (tokenStart == length || isFinalLineBreak(separatorEnd))) {
+			// trailing separator
+			return false;
+		}
+		start = tokenStart;
+		end = length;
+		return true;
+	}
+
+	/**
+	 * @return Start index (inclusive) of the current address in the input.
+	 */
+	int start() {
+		return start;
+	}
+
+	/**
+	 * @return End index (exclusive) of the current address in the input.
+	 */
+	int end() {
+		return end;
+	}
+
+	/**
+	 * @return The current address.
+	 */
+	String token() {
+		return input.subSequence(start, end).toString();
+	}
+
+	private boolean isFinalLineBreak(final int from) {
+		final int remaining = length - from;
+		return (remaining == 1 && isLineTerminator(input.charAt(from)))
+				|| (remaining == 2 && input.charAt(from) == '\r' && input.charAt(from + 1) == '\n');
+	}
+
+	/**
+	 * Whitespace as matched by {@code \s} in a regular expression.
+	 */
+	private static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Line terminators as excluded by {@code .} in a regular expression.
+	 */
+	private static boolean isLineTerminator(final char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+}
\ No newline at end of file
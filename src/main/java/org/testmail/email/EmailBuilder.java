@@ -2,24 +2,11 @@ package org.testmail.email;
 
 import javax.mail.Message;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_BCC_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_BCC_NAME;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_CC_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_CC_NAME;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_FROM_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_FROM_NAME;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_REPLYTO_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_REPLYTO_NAME;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_SUBJECT;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_TO_ADDRESS;
-import static org.testmail.email.EmailUtils.Property.DEFAULT_TO_NAME;
-import static org.testmail.email.EmailUtils.getProperty;
-import static org.testmail.email.EmailUtils.hasProperty;
 
 public class EmailBuilder {
 	
@@ -44,6 +31,16 @@ public class EmailBuilder {
 	 * The email message body in html.
 	 */
 	private String textHTML;
+
+	/**
+	 * Set instead of {@link #text} when the plain text is read from a source whenever it's needed.
+	 */
+	private BodySource textSource;
+
+	/**
+	 * Set instead of {@link #textHTML} when the html is read from a source whenever it's needed.
+	 */
+	private BodySource textHTMLSource;
 	
 	/**
 	 * The subject of the email message.
@@ -53,12 +50,17 @@ public class EmailBuilder {
 	/**
 	 * List of {@link Recipient}.
 	 */
-	private final List<Recipient> recipients;
+	private final RecipientList recipients;
 	
 	/**
-	 * Map of header name and values, such as <code>X-Priority</code> etc.
+	 * Headers such as <code>X-Priority</code> etc., in the order they were added; a name can occur more than once.
+	 */
+	private final HeaderList headers;
+
+	/**
+	 * Files and inline resources, in the order they were added.
 	 */
-	private final Map<String, String> headers;
+	private final List<Attachment> attachments = new ArrayList<>();
 
 	private boolean useReturnReceiptTo;
 	
@@ -66,46 +68,78 @@ public class EmailBuilder {
 	 * @see #useReturnReceiptTo
 	 */
 	private Recipient returnReceiptTo;
+
+	/**
+	 * The body rendered for the email this builder was copied from, as long as the text and HTML are unchanged.
+	 */
+	private RenderedBody renderedBody;
 	
 	public EmailBuilder() {
-		recipients = new ArrayList<>();
-		headers = new HashMap<>();
-		
-		if (hasProperty(DEFAULT_FROM_ADDRESS)) {
-			from((String) getProperty(DEFAULT_FROM_NAME), (String) getProperty(DEFAULT_FROM_ADDRESS));
-		}
-		if (hasProperty(DEFAULT_REPLYTO_ADDRESS)) {
-			replyTo((String) getProperty(DEFAULT_REPLYTO_NAME), (String) getProperty(DEFAULT_REPLYTO_ADDRESS));
-		}
-		if (hasProperty(DEFAULT_TO_ADDRESS)) {
-			if (hasProperty(DEFAULT_TO_NAME)) {
-				to((String) getProperty(DEFAULT_TO_NAME), (String) getProperty(DEFAULT_TO_ADDRESS));
-			} else {
-				to((String) getProperty(DEFAULT_TO_ADDRESS));
-			}
-		}
-		if (hasProperty(DEFAULT_CC_ADDRESS)) {
-			if (hasProperty(DEFAULT_CC_NAME)) {
-				cc((String) getProperty(DEFAULT_CC_NAME), (String) getProperty(DEFAULT_CC_ADDRESS));
-			} else {
-				cc((String) getProperty(DEFAULT_CC_ADDRESS));
-			}
-		}
-		if (hasProperty(DEFAULT_BCC_ADDRESS)) {
-			if (hasProperty(DEFAULT_BCC_NAME)) {
-				bcc((String) getProperty(DEFAULT_BCC_NAME), (String) getProperty(DEFAULT_BCC_ADDRESS));
-			} else {
-				bcc((String) getProperty(DEFAULT_BCC_ADDRESS));
-			}
-		}
-		if (hasProperty(DEFAULT_SUBJECT)) {
-			subject((String) getProperty(DEFAULT_SUBJECT));
-		}
+		recipients = new RecipientList();
+		headers = new HeaderList();
+		applyDefaults();
+	}
+
+	private void applyDefaults() {
+		final EmailDefaults defaults = EmailUtils.config().getEmailDefaults();
+		fromRecipient = defaults.getFromRecipient();
+		replyToRecipient = defaults.getReplyToRecipient();
+		recipients.addAll(defaults.getRecipients());
+		subject = defaults.getSubject();
+	}
+	
+	/**
+	 * Copies all fields of the prototype but its {@link Email#getId() id}, without reading the defaults from the config. The recipients,
+	 * headers and the rendered body are shared with the prototype rather than copied, and emails built from the copy share them as well as
+	 * long as they are unchanged. Like {@link Email#withRecipients(Recipient...)}, the id is left out since every message needs a Message-ID
+	 * of its own; set one with {@link #id(String)} if needed.
+	 *
+	 * @param prototype The email to start from, for example a template to send to different recipients.
+	 */
+	public static EmailBuilder copyOf(final Email prototype) {
+		return new EmailBuilder(checkNonEmptyArgument(prototype, "prototype"));
+	}
+
+	private EmailBuilder(final Email prototype) {
+		recipients = prototype.recipients().snapshot();
+		headers = prototype.headers().snapshot();
+		fromRecipient = prototype.getFromRecipient();
+		replyToRecipient = prototype.getReplyToRecipient();
+		textSource = prototype.getTextSource();
+		textHTMLSource = prototype.getTextHTMLSource();
+		text = textSource == null ? prototype.getText() : null;
+		textHTML = textHTMLSource == null ? prototype.getTextHTML() : null;
+		subject = prototype.getSubject();
+		attachments.addAll(prototype.getAttachments());
+		useReturnReceiptTo = prototype.isUseReturnReceiptTo();
+		returnReceiptTo = prototype.getReturnReceiptTo();
+		renderedBody = prototype.renderedBody();
 	}
 	
 	public Email build() {
 		return new Email(this);
 	}
+
+	/**
+	 * Clears everything set on this builder and applies the defaults from the config again, as if it was just created, so that a single
+	 * builder can build any number of emails. The storage of the recipients and headers is reused as long as it isn't shared with an email
+	 * built before; otherwise it's allocated again with the size it had, so that a batch of similar emails doesn't grow it step by step.
+	 */
+	public EmailBuilder reset() {
+		id = null;
+		text = null;
+		textHTML = null;
+		textSource = null;
+		textHTMLSource = null;
+		useReturnReceiptTo = false;
+		returnReceiptTo = null;
+		renderedBody = null;
+		attachments.clear();
+		recipients.clear();
+		headers.clear();
+		applyDefaults();
+		return this;
+	}
 	
 	/**
 	 * Sets the optional id to be used when sending using the underlying Java Mail framework. Will be generated otherwise.
@@ -174,14 +208,57 @@ public class EmailBuilder {
 	 */
 	public EmailBuilder text(final String text) {
 		this.text = text;
+		this.textSource = null;
+		this.renderedBody = null;
+		return this;
+	}
+
+	/**
+	 * Sets the {@link #textSource} to read the plain text from whenever it's needed, replacing {@link #text}.
+	 *
+	 * @see Email#setTextSource(BodySource)
+	 */
+	public EmailBuilder textSource(final BodySource textSource) {
+		this.textSource = textSource;
+		this.text = null;
+		this.renderedBody = null;
 		return this;
 	}
 	
+	/**
+	 * Like {@link Email#compressBodies()}: the compressed bodies are shared by every email built from this builder afterwards.
+	 */
+	public EmailBuilder compressBodies() {
+		final BodySource compressedText = BodySource.compressIfSmaller(text);
+		if (compressedText != null) {
+			textSource(compressedText);
+		}
+		final BodySource compressedTextHTML = BodySource.compressIfSmaller(textHTML);
+		if (compressedTextHTML != null) {
+			textHTMLSource(compressedTextHTML);
+		}
+		return this;
+	}
+
 	/**
 	 * Sets the {@link #textHTML}.
 	 */
 	public EmailBuilder textHTML(final String textHTML) {
 		this.textHTML = textHTML;
+		this.textHTMLSource = null;
+		this.renderedBody = null;
+		return this;
+	}
+
+	/**
+	 * Sets the {@link #textHTMLSource} to read the html from whenever it's needed, replacing {@link #textHTML}.
+	 *
+	 * @see Email#setTextHTMLSource(BodySource)
+	 */
+	public EmailBuilder textHTMLSource(final BodySource textHTMLSource) {
+		this.textHTMLSource = textHTMLSource;
+		this.textHTML = null;
+		this.renderedBody = null;
 		return this;
 	}
 	
@@ -194,7 +271,7 @@ public class EmailBuilder {
 	 */
 	public EmailBuilder to(final Recipient... recipientsToAdd) {
 		for (final Recipient recipient : checkNonEmptyArgument(recipientsToAdd, "recipientsToAdd")) {
-			recipients.add(new Recipient(recipient.getName(), recipient.getAddress(), Message.RecipientType.TO));
+			recipients.add(RecipientPool.intern(new Recipient(recipient.getName(), recipient.getAddress(), Message.RecipientType.TO)));
 		}
 		return this;
 	}
@@ -222,8 +299,9 @@ public class EmailBuilder {
 
 	private EmailBuilder addCommaOrSemicolonSeparatedEmailAddresses(final String name, final String emailAddressList, final Message.RecipientType type) {
 		checkNonEmptyArgument(type, "type");
-		for (final String emailAddress : EmailUtils.extractEmailAddresses(checkNonEmptyArgument(emailAddressList, "emailAddressList"))) {
-			recipients.add(Email.interpretRecipientData(name, emailAddress, type));
+		final EmailAddressTokenizer emailAddresses = new EmailAddressTokenizer(checkNonEmptyArgument(emailAddressList, "emailAddressList"));
+		while (emailAddresses.next()) {
+			recipients.add(Email.interpretRecipientData(name, emailAddresses.token(), type));
 		}
 		return this;
 	}
@@ -237,7 +315,7 @@ public class EmailBuilder {
 	 */
 	public EmailBuilder to(final String... emailAddresses) {
 		for (final String emailAddress : checkNonEmptyArgument(emailAddresses, "emailAddresses")) {
-			recipients.add(new Recipient(null, emailAddress, Message.RecipientType.TO));
+			recipients.add(RecipientPool.intern(new Recipient(null, emailAddress, Message.RecipientType.TO)));
 		}
 		return this;
 	}
@@ -252,7 +330,7 @@ public class EmailBuilder {
 	@SuppressWarnings("QuestionableName")
 	public EmailBuilder cc(final String... emailAddresses) {
 		for (final String emailAddress : checkNonEmptyArgument(emailAddresses, "emailAddresses")) {
-			recipients.add(new Recipient(null, emailAddress, Message.RecipientType.CC));
+			recipients.add(RecipientPool.intern(new Recipient(null, emailAddress, Message.RecipientType.CC)));
 		}
 		return this;
 	}
@@ -291,7 +369,7 @@ public class EmailBuilder {
 	@SuppressWarnings("QuestionableName")
 	public EmailBuilder cc(final Recipient... recipientsToAdd) {
 		for (final Recipient recipient : checkNonEmptyArgument(recipientsToAdd, "recipientsToAdd")) {
-			recipients.add(new Recipient(recipient.getName(), recipient.getAddress(), Message.RecipientType.CC));
+			recipients.add(RecipientPool.intern(new Recipient(recipient.getName(), recipient.getAddress(), Message.RecipientType.CC)));
 		}
 		return this;
 	}
@@ -305,7 +383,7 @@ public class EmailBuilder {
 	 */
 	public EmailBuilder bcc(final String... emailAddresses) {
 		for (final String emailAddress : checkNonEmptyArgument(emailAddresses, "emailAddresses")) {
-			recipients.add(new Recipient(null, emailAddress, Message.RecipientType.BCC));
+			recipients.add(RecipientPool.intern(new Recipient(null, emailAddress, Message.RecipientType.BCC)));
 		}
 		return this;
 	}
@@ -340,14 +418,27 @@ public class EmailBuilder {
 	 */
 	public EmailBuilder bcc(final Recipient... recipientsToAdd) {
 		for (final Recipient recipient : checkNonEmptyArgument(recipientsToAdd, "recipientsToAdd")) {
-			recipients.add(new Recipient(recipient.getName(), recipient.getAddress(), Message.RecipientType.BCC));
+			recipients.add(RecipientPool.intern(new Recipient(recipient.getName(), recipient.getAddress(), Message.RecipientType.BCC)));
 		}
 		return this;
 	}
 
+	/**
+	 * Turns on deduplication of recipients: from now on a recipient whose address is already present is not added again. Instead, the
+	 * recipient that was added first is kept, with whichever of both types comes first in the given precedence. Addresses are compared
+	 * trimmed and with the domain in lower case. Recipients that are already duplicates are merged right away.
+	 *
+	 * @param precedence Recipient types in order of precedence; TO, CC, BCC when none are given. Types not listed come last.
+	 */
+	public EmailBuilder deduplicateRecipients(final Message.RecipientType... precedence) {
+		recipients.deduplicate(checkNonEmptyArgument(precedence, "precedence"));
+		return this;
+	}
+
 	/**
 	 * Adds a header to the {@link #headers} list. The value is stored as a <code>String</code>. example: <code>email.addHeader("X-Priority",
-	 * 2)</code>
+	 * 2)</code>. A header that was added before with the same name, ignoring case, is kept: the header is then sent once for each value,
+	 * in the order they were added. Use {@link #setHeader(String, Object)} to replace it instead.
 	 *
 	 * @param name  The name of the header.
 	 * @param value The value of the header, which will be stored using {@link String#valueOf(Object)}.
@@ -355,7 +446,29 @@ public class EmailBuilder {
 	public EmailBuilder addHeader(final String name, final Object value) {
 		checkNonEmptyArgument(name, "name");
 		checkNonEmptyArgument(value, "value");
-		headers.put(name, String.valueOf(value));
+		headers.add(name, String.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * Like {@link #addHeader(String, Object)}, but replaces the values of any header that was added before with the same name, ignoring
+	 * case. The header keeps the position of the first one.
+	 */
+	public EmailBuilder setHeader(final String name, final Object value) {
+		checkNonEmptyArgument(name, "name");
+		checkNonEmptyArgument(value, "value");
+		headers.set(name, String.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * Adds a file or, when {@link Attachment#inline(String) inline}, a resource that the html refers to by its content-id.
+	 *
+	 * @see Email#addAttachment(Attachment)
+	 */
+	public EmailBuilder addAttachment(final Attachment attachment) {
+		attachments.add(checkNonEmptyArgument(attachment, "attachment"));
+		this.renderedBody = null;
 		return this;
 	}
 
@@ -408,12 +521,26 @@ public class EmailBuilder {
 		return replyToRecipient;
 	}
 	
+	/**
+	 * @throws MailException When the text has a source that could not be read.
+	 */
 	public String getText() {
-		return text;
+		return textSource != null ? textSource.readBody() : text;
 	}
 	
+	/**
+	 * @throws MailException When the html has a source that could not be read.
+	 */
 	public String getTextHTML() {
-		return textHTML;
+		return textHTMLSource != null ? textHTMLSource.readBody() : textHTML;
+	}
+
+	public BodySource getTextSource() {
+		return textSource;
+	}
+
+	public BodySource getTextHTMLSource() {
+		return textHTMLSource;
 	}
 	
 	public String getSubject() {
@@ -424,9 +551,67 @@ public class EmailBuilder {
 		return new ArrayList<>(recipients);
 	}
 
+	public List<Attachment> getAttachments() {
+		return new ArrayList<>(attachments);
+	}
+
+	/**
+	 * @return Read-only view on the {@link Message.RecipientType#TO} recipients, in the order they were added.
+	 */
+	public List<Recipient> getToRecipients() {
+		return recipients.ofType(Message.RecipientType.TO);
+	}
+
+	/**
+	 * @return Read-only view on the {@link Message.RecipientType#CC} recipients, in the order they were added.
+	 */
+	public List<Recipient> getCcRecipients() {
+		return recipients.ofType(Message.RecipientType.CC);
+	}
+
+	/**
+	 * @return Read-only view on the {@link Message.RecipientType#BCC} recipients, in the order they were added.
+	 */
+	public List<Recipient> getBccRecipients() {
+		return recipients.ofType(Message.RecipientType.BCC);
+	}
+
+	/**
+	 * @return The recipients themselves rather than a copy, so that {@link #build()} can take a snapshot of them.
+	 */
+	RecipientList recipients() {
+		return recipients;
+	}
+
+	/**
+	 * @return The headers themselves rather than a copy, so that {@link #build()} can take a snapshot of them.
+	 */
+	HeaderList headers() {
+		return headers;
+	}
+
+	/**
+	 * @return {@link #renderedBody}, {@code null} unless copied from an email that was rendered already.
+	 */
+	RenderedBody renderedBody() {
+		return renderedBody;
+	}
+
 	
+	/**
+	 * @return A copy that maps each header name to its first value, in the order the names were first added. Changing the copy doesn't
+	 * change the builder. Being a regular map, it looks up names with their exact case, unlike {@link Email#getHeaders()}.
+	 * @see #getHeaderValues(String)
+	 */
 	public Map<String, String> getHeaders() {
-		return new HashMap<>(headers);
+		return new LinkedHashMap<>(headers.asMap());
+	}
+
+	/**
+	 * @return All values of the header with the given name, ignoring case, in the order they were added.
+	 */
+	public List<String> getHeaderValues(final String name) {
+		return headers.getAll(checkNonEmptyArgument(name, "name"));
 	}
 	
 	public boolean isUseReturnReceiptTo() {
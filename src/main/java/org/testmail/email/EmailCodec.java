@@ -0,0 +1,400 @@
+package org.testmail.email;
+
+import javax.mail.Message.RecipientType;
+import javax.mail.internet.MimeMessage;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
+
+/**
+ * Compact binary format for queueing an {@link Email} between processes. Decoding an encoded email gives an email that is equal to it
+ * (see {@link Email#equals(Object)}), with the same id.
+ * <p>
+ * The format, in order:
+ * <ol>
+ * <li>the schema version, one byte ({@value #VERSION})</li>
+ * <li>a bitmap telling which of the optional fields follow, as varint</li>
+ * <li>the optional id, sender, reply-to address, text, HTML, subject and return receipt address</li>
+ * <li>the number of recipients as varint, followed by the recipients</li>
+ * <li>the number of headers as varint, followed by the name and value of each header in order</li>
+ * </ol>
+ * Strings are written as their UTF-8 length as varint followed by the UTF-8 bytes, recipients as a byte holding the recipient type and
+ * whether a name follows, then the optional name and the address. Varints are unsigned, seven bits per byte, least significant first.
+ * <p>
+ * {@link Attachment Attachments} refer to files, buffers and streams of this process, so emails with attachments can't be encoded.
+ */
+public final class EmailCodec {
+
+	/**
+	 * The schema version written by this codec, and the only one it reads.
+	 */
+	public static final int VERSION = 1;
+
+	private static final int HAS_ID = 1;
+	private static final int HAS_FROM = 1 << 1;
+	private static final int HAS_REPLY_TO = 1 << 2;
+	private static final int HAS_TEXT = 1 << 3;
+	private static final int HAS_TEXT_HTML = 1 << 4;
+	private static final int HAS_SUBJECT = 1 << 5;
+	private static final int USE_RETURN_RECEIPT_TO = 1 << 6;
+	private static final int HAS_RETURN_RECEIPT_TO = 1 << 7;
+
+	private static final int RECIPIENT_TYPE_MASK = 0x07;
+	private static final int RECIPIENT_HAS_NAME = 0x08;
+
+	/**
+	 * Indexed by the type bits of a recipient.
+	 */
+	private static final RecipientType[] RECIPIENT_TYPES = {
+			null, RecipientType.TO, RecipientType.CC, RecipientType.BCC, MimeMessage.RecipientType.NEWSGROUPS
+	};
+
+	private EmailCodec() {
+	}
+
+	/**
+	 * Reads bodies that have a {@link BodySource} only once, using the same content to size the buffer and to encode.
+	 *
+	 * @return A buffer of exactly the encoded size, ready to be read.
+	 * @throws IllegalArgumentException When a recipient has a recipient type that can't be encoded, or the email has attachments.
+	 */
+	public static ByteBuffer encode(final Email email) {
+		checkEncodable(checkNonEmptyArgument(email, "email"));
+		final String text = email.getText();
+		final String textHTML = email.getTextHTML();
+		final ByteBuffer buffer = ByteBuffer.allocate(encodedSize(email, text, textHTML));
+		encode(email, text, textHTML, buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Writes the email at the position of the buffer, leaving the position after it. Bodies that have a {@link BodySource} are read again,
+	 * so when their content changes between reads the size can differ from the one {@link #encodedSize(Email)} gave.
+	 *
+	 * @param buffer A buffer with at least {@link #encodedSize(Email)} bytes remaining.
+	 * @throws java.nio.BufferOverflowException When the buffer has not enough space left.
+	 * @throws IllegalArgumentException When a recipient has a recipient type that can't be encoded, or the email has attachments.
+	 */
+	public static void encode(final Email email, final ByteBuffer buffer) {
+		checkEncodable(email);
+		encode(email, email.getText(), email.getTextHTML(), buffer);
+	}
+
+	private static void encode(final Email email, final String text, final String textHTML, final ByteBuffer buffer) {
+		buffer.put((byte) VERSION);
+		writeVarint(buffer, fieldBitmap(email, text, textHTML));
+		writeOptionalString(buffer, email.getId());
+		writeOptionalRecipient(buffer, email.getFromRecipient());
+		writeOptionalRecipient(buffer, email.getReplyToRecipient());
+		writeOptionalString(buffer, text);
+		writeOptionalString(buffer, textHTML);
+		writeOptionalString(buffer, email.getSubject());
+		writeOptionalRecipient(buffer, email.getReturnReceiptTo());
+
+		final List<Recipient> recipients = email.getRecipients();
+		writeVarint(buffer, recipients.size());
+		for (final Recipient recipient : recipients) {
+			writeRecipient(buffer, recipient);
+		}
+		final HeaderList headers = email.headers();
+		writeVarint(buffer, headers.size());
+		for (int i = 0; i < headers.size(); i++) {
+			writeString(buffer, headers.name(i));
+			writeString(buffer, headers.value(i));
+		}
+	}
+
+	/**
+	 * @return The number of bytes {@link #encode(Email, ByteBuffer)} writes for the email.
+	 * @throws IllegalArgumentException When the email has attachments.
+	 */
+	public static int encodedSize(final Email email) {
+		checkEncodable(email);
+		return encodedSize(email, email.getText(), email.getTextHTML());
+	}
+
+	private static int encodedSize(final Email email, final String text, final String textHTML) {
+		int size = 1 + varintSize(fieldBitmap(email, text, textHTML));
+		size += optionalStringSize(email.getId());
+		size += optionalRecipientSize(email.getFromRecipient());
+		size += optionalRecipientSize(email.getReplyToRecipient());
+		size += optionalStringSize(text);
+		size += optionalStringSize(textHTML);
+		size += optionalStringSize(email.getSubject());
+		size += optionalRecipientSize(email.getReturnReceiptTo());
+
+		final List<Recipient> recipients = email.getRecipients();
+		size += varintSize(recipients.size());
+		for (final Recipient recipient : recipients) {
+			size += recipientSize(recipient);
+		}
+		final HeaderList headers = email.headers();
+		size += varintSize(headers.size());
+		for (int i = 0; i < headers.size(); i++) {
+			size += stringSize(headers.name(i)) + stringSize(headers.value(i));
+		}
+		return size;
+	}
+
+	/**
+	 * Reads an email from the position of the buffer, leaving the position after it. The email doesn't get the defaults from the config.
+	 *
+	 * @throws IllegalArgumentException When the buffer doesn't hold an email of a supported version.
+	 */
+	public static Email decode(final ByteBuffer buffer) {
+		try {
+			final int version = buffer.get() & 0xFF;
+			if (version != VERSION) {
+				throw new IllegalArgumentException("unsupported email encoding version " + version);
+			}
+			final int fields = readVarint(buffer);
+			final Email email = new Email(false);
+			final char[] chars = new char[64];
+			if ((fields & HAS_ID) != 0) {
+				email.setId(readString(buffer, chars));
+			}
+			if ((fields & HAS_FROM) != 0) {
+				email.setFromAddress(readRecipient(buffer, chars));
+			}
+			if ((fields & HAS_REPLY_TO) != 0) {
+				email.setReplyToAddress(readRecipient(buffer, chars));
+			}
+			if ((fields & HAS_TEXT) != 0) {
+				email.setText(readString(buffer, chars));
+			}
+			if ((fields & HAS_TEXT_HTML) != 0) {
+				email.setTextHTML(readString(buffer, chars));
+			}
+			if ((fields & HAS_SUBJECT) != 0) {
+				email.setSubject(readString(buffer, chars));
+			}
+			if ((fields & HAS_RETURN_RECEIPT_TO) != 0) {
+				email.setReturnReceiptTo(readRecipient(buffer, chars));
+			}
+			email.setUseReturnReceiptTo((fields & USE_RETURN_RECEIPT_TO) != 0);
+
+			final RecipientList recipients = email.recipients();
+			for (int i = readVarint(buffer); i > 0; i--) {
+				recipients.add(readRecipient(buffer, chars));
+			}
+			for (int i = readVarint(buffer); i > 0; i--) {
+				email.addHeader(readString(buffer, chars), readString(buffer, chars));
+			}
+			return email;
+		} catch (final BufferUnderflowException e) {
+			throw new IllegalArgumentException("encoded email is truncated", e);
+		}
+	}
+
+	/**
+	 * Rejects emails with attachments, which would otherwise be lost without notice.
+	 */
+	private static void checkEncodable(final Email email) {
+		if (!email.getAttachments().isEmpty()) {
+			throw new IllegalArgumentException("emails with attachments can't be encoded");
+		}
+	}
+
+	private static int fieldBitmap(final Email email, final String text, final String textHTML) {
+		int fields = 0;
+		fields |= email.getId() != null ? HAS_ID : 0;
+		fields |= email.getFromRecipient() != null ? HAS_FROM : 0;
+		fields |= email.getReplyToRecipient() != null ? HAS_REPLY_TO : 0;
+		fields |= text != null ? HAS_TEXT : 0;
+		fields |= textHTML != null ? HAS_TEXT_HTML : 0;
+		fields |= email.getSubject() != null ? HAS_SUBJECT : 0;
+		fields |= email.isUseReturnReceiptTo() ? USE_RETURN_RECEIPT_TO : 0;
+		fields |= email.getReturnReceiptTo() != null ? HAS_RETURN_RECEIPT_TO : 0;
+		return fields;
+	}
+
+	private static void writeOptionalRecipient(final ByteBuffer buffer, final Recipient recipient) {
+		if (recipient != null) {
+			writeRecipient(buffer, recipient);
+		}
+	}
+
+	private static void writeRecipient(final ByteBuffer buffer, final Recipient recipient) {
+		final int type = recipientTypeCode(recipient.getType());
+		buffer.put((byte) (recipient.getName() != null ? type | RECIPIENT_HAS_NAME : type));
+		if (recipient.getName() != null) {
+			writeString(buffer, recipient.getName());
+		}
+		writeString(buffer, recipient.getAddress());
+	}
+
+	private static Recipient readRecipient(final ByteBuffer buffer, final char[] chars) {
+		final int attributes = buffer.get();
+		final int type = attributes & RECIPIENT_TYPE_MASK;
+		if (type >= RECIPIENT_TYPES.length) {
+			throw new IllegalArgumentException("unknown recipient type code " + type);
+		}
+		final String name = (attributes & RECIPIENT_HAS_NAME) != 0 ? readString(buffer, chars) : null;
+		return new Recipient(name, readString(buffer, chars), RECIPIENT_TYPES[type]);
+	}
+
+	private static int recipientTypeCode(final RecipientType type) {
+		for (int i = 0; i < RECIPIENT_TYPES.length; i++) {
+			if (type == null ? RECIPIENT_TYPES[i] == null : type.equals(RECIPIENT_TYPES[i])) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("unsupported recipient type " + type);
+	}
+
+	private static int optionalRecipientSize(final Recipient recipient) {
+		return recipient != null ? recipientSize(recipient) : 0;
+	}
+
+	private static int recipientSize(final Recipient recipient) {
+		return 1 + (recipient.getName() != null ? stringSize(recipient.getName()) : 0) + stringSize(recipient.getAddress());
+	}
+
+	private static void writeOptionalString(final ByteBuffer buffer, final String value) {
+		if (value != null) {
+			writeString(buffer, value);
+		}
+	}
+
+	/**
+	 * Encodes the characters straight into the buffer, without an intermediate byte array.
+	 */
+	private static void writeString(final ByteBuffer buffer, final String value) {
+		writeVarint(buffer, utf8Length(value));
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xF0 | (codePoint >> 18)));
+				buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+				buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+			} else {
+				// lone surrogates are written as is, so that the string round-trips exactly
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/**
+	 * Decodes the UTF-8 bytes straight from the buffer into characters, which are reused for every string read from the same email. A
+	 * sequence must end within the length of the string.
+	 */
+	private static String readString(final ByteBuffer buffer, final char[] chars) {
+		final int length = readVarint(buffer);
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		final char[] target = length <= chars.length ? chars : new char[length];
+		final int end = buffer.position() + length;
+		int count = 0;
+		while (buffer.position() < end) {
+			final int b = buffer.get();
+			if (b >= 0) {
+				target[count++] = (char) b;
+			} else if ((b & 0xE0) == 0xC0) {
+				target[count++] = (char) (((b & 0x1F) << 6) | readContinuation(buffer, end));
+			} else if ((b & 0xF0) == 0xE0) {
+				target[count++] = (char) (((b & 0x0F) << 12) | (readContinuation(buffer, end) << 6) | readContinuation(buffer, end));
+			} else if ((b & 0xF8) == 0xF0) {
+				final int codePoint = ((b & 0x07) << 18) | (readContinuation(buffer, end) << 12) | (readContinuation(buffer, end) << 6)
+						| readContinuation(buffer, end);
+				if (!Character.isSupplementaryCodePoint(codePoint)) {
+					throw new IllegalArgumentException("invalid UTF-8 in encoded email");
+				}
+				target[count++] = Character.highSurrogate(codePoint);
+				target[count++] = Character.lowSurrogate(codePoint);
+			} else {
+				throw new IllegalArgumentException("invalid UTF-8 in encoded email");
+			}
+		}
+		return new String(target, 0, count);
+	}
+
+	/**
+	 * @return The payload bits of the next byte of a multi-byte sequence.
+	 * @throws IllegalArgumentException When the sequence ends before the string does, or the byte is not a continuation byte.
+	 */
+	private static int readContinuation(final ByteBuffer buffer, final int end) {
+		if (buffer.position() >= end) {
+			throw new IllegalArgumentException("truncated UTF-8 sequence in encoded email");
+		}
+		final int b = buffer.get();
+		if ((b & 0xC0) != 0x80) {
+			throw new IllegalArgumentException("invalid UTF-8 in encoded email");
+		}
+		return b & 0x3F;
+	}
+
+	private static int optionalStringSize(final String value) {
+		return value != null ? stringSize(value) : 0;
+	}
+
+	private static int stringSize(final String value) {
+		final int length = utf8Length(value);
+		return varintSize(length) + length;
+	}
+
+	private static int utf8Length(final String value) {
+		int length = value.length();
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c >= 0x800) {
+				if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+					// four bytes for two characters
+					length += 2;
+					i++;
+				} else {
+					length += 2;
+				}
+			} else if (c >= 0x80) {
+				length++;
+			}
+		}
+		return length;
+	}
+
+	private static void writeVarint(final ByteBuffer buffer, final int value) {
+		int remaining = value;
+		while ((remaining & ~0x7F) != 0) {
+			buffer.put((byte) ((remaining & 0x7F) | 0x80));
+			remaining >>>= 7;
+		}
+		buffer.put((byte) remaining);
+	}
+
+	private static int readVarint(final ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				if (value < 0) {
+					throw new IllegalArgumentException("invalid length in encoded email");
+				}
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("invalid varint in encoded email");
+	}
+
+	private static int varintSize(final int value) {
+		int size = 1;
+		int remaining = value >>> 7;
+		while (remaining != 0) {
+			size++;
+			remaining >>>= 7;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,102 @@
+package org.testmail.email;
+
+import javax.mail.Message.RecipientType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testmail.email.EmailUtils.Property.DEFAULT_BCC_ADDRESS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_BCC_NAME;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_CC_ADDRESS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_CC_NAME;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_FROM_ADDRESS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_FROM_NAME;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_REPLYTO_ADDRESS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_REPLYTO_NAME;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_SUBJECT;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_TO_ADDRESS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_TO_NAME;
+import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
+
+/**
+ * The default sender, reply-to address, recipients and subject from the configuration, parsed into {@link Recipient} instances once per
+ * {@link ConfigSnapshot} so that new emails and builders can take them over as they are.
+ *
+ * @see ConfigSnapshot#getEmailDefaults()
+ */
+final class EmailDefaults {
+
+	private final Recipient fromRecipient;
+	private final Recipient replyToRecipient;
+	private final List<Recipient> recipients;
+	private final String subject;
+
+	private EmailDefaults(final Recipient fromRecipient, final Recipient replyToRecipient, final List<Recipient> recipients,
+			final String subject) {
+		this.fromRecipient = fromRecipient;
+		this.replyToRecipient = replyToRecipient;
+		this.recipients = Collections.unmodifiableList(recipients);
+		this.subject = subject;
+	}
+
+	/**
+	 * Interprets the default properties the same way the corresponding setters of {@link Email} would.
+	 */
+	static EmailDefaults resolve(final ConfigSnapshot config) {
+		Recipient fromRecipient = null;
+		if (config.hasProperty(DEFAULT_FROM_ADDRESS)) {
+			fromRecipient = new Recipient((String) config.getProperty(DEFAULT_FROM_NAME),
+					checkNonEmptyArgument((String) config.getProperty(DEFAULT_FROM_ADDRESS), "fromAddress"), null);
+		}
+		Recipient replyToRecipient = null;
+		if (config.hasProperty(DEFAULT_REPLYTO_ADDRESS)) {
+			replyToRecipient = new Recipient((String) config.getProperty(DEFAULT_REPLYTO_NAME),
+					checkNonEmptyArgument((String) config.getProperty(DEFAULT_REPLYTO_ADDRESS), "replyToAddress"), null);
+		}
+		final List<Recipient> recipients = new ArrayList<>();
+		addRecipients(config, DEFAULT_TO_NAME, DEFAULT_TO_ADDRESS, RecipientType.TO, recipients);
+		addRecipients(config, DEFAULT_CC_NAME, DEFAULT_CC_ADDRESS, RecipientType.CC, recipients);
+		addRecipients(config, DEFAULT_BCC_NAME, DEFAULT_BCC_ADDRESS, RecipientType.BCC, recipients);
+		final String subject = config.hasProperty(DEFAULT_SUBJECT) ? (String) config.getProperty(DEFAULT_SUBJECT) : null;
+		return new EmailDefaults(fromRecipient, replyToRecipient, recipients, subject);
+	}
+
+	private static void addRecipients(final ConfigSnapshot config, final EmailUtils.Property nameProperty,
+			final EmailUtils.Property addressProperty, final RecipientType type, final List<Recipient> recipients) {
+		if (config.hasProperty(addressProperty)) {
+			final String name = config.hasProperty(nameProperty) ? (String) config.getProperty(nameProperty) : null;
+			final EmailAddressTokenizer addresses = new EmailAddressTokenizer((String) config.getProperty(addressProperty));
+			while (addresses.next()) {
+				recipients.add(Email.interpretRecipientData(name, addresses.token(), type));
+			}
+		}
+	}
+
+	/**
+	 * @return The default sender, {@code null} when not configured.
+	 */
+	Recipient getFromRecipient() {
+		return fromRecipient;
+	}
+
+	/**
+	 * @return The default reply-to address, {@code null} when not configured.
+	 */
+	Recipient getReplyToRecipient() {
+		return replyToRecipient;
+	}
+
+	/**
+	 * @return The default TO, CC and BCC recipients in that order, unmodifiable.
+	 */
+	List<Recipient> getRecipients() {
+		return recipients;
+	}
+
+	/**
+	 * @return The default subject, {@code null} when not configured.
+	 */
+	String getSubject() {
+		return subject;
+	}
+}
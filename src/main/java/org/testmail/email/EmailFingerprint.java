@@ -0,0 +1,175 @@
+package org.testmail.email;
+
+/**
+ * 128-bit fingerprint of the content of an {@link Email}, covering exactly what {@link Email#equals(Object)} compares: equal emails always
+ * have the same fingerprint, regardless of the order of their recipients and headers. The {@link Email#getId() id} is not part of it.
+ * <p>
+ * Fingerprints only depend on the content, not on the JVM, so they can be used beyond {@link Email#hashCode()}, for example as
+ * idempotency key or as key of a cache of rendered emails.
+ *
+ * @see Email#getFingerprint()
+ */
+public final class EmailFingerprint {
+
+	private final long high;
+	private final long low;
+
+	private EmailFingerprint(final long high, final long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	/**
+	 * Hashes the fields one by one, without building an intermediate representation of the email. Recipients and headers are hashed
+	 * individually and their hashes summed, which doesn't depend on their order. Attachments are hashed by their name, content type and
+	 * content-id only.
+	 */
+	static EmailFingerprint of(final Email email) {
+		final Hasher hasher = new Hasher();
+		hasher.putRecipient(email.getFromRecipient());
+		hasher.putRecipient(email.getReplyToRecipient());
+		hasher.putString(email.getText());
+		hasher.putString(email.getTextHTML());
+		hasher.putString(email.getSubject());
+
+		long recipientsHigh = 0;
+		long recipientsLow = 0;
+		for (final Recipient recipient : email.getRecipients()) {
+			final Hasher recipientHasher = new Hasher().putRecipient(recipient);
+			recipientsHigh += recipientHasher.high();
+			recipientsLow += recipientHasher.low();
+		}
+		hasher.putInt(email.getRecipients().size()).putLong(recipientsHigh).putLong(recipientsLow);
+
+		long headersHigh = 0;
+		long headersLow = 0;
+		final HeaderList headers = email.headers();
+		for (int i = 0; i < headers.size(); i++) {
+			final Hasher headerHasher = new Hasher().putStringIgnoreCase(headers.name(i)).putString(headers.value(i));
+			headersHigh += headerHasher.high();
+			headersLow += headerHasher.low();
+		}
+		hasher.putInt(headers.size()).putLong(headersHigh).putLong(headersLow);
+
+		// in order, like Email#equals compares them; the data is left out, since it would have to be read
+		hasher.putInt(email.getAttachments().size());
+		for (final Attachment attachment : email.getAttachments()) {
+			hasher.putString(attachment.getName()).putString(attachment.getContentType()).putString(attachment.getContentId());
+		}
+
+		hasher.putBoolean(email.isUseReturnReceiptTo());
+		hasher.putRecipient(email.getReturnReceiptTo());
+		return new EmailFingerprint(hasher.high(), hasher.low());
+	}
+
+	/**
+	 * @return The most significant 64 bits.
+	 */
+	public long getHigh() {
+		return high;
+	}
+
+	/**
+	 * @return The least significant 64 bits.
+	 */
+	public long getLow() {
+		return low;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o == null || getClass() != o.getClass()) {
+			return false;
+		}
+		final EmailFingerprint that = (EmailFingerprint) o;
+		return high == that.high && low == that.low;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (low ^ (low >>> 32));
+	}
+
+	/**
+	 * @return The fingerprint as 32 hexadecimal digits.
+	 */
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+
+	/**
+	 * Two independent 64-bit lanes fed with the same input, each finished with the MurmurHash3 finalizer. Values are written with a type
+	 * or length prefix, so that for example {@code ("ab", "c")} and {@code ("a", "bc")} hash differently.
+	 */
+	private static final class Hasher {
+
+		private long lane1 = 0xcbf29ce484222325L;
+		private long lane2 = 0x84222325cbf29ce4L;
+
+		Hasher putLong(final long value) {
+			lane1 = (lane1 ^ value) * 0x100000001b3L;
+			lane2 = Long.rotateLeft(lane2 ^ (value * 0xc2b2ae3d27d4eb4fL), 31) * 0x9e3779b97f4a7c15L;
+			return this;
+		}
+
+		Hasher putInt(final int value) {
+			return putLong(value);
+		}
+
+		Hasher putBoolean(final boolean value) {
+			return putLong(value ? 1 : 0);
+		}
+
+		Hasher putString(final String value) {
+			if (value == null) {
+				return putLong(-1);
+			}
+			putLong(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				putLong(value.charAt(i));
+			}
+			return this;
+		}
+
+		/**
+		 * Hashes the string as {@link HeaderList} compares header names.
+		 */
+		Hasher putStringIgnoreCase(final String value) {
+			putLong(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				putLong(HeaderList.foldCase(value.charAt(i)));
+			}
+			return this;
+		}
+
+		Hasher putRecipient(final Recipient recipient) {
+			if (recipient == null) {
+				return putLong(-1);
+			}
+			putString(recipient.getName());
+			putString(recipient.getAddress());
+			return putString(recipient.getType() != null ? recipient.getType().toString() : null);
+		}
+
+		long high() {
+			return mix(lane1);
+		}
+
+		long low() {
+			return mix(lane2);
+		}
+
+		private static long mix(long h) {
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+	}
+}
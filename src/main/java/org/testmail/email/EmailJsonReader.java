@@ -0,0 +1,154 @@
+package org.testmail.email;
+
+import javax.mail.Message.RecipientType;
+import javax.mail.internet.MimeMessage;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
+
+/**
+ * Reads emails in the JSON format of {@link EmailJsonWriter} with a pull parser, one email at a time. Recipients are added to the email
+ * as they are read, so neither the JSON document nor a list of recipients is ever held in memory as a whole. Emails read don't get the
+ * defaults from the config. Unknown fields are skipped.
+ * <p>
+ * To read an array of emails:
+ * <pre>
+ * reader.beginArray();
+ * while (reader.hasNext()) {
+ *     Email email = reader.readEmail();
+ * }
+ * reader.endArray();
+ * </pre>
+ * Malformed JSON and invalid emails result in an {@link IllegalArgumentException}.
+ */
+public final class EmailJsonReader implements Closeable {
+
+	private final JsonPullParser parser;
+
+	public EmailJsonReader(final Reader reader) {
+		this.parser = new JsonPullParser(checkNonEmptyArgument(reader, "reader"));
+	}
+
+	/**
+	 * Reads UTF-8 encoded JSON from the input stream.
+	 */
+	public EmailJsonReader(final InputStream inputStream) {
+		this(new BufferedReader(new InputStreamReader(checkNonEmptyArgument(inputStream, "inputStream"), StandardCharsets.UTF_8)));
+	}
+
+	public void beginArray() throws IOException {
+		parser.beginArray();
+	}
+
+	/**
+	 * @return Whether the array has another email.
+	 */
+	public boolean hasNext() throws IOException {
+		return parser.hasNext();
+	}
+
+	public void endArray() throws IOException {
+		parser.endArray();
+	}
+
+	public Email readEmail() throws IOException {
+		final Email email = new Email(false);
+		boolean useReturnReceiptTo = false;
+		parser.beginObject();
+		while (parser.hasNext()) {
+			final String name = parser.nextName();
+			if (parser.peek() == JsonPullParser.Token.NULL) {
+				parser.skipValue();
+			} else if (name.equals("id")) {
+				email.setId(parser.nextString());
+			} else if (name.equals("from")) {
+				email.setFromAddress(readRecipient());
+			} else if (name.equals("replyTo")) {
+				email.setReplyToAddress(readRecipient());
+			} else if (name.equals("subject")) {
+				email.setSubject(parser.nextString());
+			} else if (name.equals("text")) {
+				email.setText(parser.nextString());
+			} else if (name.equals("textHTML")) {
+				email.setTextHTML(parser.nextString());
+			} else if (name.equals("useReturnReceiptTo")) {
+				useReturnReceiptTo = parser.nextBoolean();
+			} else if (name.equals("returnReceiptTo")) {
+				email.setReturnReceiptTo(readRecipient());
+			} else if (name.equals("recipients")) {
+				final RecipientList recipients = email.recipients();
+				parser.beginArray();
+				while (parser.hasNext()) {
+					recipients.add(RecipientPool.intern(readRecipient()));
+				}
+				parser.endArray();
+			} else if (name.equals("headers")) {
+				parser.beginObject();
+				while (parser.hasNext()) {
+					final String header = parser.nextName();
+					if (parser.peek() == JsonPullParser.Token.BEGIN_ARRAY) {
+						parser.beginArray();
+						while (parser.hasNext()) {
+							email.addHeader(header, parser.nextString());
+						}
+						parser.endArray();
+					} else {
+						email.addHeader(header, parser.nextString());
+					}
+				}
+				parser.endObject();
+			} else {
+				parser.skipValue();
+			}
+		}
+		parser.endObject();
+		// applied last, as setting returnReceiptTo turns the flag on; the writer leaves it out when false
+		email.setUseReturnReceiptTo(useReturnReceiptTo);
+		return email;
+	}
+
+	private Recipient readRecipient() throws IOException {
+		String name = null;
+		String address = null;
+		RecipientType type = null;
+		parser.beginObject();
+		while (parser.hasNext()) {
+			final String field = parser.nextName();
+			if (field.equals("name")) {
+				name = parser.nextStringOrNull();
+			} else if (field.equals("address")) {
+				address = parser.nextStringOrNull();
+			} else if (field.equals("type")) {
+				type = parseRecipientType(parser.nextStringOrNull());
+			} else {
+				parser.skipValue();
+			}
+		}
+		parser.endObject();
+		return new Recipient(name, address, type);
+	}
+
+	private static RecipientType parseRecipientType(final String type) {
+		if (type == null) {
+			return null;
+		}
+		for (final RecipientType candidate : new RecipientType[] {
+				RecipientType.TO, RecipientType.CC, RecipientType.BCC, MimeMessage.RecipientType.NEWSGROUPS }) {
+			if (candidate.toString().equalsIgnoreCase(type)) {
+				return candidate;
+			}
+		}
+		throw new IllegalArgumentException("unknown recipient type " + type);
+	}
+
+	@Override
+	public void close() throws IOException {
+		parser.close();
+	}
+}
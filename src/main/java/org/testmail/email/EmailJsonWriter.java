@@ -0,0 +1,226 @@
+package org.testmail.email;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
+
+/**
+ * Writes emails as JSON straight to a {@link Writer}, field by field and recipient by recipient, without building a document in memory.
+ * Either write a single email, or several emails between {@link #beginArray()} and {@link #endArray()}. An email is written as:
+ * <pre>
+ * {
+ *   "id": "...",
+ *   "from": { "name": "...", "address": "..." },
+ *   "replyTo": { "name": "...", "address": "..." },
+ *   "subject": "...",
+ *   "text": "...",
+ *   "textHTML": "...",
+ *   "useReturnReceiptTo": true,
+ *   "returnReceiptTo": { "name": "...", "address": "..." },
+ *   "recipients": [ { "name": "...", "address": "...", "type": "To" } ],
+ *   "headers": { "X-Priority": "2", "Received": [ "...", "..." ] }
+ * }
+ * </pre>
+ * Fields and names without a value are left out, as is {@code useReturnReceiptTo} when {@code false}. Recipient types are written as
+ * {@code "To"}, {@code "Cc"}, {@code "Bcc"} or {@code "Newsgroups"}. A header that occurs more than once is written once, with an array of
+ * its values. {@link Attachment Attachments} refer to files, buffers and streams of this process, so emails with attachments can't be
+ * written.
+ *
+ * @see EmailJsonReader
+ */
+public final class EmailJsonWriter implements Closeable, Flushable {
+
+	private final Writer writer;
+	private boolean inArray;
+	private boolean firstInArray;
+
+	public EmailJsonWriter(final Writer writer) {
+		this.writer = checkNonEmptyArgument(writer, "writer");
+	}
+
+	/**
+	 * Writes UTF-8 encoded JSON to the output stream, buffered.
+	 */
+	public EmailJsonWriter(final OutputStream outputStream) {
+		this(new BufferedWriter(new OutputStreamWriter(checkNonEmptyArgument(outputStream, "outputStream"), StandardCharsets.UTF_8)));
+	}
+
+	public void beginArray() throws IOException {
+		if (inArray) {
+			throw new IllegalStateException("already writing an array");
+		}
+		writer.write('[');
+		inArray = true;
+		firstInArray = true;
+	}
+
+	public void endArray() throws IOException {
+		if (!inArray) {
+			throw new IllegalStateException("not writing an array");
+		}
+		writer.write(']');
+		inArray = false;
+	}
+
+	/**
+	 * @throws IllegalArgumentException When the email has attachments, which would otherwise be lost without notice.
+	 */
+	public void write(final Email email) throws IOException {
+		checkNonEmptyArgument(email, "email");
+		if (!email.getAttachments().isEmpty()) {
+			throw new IllegalArgumentException("emails with attachments can't be written as JSON");
+		}
+		if (inArray && !firstInArray) {
+			writer.write(',');
+		}
+		firstInArray = false;
+
+		writer.write('{');
+		boolean first = true;
+		first = writeStringField("id", email.getId(), first);
+		first = writeRecipientField("from", email.getFromRecipient(), first);
+		first = writeRecipientField("replyTo", email.getReplyToRecipient(), first);
+		first = writeStringField("subject", email.getSubject(), first);
+		first = writeStringField("text", email.getText(), first);
+		first = writeStringField("textHTML", email.getTextHTML(), first);
+		if (email.isUseReturnReceiptTo()) {
+			writeName("useReturnReceiptTo", first);
+			writer.write("true");
+			first = false;
+		}
+		first = writeRecipientField("returnReceiptTo", email.getReturnReceiptTo(), first);
+
+		writeName("recipients", first);
+		writer.write('[');
+		boolean firstRecipient = true;
+		for (final Recipient recipient : email.getRecipients()) {
+			if (!firstRecipient) {
+				writer.write(',');
+			}
+			writeRecipient(recipient);
+			firstRecipient = false;
+		}
+		writer.write(']');
+
+		final HeaderList headers = email.headers();
+		if (!headers.isEmpty()) {
+			writeName("headers", false);
+			writer.write('{');
+			boolean firstHeader = true;
+			for (int i = 0; i < headers.size(); i++) {
+				if (headers.isFirstWithName(i)) {
+					writeHeader(headers, i, firstHeader);
+					firstHeader = false;
+				}
+			}
+			writer.write('}');
+		}
+		writer.write('}');
+	}
+
+	/**
+	 * Writes the header at the position with its value, or with an array of its values when it occurs more than once.
+	 */
+	private void writeHeader(final HeaderList headers, final int index, final boolean first) throws IOException {
+		final List<String> values = headers.getAll(headers.name(index));
+		if (values.size() == 1) {
+			writeStringField(headers.name(index), values.get(0), first);
+			return;
+		}
+		writeName(headers.name(index), first);
+		writer.write('[');
+		for (int i = 0; i < values.size(); i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			writeString(values.get(i));
+		}
+		writer.write(']');
+	}
+
+	private boolean writeStringField(final String name, final String value, final boolean first) throws IOException {
+		if (value == null) {
+			return first;
+		}
+		writeName(name, first);
+		writeString(value);
+		return false;
+	}
+
+	private boolean writeRecipientField(final String name, final Recipient recipient, final boolean first) throws IOException {
+		if (recipient == null) {
+			return first;
+		}
+		writeName(name, first);
+		writeRecipient(recipient);
+		return false;
+	}
+
+	private void writeRecipient(final Recipient recipient) throws IOException {
+		writer.write('{');
+		final boolean first = writeStringField("name", recipient.getName(), true);
+		writeStringField("address", recipient.getAddress(), first);
+		if (recipient.getType() != null) {
+			writeStringField("type", recipient.getType().toString(), false);
+		}
+		writer.write('}');
+	}
+
+	private void writeName(final String name, final boolean first) throws IOException {
+		if (!first) {
+			writer.write(',');
+		}
+		writeString(name);
+		writer.write(':');
+	}
+
+	/**
+	 * Writes the string quoted, escaping quotes, backslashes, control characters and the line and paragraph separators.
+	 */
+	private void writeString(final String value) throws IOException {
+		writer.write('"');
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			final String escaped;
+			if (c == '"') {
+				escaped = "\\\"";
+			} else if (c == '\\') {
+				escaped = "\\\\";
+			} else if (c == '\n') {
+				escaped = "\\n";
+			} else if (c == '\r') {
+				escaped = "\\r";
+			} else if (c == '\t') {
+				escaped = "\\t";
+			} else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+				escaped = String.format("\\u%04x", (int) c);
+			} else {
+				continue;
+			}
+			writer.write(value, start, i - start);
+			writer.write(escaped);
+			start = i + 1;
+		}
+		writer.write(value, start, value.length() - start);
+		writer.write('"');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
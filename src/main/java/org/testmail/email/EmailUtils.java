@@ -5,13 +5,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import static java.lang.String.format;
-import static java.util.Collections.unmodifiableMap;
 
 public final class EmailUtils {
 
@@ -20,12 +21,13 @@ public final class EmailUtils {
 	private static final String DEFAULT_CONFIG_FILENAME = "testmail.properties";
 
 	/**
-	 * Initially try to load properties from "{@value #DEFAULT_CONFIG_FILENAME}".
+	 * Initially try to load properties from "{@value #DEFAULT_CONFIG_FILENAME}". Replaced as a whole on every load, so that
+	 * {@link #getProperty(Property)} can read it without locking.
 	 *
 	 * @see #loadProperties(String, boolean)
 	 * @see #loadProperties(InputStream, boolean)
 	 */
-	private static final Map<Property, Object> RESOLVED_PROPERTIES = new HashMap<>();
+	private static volatile ConfigSnapshot config = ConfigSnapshot.EMPTY;
 
 	static {
 		loadProperties(DEFAULT_CONFIG_FILENAME, false);
@@ -56,7 +58,11 @@ public final class EmailUtils {
 		DEFAULT_BCC_ADDRESS("testmail.defaults.bcc.address"),
 		DEFAULT_POOL_SIZE("testmail.defaults.poolsize"),
 		DEFAULT_SESSION_TIMEOUT_MILLIS("testmail.defaults.sessiontimeoutmillis"),
-		TRANSPORT_MODE_LOGGING_ONLY("testmail.transport.mode.logging.only");
+		DEFAULT_CONNECTION_TIMEOUT_MILLIS("testmail.defaults.connectiontimeoutmillis"),
+		DEFAULT_TIMEOUT_MILLIS("testmail.defaults.timeoutmillis"),
+		RECIPIENT_POOL_SIZE("testmail.recipients.poolsize"),
+		TRANSPORT_MODE_LOGGING_ONLY("testmail.transport.mode.logging.only"),
+		TRANSPORT_MODE_VIRTUAL_THREADS("testmail.transport.mode.virtualthreads");
 
 		private final String key;
 
@@ -69,13 +75,27 @@ public final class EmailUtils {
 		}
 	}
 
-	public static synchronized boolean hasProperty(final Property property) {
-		return !EmailUtils.valueNullOrEmpty(RESOLVED_PROPERTIES.get(property));
+	public static boolean hasProperty(final Property property) {
+		return config.hasProperty(property);
 	}
 
-	public static synchronized <T> T getProperty(final Property property) {
+	public static <T> T getProperty(final Property property) {
 		//noinspection unchecked
-		return (T) RESOLVED_PROPERTIES.get(property);
+		return (T) config.getProperty(property);
+	}
+
+	/**
+	 * @see ConfigSnapshot#getIntProperty(Property)
+	 */
+	static int getIntProperty(final Property property) {
+		return config.getIntProperty(property);
+	}
+
+	/**
+	 * @return The configuration as currently loaded, which stays consistent even when properties are loaded again while it is used.
+	 */
+	static ConfigSnapshot config() {
+		return config;
 	}
 
 
@@ -88,12 +108,9 @@ public final class EmailUtils {
 		return new HashMap<>();
 	}
 
-	public static Map<Property, Object> loadProperties(final Properties properties, final boolean addProperties) {
-		if (!addProperties) {
-			RESOLVED_PROPERTIES.clear();
-		}
-		RESOLVED_PROPERTIES.putAll(readProperties(properties));
-		return unmodifiableMap(RESOLVED_PROPERTIES);
+	public static synchronized Map<Property, Object> loadProperties(final Properties properties, final boolean addProperties) {
+		config = config.with(readProperties(properties), addProperties);
+		return config.getProperties();
 	}
 
 	public static synchronized Map<Property, Object> loadProperties(final InputStream inputStream, final boolean addProperties) {
@@ -113,11 +130,7 @@ public final class EmailUtils {
 			}
 		}
 
-		if (!addProperties) {
-			RESOLVED_PROPERTIES.clear();
-		}
-		RESOLVED_PROPERTIES.putAll(readProperties(prop));
-		return unmodifiableMap(RESOLVED_PROPERTIES);
+		return loadProperties(prop, addProperties);
 	}
 
 	/**
@@ -203,11 +216,17 @@ public final class EmailUtils {
 				(value instanceof byte[] && ((byte[]) value).length == 0);
 	}
 
+	/**
+	 * Splits a comma or semicolon separated list of addresses, such as {@code "a@domain.com; Name <b@domain.com>"}, in a single pass.
+	 * Separators within a name that precedes the {@code @} of its address, as in {@code "Doe, John <john@domain.com>"}, don't split.
+	 */
 	public static String[] extractEmailAddresses(final String emailAddressList) {
-		return checkNonEmptyArgument(emailAddressList, "emailAddressList")
-				.replaceAll("(@.*?>?)\\s*[,;]", "$1<|>")
-				.replaceAll("<\\|>$", "") // remove trailing delimiter
-				.split("\\s*<\\|>\\s*"); // split on delimiter including surround space
+		final EmailAddressTokenizer addresses = new EmailAddressTokenizer(checkNonEmptyArgument(emailAddressList, "emailAddressList"));
+		final List<String> result = new ArrayList<>(4);
+		while (addresses.next()) {
+			result.add(addresses.token());
+		}
+		return result.toArray(new String[result.size()]);
 	}
 
 	public static <T> T checkNonEmptyArgument(final T address,final String parameterName) {
@@ -1,6 +1,8 @@
 package org.testmail.email;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 final class EqualsHelper {
 
@@ -12,10 +14,13 @@ final class EqualsHelper {
                 email2.getReplyToRecipient() != null) {
             return false;
         }
-        if (email1.getText() != null ? !email1.getText().equals(email2.getText()) : email2.getText() != null) {
+        // read once, since bodies with a source are read from it on every call
+        final String text1 = email1.getText();
+        if (text1 != null ? !text1.equals(email2.getText()) : email2.getText() != null) {
             return false;
         }
-        if (email1.getTextHTML() != null ? !email1.getTextHTML().equals(email2.getTextHTML()) : email2.getTextHTML() != null) {
+        final String textHTML1 = email1.getTextHTML();
+        if (textHTML1 != null ? !textHTML1.equals(email2.getTextHTML()) : email2.getTextHTML() != null) {
             return false;
         }
         if (email1.getSubject() != null ? !email1.getSubject().equals(email2.getSubject()) : email2.getSubject() != null) {
@@ -25,7 +30,10 @@ final class EqualsHelper {
         if (!isEqualRecipientList(email1.getRecipients(), email2.getRecipients())) {
             return false;
         }
-        if (!email1.getHeaders().equals(email2.getHeaders())) {
+        if (!email1.headers().equalsIgnoringOrder(email2.headers())) {
+            return false;
+        }
+        if (!email1.getAttachments().equals(email2.getAttachments())) {
             return false;
         }
         if (email1.isUseReturnReceiptTo() != email2.isUseReturnReceiptTo()) {
@@ -34,25 +42,39 @@ final class EqualsHelper {
         return email1.getReturnReceiptTo() != null ? email1.getReturnReceiptTo().equals(email2.getReturnReceiptTo()) : email2.getReturnReceiptTo() == null;
     }
 
-    private static boolean isEqualRecipientList(final List<Recipient> recipients, final List<Recipient> otherRecipients) {
+    /**
+     * Compares the recipients as multisets: the order doesn't matter, but each recipient must occur as often in both lists. Lists in the
+     * same order are compared pairwise, only the part where they start to differ is counted in a hash map.
+     */
+    static boolean isEqualRecipientList(final List<Recipient> recipients, final List<Recipient> otherRecipients) {
         if (recipients.size() != otherRecipients.size()) {
             return false;
         }
-        for (final Recipient otherRecipient : otherRecipients) {
-            if (!containsRecipient(recipients, otherRecipient)) {
-                return false;
-            }
+        int firstDifference = 0;
+        while (firstDifference < recipients.size() && isEqualRecipient(recipients.get(firstDifference), otherRecipients.get(firstDifference))) {
+            firstDifference++;
+        }
+        if (firstDifference == recipients.size()) {
+            return true;
         }
-        return true;
-    }
 
-    private static boolean containsRecipient(final List<Recipient> recipients, final Recipient otherRecipient) {
-        for (final Recipient recipient : recipients) {
-            if (isEqualRecipient(recipient, otherRecipient)) {
-                return true;
+        final Map<Recipient, Integer> counts = new HashMap<>();
+        for (final Recipient recipient : recipients.subList(firstDifference, recipients.size())) {
+            final Integer count = counts.get(recipient);
+            counts.put(recipient, count == null ? 1 : count + 1);
+        }
+        for (final Recipient otherRecipient : otherRecipients.subList(firstDifference, otherRecipients.size())) {
+            final Integer count = counts.get(otherRecipient);
+            if (count == null) {
+                return false;
+            }
+            if (count == 1) {
+                counts.remove(otherRecipient);
+            } else {
+                counts.put(otherRecipient, count - 1);
             }
         }
-        return false;
+        return counts.isEmpty();
     }
 
     private static boolean isEqualRecipient(final Recipient recipient, final Recipient otherRecipient) {
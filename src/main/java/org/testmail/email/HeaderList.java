@@ -0,0 +1,355 @@
+package org.testmail.email;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * The headers of an {@link Email} or {@link EmailBuilder}, in the order they were added. A name can occur more than once, as needed for
+ * headers such as {@code Received} or {@code Comments}, and names are compared ignoring case.
+ * <p>
+ * Emails have few headers, so names and values are kept in flat arrays and looked up by a linear scan. The case-insensitive hash of each
+ * name is computed once, when it's added, so that a lookup computes only the hash of the name looked up and compares names only when their
+ * hashes match, without allocating a lower-case copy of either.
+ * <p>
+ * Like {@link RecipientList}, a header list can be {@link #snapshot() snapshotted} in constant time, sharing its state until either list
+ * changes.
+ */
+final class HeaderList {
+
+	private String[] names;
+	private String[] values;
+	private int[] hashes;
+	private int size;
+	/**
+	 * Whether the arrays are shared with a snapshot, so that they have to be copied before they are changed.
+	 */
+	private boolean shared;
+
+	HeaderList() {
+		names = new String[4];
+		values = new String[4];
+		hashes = new int[4];
+	}
+
+	private HeaderList(final HeaderList other) {
+		names = other.names;
+		values = other.values;
+		hashes = other.hashes;
+		size = other.size;
+		shared = true;
+	}
+
+	/**
+	 * @return A list with the same headers that doesn't change when this list changes or vice versa.
+	 */
+	HeaderList snapshot() {
+		shared = true;
+		return new HeaderList(this);
+	}
+
+	private void copyIfShared(final int capacity) {
+		if (shared || capacity > names.length) {
+			final int length = Math.max(capacity, names.length);
+			names = Arrays.copyOf(names, length);
+			values = Arrays.copyOf(values, length);
+			hashes = Arrays.copyOf(hashes, length);
+			shared = false;
+		}
+	}
+
+	/**
+	 * Adds the header after the others, also when there already is one with the same name.
+	 */
+	void add(final String name, final String value) {
+		copyIfShared(size == names.length ? size + (size >> 1) + 1 : size);
+		names[size] = name;
+		values[size] = value;
+		hashes[size] = hashIgnoreCase(name);
+		size++;
+	}
+
+	/**
+	 * Replaces the value of the first header with the given name, keeping its position, and removes any other headers with that name. Adds
+	 * the header when there is none with the name yet.
+	 */
+	void set(final String name, final String value) {
+		final int first = indexOf(name);
+		if (first < 0) {
+			add(name, value);
+			return;
+		}
+		copyIfShared(size);
+		values[first] = value;
+		final int hash = hashes[first];
+		int kept = first + 1;
+		for (int i = first + 1; i < size; i++) {
+			if (hashes[i] != hash || !equalsIgnoreCase(names[i], name)) {
+				names[kept] = names[i];
+				values[kept] = values[i];
+				hashes[kept] = hashes[i];
+				kept++;
+			}
+		}
+		Arrays.fill(names, kept, size, null);
+		Arrays.fill(values, kept, size, null);
+		size = kept;
+	}
+
+	/**
+	 * Removes all headers, reusing the arrays unless they are shared with a snapshot.
+	 */
+	void clear() {
+		if (shared) {
+			names = new String[names.length];
+			values = new String[names.length];
+			hashes = new int[names.length];
+			shared = false;
+		} else {
+			Arrays.fill(names, 0, size, null);
+			Arrays.fill(values, 0, size, null);
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return The position of the first header with the name, ignoring case, or -1 if there is none.
+	 */
+	int indexOf(final String name) {
+		return indexOf(name, hashIgnoreCase(name), 0);
+	}
+
+	private int indexOf(final String name, final int hash, final int from) {
+		for (int i = from; i < size; i++) {
+			if (hashes[i] == hash && equalsIgnoreCase(names[i], name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The value of the first header with the name, ignoring case, or {@code null} if there is none.
+	 */
+	String get(final String name) {
+		final int index = indexOf(name);
+		return index < 0 ? null : values[index];
+	}
+
+	/**
+	 * @return The values of all headers with the name, ignoring case, in the order they were added.
+	 */
+	List<String> getAll(final String name) {
+		final int hash = hashIgnoreCase(name);
+		final List<String> all = new ArrayList<>(1);
+		for (int i = indexOf(name, hash, 0); i >= 0; i = indexOf(name, hash, i + 1)) {
+			all.add(values[i]);
+		}
+		return Collections.unmodifiableList(all);
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	String name(final int index) {
+		checkIndex(index);
+		return names[index];
+	}
+
+	String value(final int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	/**
+	 * @return Whether the header at the position is the first one with its name.
+	 */
+	boolean isFirstWithName(final int index) {
+		checkIndex(index);
+		return indexOf(names[index], hashes[index], 0) == index;
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	/**
+	 * @return Whether both lists have the same headers, each as often, regardless of their order. Names are compared ignoring case.
+	 */
+	boolean equalsIgnoringOrder(final HeaderList other) {
+		if (size != other.size) {
+			return false;
+		}
+		final boolean[] matched = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			boolean found = false;
+			for (int j = 0; j < size && !found; j++) {
+				if (!matched[j] && hashes[i] == other.hashes[j] && equalsIgnoreCase(names[i], other.names[j])
+						&& values[i].equals(other.values[j])) {
+					matched[j] = true;
+					found = true;
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Read-only view on all headers in order, including each header with a name that occurred before.
+	 */
+	List<Map.Entry<String, String>> entries() {
+		return new Entries();
+	}
+
+	/**
+	 * @return Read-only view that maps each name to its first value, in the order the names were first added. Unlike a regular map, it
+	 * looks up names ignoring case, and its hash code folds the case of the names, so that views that are equal ignoring case have the
+	 * same hash code.
+	 */
+	Map<String, String> asMap() {
+		return new FirstValues();
+	}
+
+	/**
+	 * Folds a character the way {@link String#equalsIgnoreCase(String)} compares characters, with a fast path for ASCII, which header names
+	 * normally are.
+	 */
+	static char foldCase(final char c) {
+		if (c < 0x80) {
+			return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+		}
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private static int hashIgnoreCase(final String name) {
+		int hash = 0;
+		for (int i = 0; i < name.length(); i++) {
+			hash = 31 * hash + foldCase(name.charAt(i));
+		}
+		return hash;
+	}
+
+	private static boolean equalsIgnoreCase(final String name, final String other) {
+		if (name == other) {
+			return true;
+		}
+		if (name.length() != other.length()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (foldCase(name.charAt(i)) != foldCase(other.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private final class Entries extends AbstractList<Map.Entry<String, String>> implements RandomAccess {
+
+		@Override
+		public Map.Entry<String, String> get(final int index) {
+			return new AbstractMap.SimpleImmutableEntry<>(name(index), values[index]);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	private final class FirstValues extends AbstractMap<String, String> {
+
+		/**
+		 * Sums the hash codes of the entries like {@link AbstractMap#hashCode()} does, with the case-insensitive hash of each name.
+		 */
+		@Override
+		public int hashCode() {
+			int hash = 0;
+			for (int i = 0; i < size; i++) {
+				if (isFirstWithName(i)) {
+					hash += hashes[i] ^ values[i].hashCode();
+				}
+			}
+			return hash;
+		}
+
+		@Override
+		public String get(final Object name) {
+			return name instanceof String ? HeaderList.this.get((String) name) : null;
+		}
+
+		@Override
+		public boolean containsKey(final Object name) {
+			return name instanceof String && indexOf((String) name) >= 0;
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return new AbstractSet<Entry<String, String>>() {
+				@Override
+				public Iterator<Entry<String, String>> iterator() {
+					return new Iterator<Entry<String, String>>() {
+						private int next = advance(0);
+
+						private int advance(int index) {
+							while (index < size && !isFirstWithName(index)) {
+								index++;
+							}
+							return index;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return next < size;
+						}
+
+						@Override
+						public Entry<String, String> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							final Entry<String, String> entry = new SimpleImmutableEntry<>(names[next], values[next]);
+							next = advance(next + 1);
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int distinct = 0;
+					for (int i = 0; i < HeaderList.this.size; i++) {
+						if (isFirstWithName(i)) {
+							distinct++;
+						}
+					}
+					return distinct;
+				}
+			};
+		}
+	}
+}
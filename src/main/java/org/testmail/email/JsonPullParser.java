@@ -0,0 +1,379 @@
+package org.testmail.email;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal pull parser for JSON text, reading one token at a time from a {@link Reader}. Only the current token is held in memory, so
+ * arbitrarily long arrays can be processed element by element.
+ * <p>
+ * Call {@link #peek()} to see what comes next and consume it with the matching method, such as {@link #beginObject()} or
+ * {@link #nextString()}. Malformed JSON results in an {@link IllegalArgumentException} mentioning the offset of the problem.
+ *
+ * @see EmailJsonReader
+ */
+final class JsonPullParser implements Closeable {
+
+	enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Reader reader;
+	private final char[] buffer = new char[8192];
+	private int position;
+	private int limit;
+	/**
+	 * Offset in the input of the start of {@link #buffer}, for error messages.
+	 */
+	private long bufferOffset;
+
+	private int[] scopes = new int[16];
+	private int depth = 1;
+
+	private Token peeked;
+	/**
+	 * The name, string, number or literal of {@link #peeked}.
+	 */
+	private String peekedValue;
+	private final StringBuilder scratch = new StringBuilder();
+
+	JsonPullParser(final Reader reader) {
+		this.reader = reader;
+		scopes[0] = EMPTY_DOCUMENT;
+	}
+
+	Token peek() throws IOException {
+		if (peeked == null) {
+			peeked = readToken();
+		}
+		return peeked;
+	}
+
+	private Token readToken() throws IOException {
+		final int scope = scopes[depth - 1];
+		switch (scope) {
+			case EMPTY_DOCUMENT:
+				scopes[depth - 1] = NONEMPTY_DOCUMENT;
+				return readValue();
+			case NONEMPTY_DOCUMENT:
+				if (nextNonWhitespace() != -1) {
+					throw syntaxError("expected end of input");
+				}
+				return Token.END_DOCUMENT;
+			case EMPTY_ARRAY:
+			case NONEMPTY_ARRAY: {
+				int c = nextNonWhitespace();
+				if (c == ']') {
+					return Token.END_ARRAY;
+				}
+				if (c == -1) {
+					throw syntaxError("unexpected end of input");
+				}
+				if (scope == NONEMPTY_ARRAY) {
+					if (c != ',') {
+						throw syntaxError("expected ',' or ']'");
+					}
+				} else {
+					position--;
+				}
+				scopes[depth - 1] = NONEMPTY_ARRAY;
+				return readValue();
+			}
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT: {
+				int c = nextNonWhitespace();
+				if (c == '}') {
+					return Token.END_OBJECT;
+				}
+				if (scope == NONEMPTY_OBJECT && c != -1) {
+					if (c != ',') {
+						throw syntaxError("expected ',' or '}'");
+					}
+					c = nextNonWhitespace();
+				}
+				if (c == -1) {
+					throw syntaxError("unexpected end of input");
+				}
+				if (c != '"') {
+					throw syntaxError("expected name");
+				}
+				peekedValue = readString();
+				scopes[depth - 1] = DANGLING_NAME;
+				return Token.NAME;
+			}
+			case DANGLING_NAME:
+				final int separator = nextNonWhitespace();
+				if (separator == -1) {
+					throw syntaxError("unexpected end of input");
+				}
+				if (separator != ':') {
+					throw syntaxError("expected ':'");
+				}
+				scopes[depth - 1] = NONEMPTY_OBJECT;
+				return readValue();
+			default:
+				throw new IllegalStateException("unknown scope " + scope);
+		}
+	}
+
+	private Token readValue() throws IOException {
+		final int c = nextNonWhitespace();
+		switch (c) {
+			case '{':
+				return Token.BEGIN_OBJECT;
+			case '[':
+				return Token.BEGIN_ARRAY;
+			case '"':
+				peekedValue = readString();
+				return Token.STRING;
+			case -1:
+				throw syntaxError("unexpected end of input");
+			default:
+				position--;
+				peekedValue = readLiteral();
+				if (peekedValue.equals("true") || peekedValue.equals("false")) {
+					return Token.BOOLEAN;
+				} else if (peekedValue.equals("null")) {
+					return Token.NULL;
+				} else if (isNumber(peekedValue)) {
+					return Token.NUMBER;
+				}
+				throw syntaxError("unexpected value '" + peekedValue + "'");
+		}
+	}
+
+	void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		depth--;
+	}
+
+	void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		depth--;
+	}
+
+	/**
+	 * @return Whether the current object or array has another element.
+	 */
+	boolean hasNext() throws IOException {
+		final Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	String nextName() throws IOException {
+		expect(Token.NAME);
+		return peekedValue;
+	}
+
+	/**
+	 * @return The string, or the number as it was written.
+	 */
+	String nextString() throws IOException {
+		if (peek() != Token.NUMBER) {
+			expect(Token.STRING);
+		}
+		peeked = null;
+		return peekedValue;
+	}
+
+	/**
+	 * @return The string, or {@code null} for a JSON null.
+	 */
+	String nextStringOrNull() throws IOException {
+		if (peek() == Token.NULL) {
+			peeked = null;
+			return null;
+		}
+		return nextString();
+	}
+
+	boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		return peekedValue.equals("true");
+	}
+
+	/**
+	 * Skips the next value, including everything in it when it is an object or array.
+	 */
+	void skipValue() throws IOException {
+		int nesting = 0;
+		do {
+			switch (peek()) {
+				case BEGIN_OBJECT:
+					beginObject();
+					nesting++;
+					break;
+				case BEGIN_ARRAY:
+					beginArray();
+					nesting++;
+					break;
+				case END_OBJECT:
+					endObject();
+					nesting--;
+					break;
+				case END_ARRAY:
+					endArray();
+					nesting--;
+					break;
+				case END_DOCUMENT:
+					throw syntaxError("unexpected end of input");
+				default:
+					peeked = null;
+			}
+		} while (nesting > 0);
+	}
+
+	private void expect(final Token expected) throws IOException {
+		final Token token = peek();
+		if (token != expected) {
+			throw syntaxError("expected " + expected + " but was " + token);
+		}
+		peeked = null;
+	}
+
+	private void push(final int scope) {
+		if (depth == scopes.length) {
+			scopes = Arrays.copyOf(scopes, depth * 2);
+		}
+		scopes[depth++] = scope;
+	}
+
+	/**
+	 * Reads the rest of a string of which the opening quote was read.
+	 */
+	private String readString() throws IOException {
+		scratch.setLength(0);
+		while (true) {
+			int start = position;
+			while (position < limit) {
+				final char c = buffer[position++];
+				if (c == '"') {
+					scratch.append(buffer, start, position - 1 - start);
+					return scratch.toString();
+				} else if (c == '\\') {
+					scratch.append(buffer, start, position - 1 - start);
+					scratch.append(readEscape());
+					start = position;
+				} else if (c < 0x20) {
+					throw syntaxError("unescaped control character in string");
+				}
+			}
+			scratch.append(buffer, start, position - start);
+			if (!fill()) {
+				throw syntaxError("unterminated string");
+			}
+		}
+	}
+
+	private char readEscape() throws IOException {
+		final int c = read();
+		switch (c) {
+			case '"':
+			case '\\':
+			case '/':
+				return (char) c;
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					final int digit = Character.digit(read(), 16);
+					if (digit < 0) {
+						throw syntaxError("invalid unicode escape");
+					}
+					value = (value << 4) | digit;
+				}
+				return (char) value;
+			default:
+				throw syntaxError("invalid escape sequence");
+		}
+	}
+
+	private String readLiteral() throws IOException {
+		scratch.setLength(0);
+		int c = read();
+		while (c != -1 && (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')) {
+			scratch.append((char) c);
+			c = read();
+		}
+		if (c != -1) {
+			position--;
+		}
+		return scratch.toString();
+	}
+
+	private static boolean isNumber(final String literal) {
+		return literal.matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c = read();
+		while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+			c = read();
+		}
+		return c;
+	}
+
+	/**
+	 * @return The next character, or -1 at the end of the input. Can be pushed back by decrementing {@link #position}.
+	 */
+	private int read() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position++];
+	}
+
+	/**
+	 * Reads more input, keeping the last character in the buffer so that it can still be pushed back.
+	 */
+	private boolean fill() throws IOException {
+		int keep = 0;
+		if (limit > 0) {
+			buffer[0] = buffer[limit - 1];
+			keep = 1;
+		}
+		bufferOffset += limit - keep;
+		final int read = reader.read(buffer, keep, buffer.length - keep);
+		position = keep;
+		limit = keep + Math.max(read, 0);
+		return read > 0;
+	}
+
+	private IllegalArgumentException syntaxError(final String message) {
+		return new IllegalArgumentException("malformed JSON at offset " + (bufferOffset + position) + ": " + message);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,47 @@
+package org.testmail.email;
+
+/**
+ * Limits on how much of an email {@link Email#appendTo(Appendable, LimitOptions)} writes, so that logging an email costs about the same
+ * no matter how large its bodies are or how many recipients it has.
+ */
+public final class LimitOptions {
+
+	/**
+	 * Writes everything, like {@link Email#toString()}.
+	 */
+	public static final LimitOptions UNLIMITED = new LimitOptions(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+	private final int maxBodyLength;
+	private final int maxRecipients;
+
+	/**
+	 * @param maxBodyLength The number of characters of the text and the HTML to write at most; the rest is left out.
+	 * @param maxRecipients The number of recipients to write at most; the rest is counted.
+	 */
+	public LimitOptions(final int maxBodyLength, final int maxRecipients) {
+		if (maxBodyLength < 0) {
+			throw new IllegalArgumentException("maxBodyLength must not be negative: " + maxBodyLength);
+		}
+		if (maxRecipients < 0) {
+			throw new IllegalArgumentException("maxRecipients must not be negative: " + maxRecipients);
+		}
+		this.maxBodyLength = maxBodyLength;
+		this.maxRecipients = maxRecipients;
+	}
+
+	public int getMaxBodyLength() {
+		return maxBodyLength;
+	}
+
+	public int getMaxRecipients() {
+		return maxRecipients;
+	}
+
+	@Override
+	public String toString() {
+		return "LimitOptions{" +
+				"maxBodyLength=" + maxBodyLength +
+				", maxRecipients=" + maxRecipients +
+				'}';
+	}
+}
@@ -0,0 +1,35 @@
+package org.testmail.email;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Thrown by {@link Mailer} when an email could not be converted to a MIME message or could not be handed over to the SMTP server.
+ */
+@SuppressWarnings("serial")
+public class MailException extends RuntimeException {
+
+	private final Map<Recipient, String> rejectedRecipients;
+
+	public MailException(final String message) {
+		super(message);
+		this.rejectedRecipients = Collections.emptyMap();
+	}
+
+	public MailException(final String message, final Throwable cause) {
+		this(message, cause, Collections.<Recipient, String>emptyMap());
+	}
+
+	public MailException(final String message, final Throwable cause, final Map<Recipient, String> rejectedRecipients) {
+		super(message, cause);
+		this.rejectedRecipients = Collections.unmodifiableMap(rejectedRecipients);
+	}
+
+	/**
+	 * @return The recipients refused by the SMTP server, with the server reply for each, in recipient order. Empty if the email was not
+	 * refused because of its recipients.
+	 */
+	public Map<Recipient, String> getRejectedRecipients() {
+		return rejectedRecipients;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,450 @@
+package org.testmail.email;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testmail.email.EmailUtils.Property.DEFAULT_CONNECTION_TIMEOUT_MILLIS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_POOL_SIZE;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_SESSION_TIMEOUT_MILLIS;
+import static org.testmail.email.EmailUtils.Property.DEFAULT_TIMEOUT_MILLIS;
+import static org.testmail.email.EmailUtils.Property.JAVAXMAIL_DEBUG;
+import static org.testmail.email.EmailUtils.Property.SMTP_HOST;
+import static org.testmail.email.EmailUtils.Property.SMTP_PASSWORD;
+import static org.testmail.email.EmailUtils.Property.SMTP_PORT;
+import static org.testmail.email.EmailUtils.Property.SMTP_USERNAME;
+import static org.testmail.email.EmailUtils.Property.TRANSPORT_MODE_LOGGING_ONLY;
+import static org.testmail.email.EmailUtils.Property.TRANSPORT_MODE_VIRTUAL_THREADS;
+import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
+import static org.testmail.email.EmailUtils.hasProperty;
+
+/**
+ * Sends {@link Email} instances to an SMTP server.
+ * <p>
+ * Connections are not opened per email: a Mailer keeps a bounded pool of connected and authenticated transports (see
+ * {@link EmailUtils.Property#DEFAULT_POOL_SIZE}) which are reused until they have been idle for longer than the session timeout (see
+ * {@link EmailUtils.Property#DEFAULT_SESSION_TIMEOUT_MILLIS}). A Mailer is thread-safe and meant to be shared; {@link #close()} it to
+ * disconnect the pooled transports. The envelope of a message is pipelined when the server supports it, see
+ * {@link PipeliningSMTPTransport}.
+ * <p>
+ * Connecting and every read from the server time out (see {@link EmailUtils.Property#DEFAULT_CONNECTION_TIMEOUT_MILLIS} and
+ * {@link EmailUtils.Property#DEFAULT_TIMEOUT_MILLIS}), so that a server that stalls fails the send instead of holding a pooled transport
+ * and its sending thread forever.
+ * <p>
+ * Besides the blocking {@link #sendMail(Email)}, emails can be sent with {@link #sendAsync(Email)}, which converts and sends the email on
+ * the executor of this Mailer (see {@link #setExecutor(Executor)}) so the calling thread doesn't wait for the SMTP server. With
+ * {@link EmailUtils.Property#TRANSPORT_MODE_VIRTUAL_THREADS} enabled and running on Java 21 or newer, each asynchronous send gets its own
+ * virtual thread, so a burst of many thousands of sends only costs a platform thread per pooled connection.
+ */
+public class Mailer implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Mailer.class);
+
+	static final int DEFAULT_POOL_SIZE_VALUE = 4;
+
+	static final long DEFAULT_SESSION_TIMEOUT_MILLIS_VALUE = 20000;
+
+	static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS_VALUE = 60000;
+
+	/**
+	 * Five minutes, the shortest time RFC 5321 (section 4.5.3.2) lets a client wait for most replies.
+	 */
+	static final int DEFAULT_TIMEOUT_MILLIS_VALUE = 300000;
+
+	private final Session session;
+
+	private final TransportPool transportPool;
+
+	private final boolean loggingOnly;
+
+	private final boolean virtualThreads;
+
+	/**
+	 * The executor used by {@link #sendAsync(Email)}, either provided with {@link #setExecutor(Executor)} or created on first use.
+	 */
+	private volatile Executor executor;
+
+	/**
+	 * The executor created by this Mailer, which is shut down on {@link #close()}. Provided executors are left to their owner.
+	 */
+	private ExecutorService ownedExecutor;
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor that reads the server and transport settings from the {@link EmailUtils.Property SMTP properties} in the config file.
+	 */
+	public Mailer() {
+		this(EmailUtils.<String>getProperty(SMTP_HOST), hasProperty(SMTP_PORT) ? EmailUtils.getIntProperty(SMTP_PORT) : null,
+				EmailUtils.<String>getProperty(SMTP_USERNAME), EmailUtils.<String>getProperty(SMTP_PASSWORD));
+	}
+
+	/**
+	 * Delegates to {@link #Mailer(String, Integer, String, String, TransportStrategy)}, using the configured transport strategy or
+	 * {@link TransportStrategy#SMTP_PLAIN}.
+	 */
+	public Mailer(final String host, final Integer port, final String username, final String password) {
+		this(host, port, username, password, TransportStrategy.fromProperties());
+	}
+
+	/**
+	 * @param host              The SMTP host, mandatory.
+	 * @param port              The SMTP port, mandatory.
+	 * @param username          The username used for authentication, optional.
+	 * @param password          The password used for authentication, optional.
+	 * @param transportStrategy The way to connect to the SMTP server.
+	 */
+	public Mailer(final String host, final Integer port, final String username, final String password, final TransportStrategy transportStrategy) {
+		checkNonEmptyArgument(host, "host");
+		checkNonEmptyArgument(port, "port");
+		checkNonEmptyArgument(transportStrategy, "transportStrategy");
+		session = createSession(host, port, username, transportStrategy);
+		transportPool = new TransportPool(session, host, port, username, password, readPoolSize(), readSessionTimeoutMillis());
+		loggingOnly = hasProperty(TRANSPORT_MODE_LOGGING_ONLY) && EmailUtils.<Boolean>getProperty(TRANSPORT_MODE_LOGGING_ONLY);
+		virtualThreads = hasProperty(TRANSPORT_MODE_VIRTUAL_THREADS) && EmailUtils.<Boolean>getProperty(TRANSPORT_MODE_VIRTUAL_THREADS);
+	}
+
+	private static Session createSession(final String host, final Integer port, final String username, final TransportStrategy transportStrategy) {
+		final String protocol = transportStrategy.protocol();
+		final Properties properties = new Properties();
+		properties.put("mail." + protocol + ".host", host);
+		properties.put("mail." + protocol + ".port", String.valueOf(port));
+		if (username != null) {
+			properties.put("mail." + protocol + ".auth", "true");
+			properties.put("mail." + protocol + ".user", username);
+		}
+		properties.put("mail." + protocol + ".connectiontimeout", String.valueOf(readTimeoutMillis(DEFAULT_CONNECTION_TIMEOUT_MILLIS,
+				DEFAULT_CONNECTION_TIMEOUT_MILLIS_VALUE)));
+		properties.put("mail." + protocol + ".timeout", String.valueOf(readTimeoutMillis(DEFAULT_TIMEOUT_MILLIS, DEFAULT_TIMEOUT_MILLIS_VALUE)));
+		transportStrategy.configure(properties);
+		final Session session = Session.getInstance(properties);
+		try {
+			session.setProvider(transportStrategy.transportProvider());
+		} catch (final NoSuchProviderException e) {
+			throw new IllegalStateException("could not register SMTP transport provider", e);
+		}
+		session.setDebug(hasProperty(JAVAXMAIL_DEBUG) && EmailUtils.<Boolean>getProperty(JAVAXMAIL_DEBUG));
+		return session;
+	}
+
+	private static int readPoolSize() {
+		return hasProperty(DEFAULT_POOL_SIZE) ? EmailUtils.getIntProperty(DEFAULT_POOL_SIZE) : DEFAULT_POOL_SIZE_VALUE;
+	}
+
+	private static int readTimeoutMillis(final EmailUtils.Property property, final int defaultValue) {
+		return hasProperty(property) ? EmailUtils.getIntProperty(property) : defaultValue;
+	}
+
+	private static long readSessionTimeoutMillis() {
+		return hasProperty(DEFAULT_SESSION_TIMEOUT_MILLIS)
+				? EmailUtils.getIntProperty(DEFAULT_SESSION_TIMEOUT_MILLIS)
+				: DEFAULT_SESSION_TIMEOUT_MILLIS_VALUE;
+	}
+
+	/**
+	 * Converts the email to a MIME message and sends it over a pooled connection, blocking until the server accepted or rejected it.
+	 *
+	 * @param email The email to send, which needs a sender and at least one recipient.
+	 * @return The result of the accepted email.
+	 * @throws MailException When the email could not be converted or was not accepted by the server.
+	 */
+	public SendResult sendMail(final Email email) {
+		validate(email);
+		return send(email);
+	}
+
+	/**
+	 * Sends a message with the content of the rendered email to a single recipient, blocking until the server accepted or rejected it. The
+	 * encoded body and headers of the rendering are shared by all messages, so this is the way to send identical content to many recipients
+	 * individually.
+	 *
+	 * @param rendered  The rendering of an email with a sender.
+	 * @param recipient The only recipient of the message, see {@link RenderedEmail#toMimeMessage(javax.mail.Session, Recipient)}.
+	 * @return The result of the accepted message.
+	 * @throws MailException When the message could not be produced or was not accepted by the server.
+	 */
+	public SendResult sendMail(final RenderedEmail rendered, final Recipient recipient) {
+		checkNonEmptyArgument(rendered, "rendered");
+		checkNonEmptyArgument(recipient, "recipient");
+		final MimeMessage message;
+		try {
+			message = rendered.toMimeMessage(session, recipient);
+		} catch (final MessagingException e) {
+			throw new MailException("could not convert email to MIME message", e);
+		}
+		return send(rendered.getEmail(), message, Collections.singletonList(recipient));
+	}
+
+	/**
+	 * Validates the email on the calling thread, then converts and sends it on the executor of this Mailer.
+	 *
+	 * @param email The email to send, which needs a sender and at least one recipient.
+	 * @return A future that completes when the server accepted the email, or fails with a {@link MailException} wrapped in an
+	 * {@link ExecutionException} when it was rejected.
+	 * @throws MailException               When the email is not valid, in which case nothing is scheduled.
+	 * @throws RejectedExecutionException When this Mailer has been closed, or the executor refuses the send.
+	 * @see #sendMail(Email)
+	 */
+	public Future<SendResult> sendAsync(final Email email) {
+		return sendAsync(email, null);
+	}
+
+	/**
+	 * Delegates to {@link #sendAsync(Email)}, additionally notifying the given callback when the send completes.
+	 *
+	 * @param callback Notified on the sending thread, optional.
+	 */
+	public Future<SendResult> sendAsync(final Email email, final SendCallback callback) {
+		validate(email);
+		if (closed) {
+			throw new RejectedExecutionException("mailer has been closed");
+		}
+		final SendTask task = new SendTask(email, callback);
+		getExecutor().execute(task);
+		return task;
+	}
+
+	/**
+	 * Sets the executor used by {@link #sendAsync(Email)}. By default a fixed number of daemon threads is used, as many as the transport pool
+	 * size, since more concurrent sends would only wait for a connection; or a virtual thread per send when
+	 * {@link EmailUtils.Property#TRANSPORT_MODE_VIRTUAL_THREADS} is enabled. A provided executor is not shut down by {@link #close()}.
+	 */
+	public void setExecutor(final Executor executor) {
+		this.executor = checkNonEmptyArgument(executor, "executor");
+	}
+
+	private Executor getExecutor() {
+		Executor result = executor;
+		if (result == null) {
+			synchronized (this) {
+				result = executor;
+				if (result == null) {
+					if (closed) {
+						throw new RejectedExecutionException("mailer has been closed");
+					}
+					ownedExecutor = createDefaultExecutor();
+					executor = result = ownedExecutor;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Virtual threads waiting for a pooled transport park without holding a platform thread. Note that before Java 24 a virtual thread is
+	 * pinned to its carrier thread while inside javax.mail's synchronized transport methods, so the transport pool size should not exceed the
+	 * number of carrier threads (by default the number of processors).
+	 */
+	private ExecutorService createDefaultExecutor() {
+		if (virtualThreads) {
+			final ExecutorService virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+			if (virtualThreadExecutor != null) {
+				return virtualThreadExecutor;
+			}
+			LOGGER.warn("virtual threads are not supported by this JVM, falling back to a fixed thread pool");
+		}
+		return Executors.newFixedThreadPool(transportPool.getMaxSize(), new SenderThreadFactory());
+	}
+
+	private SendResult send(final Email email) {
+		final MimeMessage message;
+		try {
+			message = MimeMessageHelper.produceMimeMessage(email, session);
+		} catch (final MessagingException e) {
+			throw new MailException("could not convert email to MIME message", e);
+		}
+		return send(email, message, email.getRecipients());
+	}
+
+	private SendResult send(final Email email, final MimeMessage message, final List<Recipient> recipients) {
+		if (loggingOnly) {
+			LOGGER.info("logging only mode, not sending email:\n{}", email);
+			return new SendResult(email, readMessageId(message));
+		}
+		final TransportPool.PooledTransport pooled;
+		try {
+			pooled = transportPool.borrow();
+		} catch (final MessagingException e) {
+			throw new MailException("could not connect to SMTP server", e);
+		}
+		boolean reusable = false;
+		try {
+			pooled.getTransport().sendMessage(message, message.getAllRecipients());
+			reusable = true;
+			return new SendResult(email, readMessageId(message));
+		} catch (final SendFailedException e) {
+			// the transport resets the mail transaction after refused recipients, or disconnects when that fails
+			reusable = pooled.getTransport().isConnected();
+			final Map<Recipient, String> rejectedRecipients = mapRejectedRecipients(recipients, e);
+			if (isDeliveredPartially(e)) {
+				return new SendResult(email, readMessageId(message), rejectedRecipients);
+			}
+			throw new MailException("could not send email", e, rejectedRecipients);
+		} catch (final MessagingException e) {
+			throw new MailException("could not send email", e);
+		} finally {
+			transportPool.release(pooled, reusable);
+		}
+	}
+
+	/**
+	 * With {@code mail.smtp.sendpartial} enabled the message is sent to the accepted recipients, after which the refused ones are still
+	 * reported with a {@link SendFailedException}.
+	 */
+	private static boolean isDeliveredPartially(final SendFailedException e) {
+		return e.getValidSentAddresses() != null && e.getValidSentAddresses().length > 0;
+	}
+
+	/**
+	 * Maps the per address failures chained to the exception back onto the recipients the message was addressed to. Addresses are compared
+	 * with a lower-cased domain, since that is how mail servers treat them.
+	 */
+	static Map<Recipient, String> mapRejectedRecipients(final List<Recipient> addressed, final MessagingException e) {
+		final Map<String, List<Recipient>> recipientsByAddress = new HashMap<>();
+		for (final Recipient recipient : addressed) {
+			final String key = normalizeForLookup(recipient.getAddress());
+			List<Recipient> recipients = recipientsByAddress.get(key);
+			if (recipients == null) {
+				recipients = new ArrayList<>(1);
+				recipientsByAddress.put(key, recipients);
+			}
+			recipients.add(recipient);
+		}
+		final Map<Recipient, String> rejectedRecipients = new LinkedHashMap<>();
+		for (Exception next = e.getNextException(); next instanceof MessagingException; next = ((MessagingException) next).getNextException()) {
+			if (next instanceof SMTPAddressFailedException) {
+				final SMTPAddressFailedException failure = (SMTPAddressFailedException) next;
+				final InternetAddress address = failure.getAddress();
+				final List<Recipient> recipients = recipientsByAddress.get(normalizeForLookup(address.getAddress()));
+				if (recipients != null) {
+					for (final Recipient recipient : recipients) {
+						rejectedRecipients.put(recipient, failure.getMessage().trim());
+					}
+				}
+			}
+		}
+		return rejectedRecipients;
+	}
+
+	private static String normalizeForLookup(final String address) {
+		final int at = address.lastIndexOf('@');
+		return at < 0 ? address.trim() : address.substring(0, at).trim() + address.substring(at).trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String readMessageId(final MimeMessage message) {
+		try {
+			return message.getMessageID();
+		} catch (final MessagingException e) {
+			throw new MailException("could not read Message-ID", e);
+		}
+	}
+
+	/**
+	 * Checks the fields needed to produce a valid message.
+	 *
+	 * @throws MailException When the email has no sender or no recipients.
+	 */
+	public void validate(final Email email) {
+		RenderedEmail.checkSender(checkNonEmptyArgument(email, "email"));
+		if (email.getRecipients().isEmpty()) {
+			throw new MailException("email has no recipients");
+		}
+	}
+
+	/**
+	 * @return The javax.mail session used for all connections of this Mailer.
+	 */
+	public Session getSession() {
+		return session;
+	}
+
+	/**
+	 * Disconnects the pooled transports. Transports that are in use by a send in progress are disconnected once that send finishes. Stops
+	 * the executor that was created for {@link #sendAsync(Email)}, if any, after the asynchronous sends already scheduled; further
+	 * asynchronous sends are rejected.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			if (ownedExecutor != null) {
+				ownedExecutor.shutdown();
+			}
+		}
+		transportPool.close();
+	}
+
+	/**
+	 * Runs {@link #send(Email)} and notifies the optional callback once the outcome is known.
+	 */
+	private final class SendTask extends FutureTask<SendResult> {
+
+		private final Email email;
+		private final SendCallback callback;
+
+		SendTask(final Email email, final SendCallback callback) {
+			super(new Callable<SendResult>() {
+				@Override
+				public SendResult call() {
+					return send(email);
+				}
+			});
+			this.email = email;
+			this.callback = callback;
+		}
+
+		@Override
+		protected void done() {
+			if (callback == null || isCancelled()) {
+				return;
+			}
+			try {
+				callback.onSuccess(get());
+			} catch (final ExecutionException e) {
+				callback.onFailure(email, e.getCause());
+			} catch (final InterruptedException e) {
+				// can't happen, the task is done
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static final class SenderThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "testmail-sender-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,256 @@
+package org.testmail.email;
+
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts an {@link Email} to a javax.mail {@link MimeMessage}.
+ */
+final class MimeMessageHelper {
+
+	private static final String CHARACTER_ENCODING = "UTF-8";
+
+	private MimeMessageHelper() {
+	}
+
+	static MimeMessage produceMimeMessage(final Email email, final Session session) throws MessagingException {
+		return RenderedEmail.of(email).toMimeMessage(session);
+	}
+
+	/**
+	 * @return A MIME message addressed to all recipients of the rendered email.
+	 */
+	static MimeMessage produceMimeMessage(final RenderedEmail rendered, final Session session) throws MessagingException {
+		try {
+			return produceMimeMessage(rendered, session, groupByType(rendered.getEmail()));
+		} catch (final UnsupportedEncodingException e) {
+			throw new MessagingException("could not encode recipient", e);
+		}
+	}
+
+	static MimeMessage produceMimeMessage(final RenderedEmail rendered, final Session session, final List<Recipient> recipients)
+			throws MessagingException {
+		try {
+			return produceMimeMessage(rendered, session, groupByType(recipients));
+		} catch (final UnsupportedEncodingException e) {
+			throw new MessagingException("could not encode recipient", e);
+		}
+	}
+
+	private static MimeMessage produceMimeMessage(final RenderedEmail rendered, final Session session,
+			final Map<RecipientType, List<InternetAddress>> addressesByType) throws MessagingException {
+		final RenderedMimeMessage message = new RenderedMimeMessage(session, rendered.getBody(), rendered.getEmail().getId());
+		final HeaderList headerBlock = rendered.getHeaderBlock();
+		for (int i = 0; i < headerBlock.size(); i++) {
+			if (isTraceHeader(headerBlock.name(i))) {
+				continue;
+			}
+			if (headerBlock.isFirstWithName(i)) {
+				message.setHeader(headerBlock.name(i), headerBlock.value(i));
+			} else {
+				message.addHeader(headerBlock.name(i), headerBlock.value(i));
+			}
+		}
+		// javax.mail puts every trace header on top of the ones already there, so adding them last to first keeps their order
+		for (int i = headerBlock.size() - 1; i >= 0; i--) {
+			if (isTraceHeader(headerBlock.name(i))) {
+				message.addHeader(headerBlock.name(i), headerBlock.value(i));
+			}
+		}
+		for (final Map.Entry<RecipientType, List<InternetAddress>> addresses : addressesByType.entrySet()) {
+			final List<InternetAddress> typed = addresses.getValue();
+			message.setRecipients(addresses.getKey(), typed.toArray(new InternetAddress[typed.size()]));
+		}
+		message.setSentDate(new Date());
+		message.saveChanges();
+		return message;
+	}
+
+	private static boolean isTraceHeader(final String name) {
+		return name.equalsIgnoreCase("Received") || name.equalsIgnoreCase("Return-Path");
+	}
+
+	/**
+	 * Encodes the headers that don't depend on the recipients, in the order in which they are set on every message. A header of the email
+	 * with the same name as one of the headers derived from its fields replaces that header; any further values of it are added as well.
+	 */
+	static HeaderList encodeHeaderBlock(final Email email) throws UnsupportedEncodingException {
+		final HeaderList headerBlock = new HeaderList();
+		headerBlock.add("From", toInternetAddress(email.getFromRecipient()).toString());
+		if (email.getReplyToRecipient() != null) {
+			headerBlock.add("Reply-To", toInternetAddress(email.getReplyToRecipient()).toString());
+		}
+		if (email.getSubject() != null) {
+			headerBlock.add("Subject", MimeUtility.fold(9, MimeUtility.encodeText(email.getSubject(), CHARACTER_ENCODING, null)));
+		}
+		final HeaderList headers = email.headers();
+		for (int i = 0; i < headers.size(); i++) {
+			if (headers.isFirstWithName(i)) {
+				headerBlock.set(headers.name(i), headers.value(i));
+			} else {
+				headerBlock.add(headers.name(i), headers.value(i));
+			}
+		}
+		if (email.isUseReturnReceiptTo() && email.getReturnReceiptTo() != null) {
+			final String address = toInternetAddress(email.getReturnReceiptTo()).toString();
+			headerBlock.set("Disposition-Notification-To", address);
+			headerBlock.set("Return-Receipt-To", address);
+		}
+		return headerBlock;
+	}
+
+	/**
+	 * Takes the addresses per recipient type from the type views of the email, unless it has recipients of other types than TO, CC and
+	 * BCC.
+	 */
+	private static Map<RecipientType, List<InternetAddress>> groupByType(final Email email) throws UnsupportedEncodingException {
+		final List<Recipient> to = email.getToRecipients();
+		final List<Recipient> cc = email.getCcRecipients();
+		final List<Recipient> bcc = email.getBccRecipients();
+		if (to.size() + cc.size() + bcc.size() != email.getRecipients().size()) {
+			return groupByType(email.getRecipients());
+		}
+		final Map<RecipientType, List<InternetAddress>> addressesByType = new LinkedHashMap<>();
+		putAddresses(addressesByType, RecipientType.TO, to);
+		putAddresses(addressesByType, RecipientType.CC, cc);
+		putAddresses(addressesByType, RecipientType.BCC, bcc);
+		return addressesByType;
+	}
+
+	private static void putAddresses(final Map<RecipientType, List<InternetAddress>> addressesByType, final RecipientType type,
+			final List<Recipient> recipients) throws UnsupportedEncodingException {
+		if (!recipients.isEmpty()) {
+			final List<InternetAddress> addresses = new ArrayList<>(recipients.size());
+			for (final Recipient recipient : recipients) {
+				addresses.add(toInternetAddress(recipient));
+			}
+			addressesByType.put(type, addresses);
+		}
+	}
+
+	/**
+	 * Collects the addresses per recipient type, keeping the order of the recipients.
+	 */
+	private static Map<RecipientType, List<InternetAddress>> groupByType(final List<Recipient> recipients) throws UnsupportedEncodingException {
+		final Map<RecipientType, List<InternetAddress>> addressesByType = new LinkedHashMap<>();
+		for (final Recipient recipient : recipients) {
+			List<InternetAddress> addresses = addressesByType.get(recipient.getType());
+			if (addresses == null) {
+				addresses = new ArrayList<>();
+				addressesByType.put(recipient.getType(), addresses);
+			}
+			addresses.add(toInternetAddress(recipient));
+		}
+		return addressesByType;
+	}
+
+	static InternetAddress toInternetAddress(final Recipient recipient) throws UnsupportedEncodingException {
+		return new InternetAddress(recipient.getAddress(), recipient.getName(), CHARACTER_ENCODING);
+	}
+
+	/**
+	 * MIME message whose content is an already encoded {@link RenderedBody}. The body bytes are written out as-is instead of being encoded
+	 * again, which javax.mail would otherwise do for every message. A streamed body is encoded straight into the output instead.
+	 * <p>
+	 * Uses the {@link Email#getId()} as Message-ID when one was provided, instead of having javax.mail generate one.
+	 */
+	private static final class RenderedMimeMessage extends MimeMessage {
+
+		private static final byte[] CRLF = { '\r', '\n' };
+
+		private final RenderedBody body;
+		private final String id;
+
+		RenderedMimeMessage(final Session session, final RenderedBody body, final String id) throws MessagingException {
+			super(session);
+			this.body = body;
+			this.id = id;
+			this.content = body.content();
+			setHeader("Content-Type", body.getContentType());
+			if (body.getTransferEncoding() != null) {
+				setHeader("Content-Transfer-Encoding", body.getTransferEncoding());
+			}
+			modified = false;
+		}
+
+		/**
+		 * Writes a streamed body from its sources, since it has no content bytes for the default to write.
+		 */
+		@Override
+		public void writeTo(final OutputStream os, final String[] ignoreList) throws IOException, MessagingException {
+			if (!body.isStreamed()) {
+				super.writeTo(os, ignoreList);
+				return;
+			}
+			if (!saved) {
+				saveChanges();
+			}
+			final Enumeration<?> headerLines = getNonMatchingHeaderLines(ignoreList);
+			while (headerLines.hasMoreElements()) {
+				os.write(((String) headerLines.nextElement()).getBytes(StandardCharsets.ISO_8859_1));
+				os.write(CRLF);
+			}
+			os.write(CRLF);
+			body.writeContentTo(os);
+			os.flush();
+		}
+
+		/**
+		 * Encodes a streamed body into memory, for callers that read the content of the message rather than writing it.
+		 */
+		@Override
+		protected InputStream getContentStream() throws MessagingException {
+			if (!body.isStreamed()) {
+				return super.getContentStream();
+			}
+			final ByteBuffer encoded = body.getContent();
+			final byte[] bytes = new byte[encoded.remaining()];
+			encoded.get(bytes);
+			return new ByteArrayInputStream(bytes);
+		}
+
+		/**
+		 * Unlike the default, doesn't mark the message as modified, which would have the content encoded again from its data handler.
+		 */
+		@Override
+		public void saveChanges() throws MessagingException {
+			saved = true;
+			updateHeaders();
+		}
+
+		/**
+		 * Only updates the headers that don't describe the content, since the content headers come with the rendered body.
+		 */
+		@Override
+		protected void updateHeaders() throws MessagingException {
+			setHeader("MIME-Version", "1.0");
+			updateMessageID();
+		}
+
+		@Override
+		protected void updateMessageID() throws MessagingException {
+			if (EmailUtils.valueNullOrEmpty(id)) {
+				super.updateMessageID();
+			} else {
+				setHeader("Message-ID", id);
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+package org.testmail.email;
+
+import javax.mail.Session;
+import javax.mail.URLName;
+
+/**
+ * The {@link PipeliningSMTPTransport} for the {@code smtps} protocol, used with {@link TransportStrategy#SMTP_SSL}.
+ */
+public class PipeliningSMTPSSLTransport extends PipeliningSMTPTransport {
+
+	public PipeliningSMTPSSLTransport(final Session session, final URLName urlname) {
+		super(session, urlname, "smtps", true);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,251 @@
+package org.testmail.email;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPMessage;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+import javax.mail.event.TransportListener;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SMTP transport that pipelines the envelope (RFC 2920) when the server advertises the PIPELINING extension: {@code MAIL FROM} and all
+ * {@code RCPT TO} commands are written without waiting for replies, after which the replies are read in order. For a message with N
+ * recipients this replaces N + 1 round-trips with one.
+ * <p>
+ * Failed recipients are reported exactly like {@link SMTPTransport} does: a {@link SendFailedException} (or {@link SMTPSendFailedException}
+ * when {@code mail.smtp.sendpartial} is set and the message was sent to the remaining recipients) with a chain of
+ * {@link SMTPAddressFailedException}s holding the server reply per address.
+ * <p>
+ * The pipelined envelope is a plain {@code MAIL FROM} without parameters, and the message is sent as is. Everything else falls back to the
+ * regular, one command at a time conversation of {@link SMTPTransport}: servers without PIPELINING, {@link SMTPMessage}s, transports with
+ * {@link #getReportSuccess()} enabled or with transport listeners, and sessions that configure 8BITMIME conversion
+ * ({@code mail.smtp.allow8bitmime}), delivery status notifications ({@code mail.smtp.dsn.notify} and {@code mail.smtp.dsn.ret}), a
+ * submitter ({@code mail.smtp.submitter}) or further {@code MAIL FROM} parameters such as {@code SIZE} ({@code mail.smtp.mailextension}).
+ */
+public class PipeliningSMTPTransport extends SMTPTransport {
+
+	private static final String[] IGNORED_HEADERS = { "Bcc", "Content-Length" };
+
+	private static final String[] REGULAR_CONVERSATION_PROPERTIES = { "allow8bitmime", "dsn.notify", "dsn.ret", "submitter",
+			"mailextension" };
+
+	private final String protocol;
+	/**
+	 * The listeners {@link Transport} keeps are private, so they are tracked here as well.
+	 */
+	private final List<TransportListener> transportListeners = new ArrayList<>();
+
+	public PipeliningSMTPTransport(final Session session, final URLName urlname) {
+		this(session, urlname, "smtp", false);
+	}
+
+	protected PipeliningSMTPTransport(final Session session, final URLName urlname, final String protocol, final boolean isSSL) {
+		super(session, urlname, protocol, isSSL);
+		this.protocol = protocol;
+	}
+
+	@Override
+	public synchronized void addTransportListener(final TransportListener listener) {
+		super.addTransportListener(listener);
+		transportListeners.add(listener);
+	}
+
+	@Override
+	public synchronized void removeTransportListener(final TransportListener listener) {
+		super.removeTransportListener(listener);
+		transportListeners.remove(listener);
+	}
+
+	@Override
+	public synchronized void sendMessage(final Message message, final Address[] addresses) throws MessagingException {
+		if (!supportsExtension("PIPELINING") || getReportSuccess() || !transportListeners.isEmpty() || configuresRegularConversation()
+				|| message instanceof SMTPMessage || !(message instanceof MimeMessage)) {
+			super.sendMessage(message, addresses);
+			return;
+		}
+		checkConnected();
+		final InternetAddress[] recipients = toInternetAddresses(addresses);
+		try {
+			sendPipelined((MimeMessage) message, recipients);
+		} catch (final IOException e) {
+			try {
+				close();
+			} catch (final MessagingException ce) {
+				// closing a broken connection, nothing left to do
+			}
+			throw new MessagingException("IOException while sending message", e);
+		}
+	}
+
+	private void sendPipelined(final MimeMessage message, final InternetAddress[] recipients) throws MessagingException, IOException {
+		final String mailFromCommand = "MAIL FROM:" + normalizeAddress(determineEnvelopeFrom(message));
+		final String[] rcptCommands = new String[recipients.length];
+		for (int i = 0; i < recipients.length; i++) {
+			rcptCommands[i] = "RCPT TO:" + normalizeAddress(recipients[i].getAddress());
+		}
+
+		sendCommand(mailFromCommand);
+		for (final String rcptCommand : rcptCommands) {
+			sendCommand(rcptCommand);
+		}
+
+		final int mailFromCode = readServerResponse();
+		final String mailFromResponse = getLastServerResponse();
+		final EnvelopeReplies replies = new EnvelopeReplies(sendPartial());
+		for (int i = 0; i < recipients.length; i++) {
+			replies.add(recipients[i], rcptCommands[i], readServerResponse(), getLastServerResponse());
+		}
+
+		if (mailFromCode != 250) {
+			reset();
+			final SMTPSendFailedException failure = new SMTPSendFailedException(mailFromCommand, mailFromCode, mailFromResponse, null,
+					null, recipients, null);
+			failure.setNextException(new SMTPSenderFailedException(new InternetAddress(determineEnvelopeFrom(message)), mailFromCommand,
+					mailFromCode, mailFromResponse));
+			throw failure;
+		}
+		if (replies.isFailed()) {
+			reset();
+			throw new SendFailedException("Invalid Addresses", replies.failures, null, replies.validAndValidUnsent(), replies.invalidArray());
+		}
+
+		message.writeTo(data(), IGNORED_HEADERS);
+		finishData();
+
+		if (replies.failures != null) {
+			throw new SMTPSendFailedException(".", getLastReturnCode(), getLastServerResponse(), replies.failures,
+					replies.validArray(), replies.validUnsentArray(), replies.invalidArray());
+		}
+	}
+
+	/**
+	 * Aborts the mail transaction so the connection can be used for the next message.
+	 */
+	private void reset() throws MessagingException {
+		try {
+			simpleCommand("RSET");
+		} catch (final MessagingException e) {
+			close();
+		}
+	}
+
+	/**
+	 * @return Whether the session sets any of the options only the regular conversation supports.
+	 */
+	private boolean configuresRegularConversation() {
+		for (final String property : REGULAR_CONVERSATION_PROPERTIES) {
+			final String value = session.getProperty("mail." + protocol + "." + property);
+			if (value != null && !value.isEmpty() && !"false".equalsIgnoreCase(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean sendPartial() {
+		return Boolean.parseBoolean(session.getProperty("mail." + protocol + ".sendpartial"));
+	}
+
+	private String determineEnvelopeFrom(final MimeMessage message) throws MessagingException {
+		final String configuredFrom = session.getProperty("mail." + protocol + ".from");
+		if (configuredFrom != null && !configuredFrom.isEmpty()) {
+			return configuredFrom;
+		}
+		final Address[] from = message.getFrom();
+		final Address sender = from != null && from.length > 0 ? from[0] : InternetAddress.getLocalAddress(session);
+		if (sender == null) {
+			throw new MessagingException("can't determine local email address");
+		}
+		return ((InternetAddress) sender).getAddress();
+	}
+
+	private static String normalizeAddress(final String address) {
+		return address.startsWith("<") && address.endsWith(">") ? address : "<" + address + ">";
+	}
+
+	private static InternetAddress[] toInternetAddresses(final Address[] addresses) throws MessagingException {
+		if (addresses.length == 0) {
+			throw new SendFailedException("No recipient addresses");
+		}
+		final InternetAddress[] internetAddresses = new InternetAddress[addresses.length];
+		for (int i = 0; i < addresses.length; i++) {
+			if (!(addresses[i] instanceof InternetAddress)) {
+				throw new MessagingException(addresses[i] + " is not an InternetAddress");
+			}
+			internetAddresses[i] = (InternetAddress) addresses[i];
+		}
+		return internetAddresses;
+	}
+
+	/**
+	 * Sorts the RCPT replies into valid, valid-but-unsent and invalid addresses, using the same reply code classification as
+	 * {@link SMTPTransport}.
+	 */
+	private static final class EnvelopeReplies {
+
+		private final boolean sendPartial;
+		private final List<InternetAddress> valid = new ArrayList<>();
+		private final List<InternetAddress> validUnsent = new ArrayList<>();
+		private final List<InternetAddress> invalid = new ArrayList<>();
+		private MessagingException failures;
+		private MessagingException lastFailure;
+
+		EnvelopeReplies(final boolean sendPartial) {
+			this.sendPartial = sendPartial;
+		}
+
+		void add(final InternetAddress address, final String command, final int code, final String response) {
+			if (code == 250 || code == 251) {
+				valid.add(address);
+				return;
+			}
+			if (code >= 400 && code <= 499 || code == 552) {
+				validUnsent.add(address);
+			} else {
+				invalid.add(address);
+			}
+			final SMTPAddressFailedException failure = new SMTPAddressFailedException(address, command, code, response);
+			if (failures == null) {
+				failures = failure;
+			} else {
+				lastFailure.setNextException(failure);
+			}
+			lastFailure = failure;
+		}
+
+		boolean isFailed() {
+			return valid.isEmpty() || (!sendPartial && failures != null);
+		}
+
+		Address[] validArray() {
+			return valid.toArray(new Address[valid.size()]);
+		}
+
+		Address[] validUnsentArray() {
+			return validUnsent.toArray(new Address[validUnsent.size()]);
+		}
+
+		Address[] validAndValidUnsent() {
+			final List<InternetAddress> all = new ArrayList<>(valid);
+			all.addAll(validUnsent);
+			return all.toArray(new Address[all.size()]);
+		}
+
+		Address[] invalidArray() {
+			return invalid.toArray(new Address[invalid.size()]);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,372 @@
+package org.testmail.email;
+
+import javax.mail.Message.RecipientType;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The recipients of an {@link Email} or {@link EmailBuilder}, in the order they were added. Small lists hold {@link Recipient} instances;
+ * once a list grows beyond {@value #COMPACT_THRESHOLD} recipients it moves them to a {@link CompactRecipients} store, unless one of them
+ * has a recipient type the store can't represent.
+ * <p>
+ * The positions of the TO, CC and BCC recipients are indexed as they are added, so that {@link #ofType(RecipientType)} gives the
+ * recipients of one type without scanning the others.
+ * <p>
+ * Optionally the list {@link #deduplicate(RecipientType...) deduplicates} recipients by address as they are added.
+ * <p>
+ * Recipients can only be added, or all be cleared. Reading a compacted list creates the {@link Recipient} instances on the fly, so they
+ * are equal to, but not the same instances as, the ones that were added.
+ */
+final class RecipientList extends AbstractList<Recipient> implements RandomAccess {
+
+	static final int COMPACT_THRESHOLD = 1024;
+
+	/**
+	 * A recipient that is both in TO and in CC or BCC stays in TO, one that is in CC and BCC stays in CC.
+	 */
+	static final RecipientType[] DEFAULT_PRECEDENCE = { RecipientType.TO, RecipientType.CC, RecipientType.BCC };
+
+	/**
+	 * {@code null} once compacted.
+	 */
+	private List<Recipient> recipients;
+	/**
+	 * {@code null} until compacted.
+	 */
+	private CompactRecipients compactRecipients;
+	/**
+	 * Whether all recipients added so far can be stored in {@link CompactRecipients}.
+	 */
+	private boolean compactable = true;
+
+	private TypeIndex toIndex;
+	private TypeIndex ccIndex;
+	private TypeIndex bccIndex;
+
+	/**
+	 * The position of each recipient by normalized address, {@code null} unless deduplicating.
+	 */
+	private Map<String, Integer> positionsByAddress;
+	private RecipientType[] precedence;
+
+	/**
+	 * Whether the state above is shared with a {@link #snapshot()}, so that it has to be copied before it is changed.
+	 */
+	private boolean shared;
+
+	RecipientList() {
+		recipients = new ArrayList<>();
+		toIndex = new TypeIndex();
+		ccIndex = new TypeIndex();
+		bccIndex = new TypeIndex();
+	}
+
+	/**
+	 * Shares the state of the other list, which must be marked as {@link #shared} as well.
+	 */
+	private RecipientList(final RecipientList other) {
+		recipients = other.recipients;
+		compactRecipients = other.compactRecipients;
+		compactable = other.compactable;
+		toIndex = other.toIndex;
+		ccIndex = other.ccIndex;
+		bccIndex = other.bccIndex;
+		positionsByAddress = other.positionsByAddress;
+		precedence = other.precedence;
+		shared = true;
+	}
+
+	/**
+	 * @return A list with the same recipients, and deduplication if enabled, that doesn't change when this list changes or vice versa.
+	 * Takes constant time: both lists share their state until one of them changes, which copies it first.
+	 */
+	RecipientList snapshot() {
+		shared = true;
+		return new RecipientList(this);
+	}
+
+	private void copyIfShared() {
+		if (shared) {
+			if (compactRecipients != null) {
+				compactRecipients = compactRecipients.copy();
+			} else {
+				recipients = new ArrayList<>(recipients);
+			}
+			toIndex = new TypeIndex(toIndex);
+			ccIndex = new TypeIndex(ccIndex);
+			bccIndex = new TypeIndex(bccIndex);
+			if (positionsByAddress != null) {
+				positionsByAddress = new HashMap<>(positionsByAddress);
+			}
+			shared = false;
+		}
+	}
+
+	/**
+	 * Removes all recipients and turns deduplication off. The storage is kept for the recipients added next, unless it's shared with a
+	 * snapshot, in which case new storage is allocated with room for as many recipients as there were.
+	 */
+	@Override
+	public void clear() {
+		final int capacity = size();
+		if (shared) {
+			if (compactRecipients != null) {
+				compactRecipients = new CompactRecipients(capacity);
+			} else {
+				recipients = new ArrayList<>(capacity);
+			}
+			toIndex = new TypeIndex(toIndex.size);
+			ccIndex = new TypeIndex(ccIndex.size);
+			bccIndex = new TypeIndex(bccIndex.size);
+			shared = false;
+		} else {
+			if (compactRecipients != null) {
+				compactRecipients.clear();
+			} else {
+				recipients.clear();
+			}
+			toIndex.clear();
+			ccIndex.clear();
+			bccIndex.clear();
+		}
+		compactable = true;
+		positionsByAddress = null;
+		precedence = null;
+		modCount++;
+	}
+
+	/**
+	 * From now on, adding a recipient whose address is already in the list doesn't add it again. Instead, the recipient that was added
+	 * first gets the type that comes first in the precedence, so that for example someone in both TO and BCC only gets the email as TO.
+	 * Addresses are compared trimmed and with the domain in lower case. Duplicates already in the list are merged right away.
+	 *
+	 * @param precedence Recipient types in order of precedence, {@link #DEFAULT_PRECEDENCE} when empty. Types that are not listed come
+	 *                   last.
+	 */
+	void deduplicate(final RecipientType... precedence) {
+		this.precedence = precedence.length > 0 ? precedence.clone() : DEFAULT_PRECEDENCE;
+		final List<Recipient> current = new ArrayList<>(this);
+		recipients = new ArrayList<>();
+		compactRecipients = null;
+		compactable = true;
+		toIndex = new TypeIndex();
+		ccIndex = new TypeIndex();
+		bccIndex = new TypeIndex();
+		positionsByAddress = new HashMap<>();
+		shared = false;
+		for (final Recipient recipient : current) {
+			add(recipient);
+		}
+		modCount++;
+	}
+
+	/**
+	 * @return {@code false} when deduplicating and the address was already in the list, in which case its type may have changed.
+	 */
+	@Override
+	public boolean add(final Recipient recipient) {
+		EmailUtils.checkNonEmptyArgument(recipient, "recipient");
+		copyIfShared();
+		if (positionsByAddress != null) {
+			final String address = normalizeAddress(recipient.getAddress());
+			final Integer position = positionsByAddress.get(address);
+			if (position != null) {
+				if (rank(recipient.getType()) < rank(getType(position))) {
+					setType(position, recipient.getType());
+				}
+				return false;
+			}
+			positionsByAddress.put(address, size());
+		}
+		compactable &= CompactRecipients.canStore(recipient.getType());
+		final TypeIndex typeIndex = typeIndex(recipient.getType());
+		if (typeIndex != null) {
+			typeIndex.add(size());
+		}
+		if (compactRecipients != null) {
+			if (compactable) {
+				compactRecipients.add(recipient);
+			} else {
+				inflate();
+				recipients.add(recipient);
+			}
+		} else {
+			recipients.add(recipient);
+			if (compactable && recipients.size() > COMPACT_THRESHOLD) {
+				compact();
+			}
+		}
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Moves the recipient at the given position to the index of its new type, keeping the indexes in order of position.
+	 */
+	private void setType(final int position, final RecipientType type) {
+		final TypeIndex oldTypeIndex = typeIndex(getType(position));
+		if (oldTypeIndex != null) {
+			oldTypeIndex.remove(position);
+		}
+		final TypeIndex newTypeIndex = typeIndex(type);
+		if (newTypeIndex != null) {
+			newTypeIndex.insert(position);
+		}
+		compactable &= CompactRecipients.canStore(type);
+		if (compactRecipients != null && !compactable) {
+			inflate();
+		}
+		if (compactRecipients != null) {
+			compactRecipients.setType(position, type);
+		} else {
+			final Recipient recipient = recipients.get(position);
+			recipients.set(position, RecipientPool.intern(new Recipient(recipient.getName(), recipient.getAddress(), type)));
+		}
+		modCount++;
+	}
+
+	private RecipientType getType(final int position) {
+		return compactRecipients != null ? compactRecipients.getType(position) : recipients.get(position).getType();
+	}
+
+	private int rank(final RecipientType type) {
+		for (int i = 0; i < precedence.length; i++) {
+			if (precedence[i].equals(type)) {
+				return i;
+			}
+		}
+		return precedence.length;
+	}
+
+	private static String normalizeAddress(final String address) {
+		final String trimmed = address.trim();
+		final int at = trimmed.lastIndexOf('@');
+		return at < 0 ? trimmed : trimmed.substring(0, at) + trimmed.substring(at).toLowerCase(Locale.ROOT);
+	}
+
+	private void compact() {
+		final CompactRecipients compacted = new CompactRecipients(recipients.size() + (recipients.size() >> 1));
+		for (final Recipient recipient : recipients) {
+			compacted.add(recipient);
+		}
+		compactRecipients = compacted;
+		recipients = null;
+	}
+
+	private void inflate() {
+		final List<Recipient> inflated = new ArrayList<>(compactRecipients.size() + 1);
+		for (int i = 0; i < compactRecipients.size(); i++) {
+			inflated.add(compactRecipients.get(i));
+		}
+		recipients = inflated;
+		compactRecipients = null;
+	}
+
+	private TypeIndex typeIndex(final RecipientType type) {
+		if (RecipientType.TO.equals(type)) {
+			return toIndex;
+		} else if (RecipientType.CC.equals(type)) {
+			return ccIndex;
+		} else if (RecipientType.BCC.equals(type)) {
+			return bccIndex;
+		}
+		return null;
+	}
+
+	/**
+	 * @param type {@link RecipientType#TO}, {@link RecipientType#CC} or {@link RecipientType#BCC}.
+	 * @return Read-only view on the recipients of the given type, in the order they were added. Reflects recipients added later.
+	 */
+	List<Recipient> ofType(final RecipientType type) {
+		if (typeIndex(type) == null) {
+			throw new IllegalArgumentException("no index for recipient type " + type);
+		}
+		return new TypeView(type);
+	}
+
+	@Override
+	public Recipient get(final int index) {
+		return compactRecipients != null ? compactRecipients.get(index) : recipients.get(index);
+	}
+
+	@Override
+	public int size() {
+		return compactRecipients != null ? compactRecipients.size() : recipients.size();
+	}
+
+	/**
+	 * Positions in the list of the recipients of one type, in ascending order.
+	 */
+	private static final class TypeIndex {
+
+		private int[] positions;
+		private int size;
+
+		TypeIndex() {
+			this(4);
+		}
+
+		TypeIndex(final int capacity) {
+			positions = new int[Math.max(capacity, 4)];
+		}
+
+		TypeIndex(final TypeIndex other) {
+			positions = Arrays.copyOf(other.positions, Math.max(other.size, 4));
+			size = other.size;
+		}
+
+		void add(final int position) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size + (size >> 1));
+			}
+			positions[size++] = position;
+		}
+
+		void insert(final int position) {
+			final int index = -Arrays.binarySearch(positions, 0, size, position) - 1;
+			add(position);
+			System.arraycopy(positions, index, positions, index + 1, size - 1 - index);
+			positions[index] = position;
+		}
+
+		void remove(final int position) {
+			final int index = Arrays.binarySearch(positions, 0, size, position);
+			System.arraycopy(positions, index + 1, positions, index, size - 1 - index);
+			size--;
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+	}
+
+	private final class TypeView extends AbstractList<Recipient> implements RandomAccess {
+
+		private final RecipientType type;
+
+		TypeView(final RecipientType type) {
+			this.type = type;
+		}
+
+		@Override
+		public Recipient get(final int index) {
+			final TypeIndex typeIndex = typeIndex(type);
+			if (index < 0 || index >= typeIndex.size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + typeIndex.size);
+			}
+			return RecipientList.this.get(typeIndex.positions[index]);
+		}
+
+		@Override
+		public int size() {
+			return typeIndex(type).size;
+		}
+	}
+}
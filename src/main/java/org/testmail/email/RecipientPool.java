@@ -0,0 +1,80 @@
+package org.testmail.email;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testmail.email.EmailUtils.Property.RECIPIENT_POOL_SIZE;
+
+/**
+ * Bounded pool of {@link Recipient} instances, so that processes sending to the same addresses over and over keep one instance per
+ * recipient rather than one per email. Disabled unless {@link EmailUtils.Property#RECIPIENT_POOL_SIZE} is configured.
+ * <p>
+ * The pool keeps two generations: lookups hit the current generation, or move a recipient over from the previous one. Once the current
+ * generation is full it becomes the previous one, dropping the recipients that weren't used during the last generation. Neither lookups
+ * nor additions lock; the pool holds at most about the configured number of recipients.
+ *
+ * @see ConfigSnapshot#getRecipientPool()
+ */
+final class RecipientPool {
+
+	static final RecipientPool DISABLED = new RecipientPool(0);
+
+	private final int generationSize;
+	private final AtomicInteger added = new AtomicInteger();
+	private volatile ConcurrentHashMap<Recipient, Recipient> current = new ConcurrentHashMap<>();
+	private volatile ConcurrentHashMap<Recipient, Recipient> previous = new ConcurrentHashMap<>();
+
+	private RecipientPool(final int maxSize) {
+		this.generationSize = maxSize / 2;
+	}
+
+	static RecipientPool resolve(final ConfigSnapshot config) {
+		if (!config.hasProperty(RECIPIENT_POOL_SIZE)) {
+			return DISABLED;
+		}
+		final int maxSize = config.getIntProperty(RECIPIENT_POOL_SIZE);
+		if (maxSize < 0) {
+			throw new IllegalArgumentException(RECIPIENT_POOL_SIZE.key() + " must not be negative");
+		}
+		return maxSize < 2 ? DISABLED : new RecipientPool(maxSize);
+	}
+
+	/**
+	 * Interns the recipient with the pool of the current configuration.
+	 */
+	static Recipient intern(final Recipient recipient) {
+		return EmailUtils.config().getRecipientPool().internRecipient(recipient);
+	}
+
+	/**
+	 * @return The pooled recipient equal to the given one, which is pooled when there is none yet.
+	 */
+	Recipient internRecipient(final Recipient recipient) {
+		if (generationSize == 0) {
+			return recipient;
+		}
+		final ConcurrentHashMap<Recipient, Recipient> generation = current;
+		final Recipient pooled = generation.get(recipient);
+		if (pooled != null) {
+			return pooled;
+		}
+		final Recipient previouslyPooled = previous.get(recipient);
+		final Recipient candidate = previouslyPooled != null ? previouslyPooled : recipient;
+		final Recipient raced = generation.putIfAbsent(candidate, candidate);
+		if (raced != null) {
+			return raced;
+		}
+		if (added.incrementAndGet() >= generationSize) {
+			startGeneration(generation);
+		}
+		return candidate;
+	}
+
+	private synchronized void startGeneration(final ConcurrentHashMap<Recipient, Recipient> full) {
+		if (current == full) {
+			previous = full;
+			current = new ConcurrentHashMap<>();
+			added.set(0);
+		}
+	}
+}
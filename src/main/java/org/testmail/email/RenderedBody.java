@@ -0,0 +1,363 @@
+package org.testmail.email;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.internet.ContentDisposition;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimeUtility;
+import javax.mail.internet.ParameterList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * The MIME encoded body of an email: the plain text and/or HTML content, transfer encoded once and kept as immutable bytes. Every MIME
+ * message produced from the same body writes out these bytes as-is, so sending identical content to many recipients doesn't encode it
+ * again per message.
+ * <p>
+ * A body with content from a {@link BodySource} is {@link #isStreamed() streamed} instead: only its headers are determined up front, and
+ * every message encodes the content while it's written, reading it from the source again, so that it's never held in memory as a whole.
+ * The same goes for a body with {@link Attachment attachments}, which are read and base64 encoded while a message is written.
+ *
+ * @see Email#getRenderedBody()
+ * @see RenderedEmail
+ */
+public final class RenderedBody {
+
+	private static final String CHARACTER_ENCODING = "UTF-8";
+
+	private static final byte[] HEADER_SEPARATOR = { '\r', '\n', '\r', '\n' };
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final String contentType;
+	private final String transferEncoding;
+	/**
+	 * {@code null} when streamed.
+	 */
+	private final byte[] content;
+	/**
+	 * The part whose content is streamed, {@code null} unless streamed.
+	 */
+	private final MimeBodyPart streamedPart;
+
+	private RenderedBody(final String contentType, final String transferEncoding, final byte[] content, final MimeBodyPart streamedPart) {
+		this.contentType = contentType;
+		this.transferEncoding = transferEncoding;
+		this.content = content;
+		this.streamedPart = streamedPart;
+	}
+
+	/**
+	 * Encodes the body the same way for every email: multipart/alternative when both plain text and HTML are available, so that clients
+	 * can pick the version they can display, otherwise a single text/html or text/plain part.
+	 */
+	static RenderedBody render(final String text, final String textHTML) throws MessagingException {
+		final RenderablePart part = new RenderablePart();
+		if (text != null && textHTML != null) {
+			final MimeMultipart alternative = new MimeMultipart("alternative");
+			final MimeBodyPart textPart = new MimeBodyPart();
+			textPart.setText(text, CHARACTER_ENCODING);
+			alternative.addBodyPart(textPart);
+			final MimeBodyPart htmlPart = new MimeBodyPart();
+			htmlPart.setText(textHTML, CHARACTER_ENCODING, "html");
+			alternative.addBodyPart(htmlPart);
+			part.setContent(alternative);
+		} else if (textHTML != null) {
+			part.setText(textHTML, CHARACTER_ENCODING, "html");
+		} else {
+			part.setText(text != null ? text : "", CHARACTER_ENCODING);
+		}
+		part.prepare();
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			part.writeTo(output);
+		} catch (final IOException e) {
+			throw new MessagingException("could not encode email body", e);
+		}
+		final byte[] encodedPart = output.toByteArray();
+		final int bodyStart = indexOf(encodedPart, HEADER_SEPARATOR) + HEADER_SEPARATOR.length;
+		final byte[] content = new byte[encodedPart.length - bodyStart];
+		System.arraycopy(encodedPart, bodyStart, content, 0, content.length);
+		return new RenderedBody(part.getHeader("Content-Type", null), part.getEncoding(), content, null);
+	}
+
+	/**
+	 * Like {@link #render(String, String)}, but with the text and HTML each given either as string or as source, and with attachments. A
+	 * body with content from a source or with attachments is streamed; reading the text and HTML once to choose their transfer encoding is
+	 * all that is done up front. Attachments are always base64 encoded, so they're only read while a message is written.
+	 * <p>
+	 * Inline resources are put together with the text in multipart/related, so that the HTML can refer to them by content-id, and other
+	 * attachments come after the text in multipart/mixed.
+	 */
+	static RenderedBody render(final String text, final BodySource textSource, final String textHTML, final BodySource textHTMLSource,
+			final List<Attachment> attachments) throws MessagingException {
+		if (textSource == null && textHTMLSource == null && attachments.isEmpty()) {
+			return render(text, textHTML);
+		}
+		final MimeMultipart related = new MimeMultipart("related");
+		final MimeMultipart mixed = new MimeMultipart("mixed");
+		for (final Attachment attachment : attachments) {
+			(attachment.isInline() ? related : mixed).addBodyPart(attachmentPart(attachment));
+		}
+		final RenderablePart part = new RenderablePart();
+		MimeBodyPart current = attachments.isEmpty() ? part : new MimeBodyPart();
+		setTextContent(current, text, textSource, textHTML, textHTMLSource);
+		if (related.getCount() > 0) {
+			related.addBodyPart(current, 0);
+			current = mixed.getCount() > 0 ? new MimeBodyPart() : part;
+			current.setContent(related);
+		}
+		if (mixed.getCount() > 0) {
+			mixed.addBodyPart(current, 0);
+			part.setContent(mixed);
+		}
+		part.prepare();
+		return new RenderedBody(part.getHeader("Content-Type", null), part.getEncoding(), null, part);
+	}
+
+	private static void setTextContent(final MimeBodyPart part, final String text, final BodySource textSource, final String textHTML,
+			final BodySource textHTMLSource) throws MessagingException {
+		final boolean hasText = text != null || textSource != null;
+		final boolean hasHTML = textHTML != null || textHTMLSource != null;
+		if (hasText && hasHTML) {
+			final MimeMultipart alternative = new MimeMultipart("alternative");
+			final MimeBodyPart textPart = new MimeBodyPart();
+			setContent(textPart, text, textSource, "plain");
+			alternative.addBodyPart(textPart);
+			final MimeBodyPart htmlPart = new MimeBodyPart();
+			setContent(htmlPart, textHTML, textHTMLSource, "html");
+			alternative.addBodyPart(htmlPart);
+			part.setContent(alternative);
+		} else if (hasHTML) {
+			setContent(part, textHTML, textHTMLSource, "html");
+		} else {
+			setContent(part, text != null ? text : "", textSource, "plain");
+		}
+	}
+
+	private static void setContent(final MimeBodyPart part, final String content, final BodySource source, final String subtype)
+			throws MessagingException {
+		if (source != null) {
+			part.setDataHandler(new DataHandler(new BodyDataSource(source, "text/" + subtype + "; charset=" + source.getCharset().name())));
+		} else {
+			part.setText(content, CHARACTER_ENCODING, subtype);
+		}
+	}
+
+	private static MimeBodyPart attachmentPart(final Attachment attachment) throws MessagingException {
+		final MimeBodyPart part = new MimeBodyPart();
+		part.setDataHandler(new DataHandler(new AttachmentDataSource(attachment)));
+		// the file name is encoded as in RFC 2231 when it isn't ASCII, in UTF-8 rather than in the platform charset MimeBodyPart uses
+		final ContentType contentType = new ContentType(attachment.getContentType());
+		if (contentType.getParameterList() == null) {
+			contentType.setParameterList(new ParameterList());
+		}
+		contentType.getParameterList().set("name", attachment.getName(), CHARACTER_ENCODING);
+		part.setHeader("Content-Type", contentType.toString());
+		final ParameterList dispositionParameters = new ParameterList();
+		dispositionParameters.set("filename", attachment.getName(), CHARACTER_ENCODING);
+		part.setHeader("Content-Disposition",
+				new ContentDisposition(attachment.isInline() ? Part.INLINE : Part.ATTACHMENT, dispositionParameters).toString());
+		if (attachment.isInline()) {
+			part.setContentID('<' + attachment.getContentId() + '>');
+		}
+		// set up front, else javax.mail reads all of the data to choose the transfer encoding
+		part.setHeader("Content-Transfer-Encoding", "base64");
+		return part;
+	}
+
+	private static int indexOf(final byte[] data, final byte[] pattern) {
+		outer:
+		for (int i = 0; i <= data.length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		throw new IllegalStateException("encoded body part has no header separator");
+	}
+
+	/**
+	 * @return The value of the Content-Type header, including the boundary for multipart bodies.
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return The value of the Content-Transfer-Encoding header, {@code null} for multipart bodies.
+	 */
+	public String getTransferEncoding() {
+		return transferEncoding;
+	}
+
+	/**
+	 * @return Whether the content is encoded from its {@link BodySource} or attachments every time it's written, rather than kept in
+	 * memory.
+	 */
+	public boolean isStreamed() {
+		return streamedPart != null;
+	}
+
+	/**
+	 * @return A read-only view on the encoded body. A {@link #isStreamed() streamed} body is encoded into a new buffer on every call.
+	 * @throws MailException When the content of a streamed body could not be read.
+	 */
+	public ByteBuffer getContent() {
+		if (content != null) {
+			return ByteBuffer.wrap(content).asReadOnlyBuffer();
+		}
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			writeContentTo(output);
+		} catch (final IOException | MessagingException e) {
+			throw new MailException("could not encode email body", e);
+		}
+		return ByteBuffer.wrap(output.toByteArray()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return The size of the encoded body in bytes, or -1 when {@link #isStreamed() streamed}, since that is only known once written.
+	 */
+	public int getSize() {
+		return content != null ? content.length : -1;
+	}
+
+	/**
+	 * @return The encoded body itself, which must not be modified, or {@code null} when {@link #isStreamed() streamed}.
+	 */
+	byte[] content() {
+		return content;
+	}
+
+	/**
+	 * Writes the encoded body, streaming it from its sources when {@link #isStreamed() streamed}.
+	 */
+	void writeContentTo(final OutputStream output) throws IOException, MessagingException {
+		if (content != null) {
+			output.write(content);
+			return;
+		}
+		writeContent(streamedPart, output);
+	}
+
+	/**
+	 * Writes the content of a part without its headers. Multiparts are written here rather than with MimeMultipart.writeTo, which is
+	 * synchronized, so that messages can be written concurrently; each of their parts is written with its headers, recursively.
+	 */
+	private static void writeContent(final MimeBodyPart part, final OutputStream output) throws IOException, MessagingException {
+		if (part.isMimeType("multipart/*")) {
+			final MimeMultipart multipart = (MimeMultipart) part.getContent();
+			final byte[] boundary = ("--" + new ContentType(part.getContentType()).getParameter("boundary"))
+					.getBytes(StandardCharsets.US_ASCII);
+			for (int i = 0; i < multipart.getCount(); i++) {
+				final MimeBodyPart child = (MimeBodyPart) multipart.getBodyPart(i);
+				output.write(boundary);
+				output.write(CRLF);
+				final Enumeration<?> headerLines = child.getAllHeaderLines();
+				while (headerLines.hasMoreElements()) {
+					output.write(((String) headerLines.nextElement()).getBytes(StandardCharsets.ISO_8859_1));
+					output.write(CRLF);
+				}
+				output.write(CRLF);
+				writeContent(child, output);
+				output.write(CRLF);
+			}
+			output.write(boundary);
+			output.write(new byte[] { '-', '-', '\r', '\n' });
+		} else {
+			final OutputStream encoded = MimeUtility.encode(output, part.getEncoding());
+			part.getDataHandler().writeTo(encoded);
+			encoded.flush();
+		}
+	}
+
+	/**
+	 * Presents a {@link BodySource} to javax.mail, which reads it once to choose the transfer encoding and again each time it's written.
+	 */
+	private static final class BodyDataSource implements DataSource {
+
+		private final BodySource source;
+		private final String contentType;
+
+		BodyDataSource(final BodySource source, final String contentType) {
+			this.source = source;
+			this.contentType = contentType;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return source.openStream();
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			throw new IOException("body source is read-only");
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public String getName() {
+			return null;
+		}
+	}
+
+	/**
+	 * Presents an {@link Attachment} to javax.mail, which opens a new stream over it each time it's written.
+	 */
+	private static final class AttachmentDataSource implements DataSource {
+
+		private final Attachment attachment;
+
+		AttachmentDataSource(final Attachment attachment) {
+			this.attachment = attachment;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return attachment.openStream();
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			throw new IOException("attachment is read-only");
+		}
+
+		@Override
+		public String getContentType() {
+			return attachment.getContentType();
+		}
+
+		@Override
+		public String getName() {
+			return attachment.getName();
+		}
+	}
+
+	/**
+	 * Exposes {@link MimeBodyPart#updateHeaders()}, which sets the Content-Type and Content-Transfer-Encoding headers.
+	 */
+	private static final class RenderablePart extends MimeBodyPart {
+
+		void prepare() throws MessagingException {
+			updateHeaders();
+		}
+	}
+}
\ No newline at end of file
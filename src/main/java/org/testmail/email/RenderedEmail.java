@@ -0,0 +1,98 @@
+package org.testmail.email;
+
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testmail.email.EmailUtils.checkNonEmptyArgument;
+
+/**
+ * An {@link Email} prepared for sending: the body is encoded once (see {@link RenderedBody}) and the headers that are the same for every
+ * message are encoded once as well, leaving only a small header block (recipients, date and Message-ID) to be produced per MIME message.
+ * <p>
+ * Use {@link #toMimeMessage(Session, Recipient)} to send the same content to many recipients individually, each getting a message that is
+ * addressed to them only. The rendering reflects the content and headers of the email at the time of rendering; its recipients are read
+ * when a message for all recipients is produced.
+ *
+ * @see Mailer#sendMail(RenderedEmail, Recipient)
+ */
+public final class RenderedEmail {
+
+	private final Email email;
+	private final RenderedBody body;
+	private final HeaderList headerBlock;
+
+	private RenderedEmail(final Email email, final RenderedBody body, final HeaderList headerBlock) {
+		this.email = email;
+		this.body = body;
+		this.headerBlock = headerBlock;
+	}
+
+	/**
+	 * Renders the email, reusing the body that was already rendered for it if any.
+	 *
+	 * @throws MailException When the email has no sender or could not be converted to MIME.
+	 */
+	public static RenderedEmail of(final Email email) {
+		checkSender(checkNonEmptyArgument(email, "email"));
+		try {
+			return new RenderedEmail(email, email.getRenderedBody(), MimeMessageHelper.encodeHeaderBlock(email));
+		} catch (final UnsupportedEncodingException e) {
+			throw new MailException("could not convert email to MIME message", e);
+		}
+	}
+
+	/**
+	 * @throws MailException When the email has no sender, which every message needs.
+	 */
+	static void checkSender(final Email email) {
+		if (email.getFromRecipient() == null) {
+			throw new MailException("email has no sender");
+		}
+	}
+
+	/**
+	 * @return A MIME message addressed to all recipients of the email.
+	 */
+	public MimeMessage toMimeMessage(final Session session) throws MessagingException {
+		return MimeMessageHelper.produceMimeMessage(this, session);
+	}
+
+	/**
+	 * @param recipient The only recipient of the message, which is addressed with the recipient type when available, else as
+	 *                  {@link RecipientType#TO}.
+	 * @return A MIME message with the same content and headers as {@link #toMimeMessage(Session)}, but addressed to a single recipient.
+	 */
+	public MimeMessage toMimeMessage(final Session session, final Recipient recipient) throws MessagingException {
+		checkNonEmptyArgument(recipient, "recipient");
+		final Recipient addressed = recipient.getType() != null
+				? recipient
+				: new Recipient(recipient.getName(), recipient.getAddress(), RecipientType.TO);
+		return MimeMessageHelper.produceMimeMessage(this, session, Collections.singletonList(addressed));
+	}
+
+	/**
+	 * @return The email this rendering was produced from.
+	 */
+	public Email getEmail() {
+		return email;
+	}
+
+	/**
+	 * @return The encoded body shared by all messages produced from this rendering.
+	 */
+	public RenderedBody getBody() {
+		return body;
+	}
+
+	/**
+	 * @return The encoded headers shared by all messages produced from this rendering, in the order they are set.
+	 */
+	HeaderList getHeaderBlock() {
+		return headerBlock;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package org.testmail.email;
+
+/**
+ * Notified when an email sent with {@link Mailer#sendAsync(Email, SendCallback)} has been accepted or rejected. Callbacks are invoked on the
+ * thread that performed the send, so they should not block.
+ */
+public interface SendCallback {
+
+	/**
+	 * @param result The result of the email that was accepted by the SMTP server.
+	 */
+	void onSuccess(SendResult result);
+
+	/**
+	 * @param email The email that could not be sent.
+	 * @param cause Usually a {@link MailException}, or the unexpected exception that ended the send.
+	 */
+	void onFailure(Email email, Throwable cause);
+}
\ No newline at end of file
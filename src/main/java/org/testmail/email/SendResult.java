@@ -0,0 +1,57 @@
+package org.testmail.email;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of an {@link Email} that was accepted by the SMTP server.
+ *
+ * @see Mailer#sendMail(Email)
+ * @see Mailer#sendAsync(Email)
+ */
+public final class SendResult {
+
+	private final Email email;
+	private final String messageId;
+	private final Map<Recipient, String> rejectedRecipients;
+
+	SendResult(final Email email, final String messageId) {
+		this(email, messageId, Collections.<Recipient, String>emptyMap());
+	}
+
+	SendResult(final Email email, final String messageId, final Map<Recipient, String> rejectedRecipients) {
+		this.email = email;
+		this.messageId = messageId;
+		this.rejectedRecipients = Collections.unmodifiableMap(rejectedRecipients);
+	}
+
+	/**
+	 * @return The email that was sent.
+	 */
+	public Email getEmail() {
+		return email;
+	}
+
+	/**
+	 * @return The Message-ID header of the sent MIME message, either {@link Email#getId()} or the one generated by javax.mail.
+	 */
+	public String getMessageId() {
+		return messageId;
+	}
+
+	/**
+	 * @return The recipients refused by the SMTP server, with the server reply for each. Only when {@code mail.smtp.sendpartial} is enabled
+	 * on the {@link Mailer#getSession() session} can an email be sent while some of its recipients were refused; otherwise this is empty.
+	 */
+	public Map<Recipient, String> getRejectedRecipients() {
+		return rejectedRecipients;
+	}
+
+	@Override
+	public String toString() {
+		return "SendResult{" +
+				"messageId='" + messageId + '\'' +
+				", rejectedRecipients=" + rejectedRecipients +
+				'}';
+	}
+}
\ No newline at end of file
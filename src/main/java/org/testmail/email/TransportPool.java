@@ -0,0 +1,193 @@
+package org.testmail.email;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounded pool of connected and authenticated {@link Transport} instances.
+ * <p>
+ * At most {@link #maxSize} transports are handed out at the same time; callers that exceed this wait for a transport to be returned. Idle
+ * transports are reused most-recently-used first, so the connections that are kept warm are the ones least likely to be dropped by the server.
+ * A transport that has been idle for longer than {@link #sessionTimeoutMillis} is closed instead of being reused.
+ */
+final class TransportPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TransportPool.class);
+
+	/**
+	 * Transports that have been idle for less than this are reused without a round-trip to the server to check the connection.
+	 */
+	private static final long VALIDATION_INTERVAL_MILLIS = 1000;
+
+	private final Session session;
+	private final String host;
+	private final int port;
+	private final String username;
+	private final String password;
+	private final int maxSize;
+	private final long sessionTimeoutMillis;
+
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<PooledTransport> idleTransports = new ConcurrentLinkedDeque<>();
+
+	private volatile boolean closed;
+
+	TransportPool(final Session session, final String host, final int port, final String username, final String password,
+			final int maxSize, final long sessionTimeoutMillis) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("pool size should be at least 1, was " + maxSize);
+		}
+		this.session = session;
+		this.host = host;
+		this.port = port;
+		this.username = username;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.sessionTimeoutMillis = sessionTimeoutMillis;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Takes an idle transport from the pool, or connects a new one when no valid idle transport is available. Blocks while {@link #maxSize}
+	 * transports are in use. Every borrowed transport should be handed back with {@link #release(PooledTransport, boolean)}.
+	 */
+	PooledTransport borrow() throws MessagingException {
+		if (closed) {
+			throw new IllegalStateException("transport pool has been closed");
+		}
+		try {
+			permits.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MailException("interrupted while waiting for an SMTP connection", e);
+		}
+		try {
+			final long now = System.currentTimeMillis();
+			PooledTransport pooled;
+			while ((pooled = idleTransports.pollFirst()) != null) {
+				if (pooled.isUsable(now)) {
+					return pooled;
+				}
+				pooled.close();
+			}
+			return connect();
+		} catch (MessagingException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Hands a borrowed transport back to the pool.
+	 *
+	 * @param pooled   The transport obtained from {@link #borrow()}.
+	 * @param reusable Whether the connection is in a clean state; transports that failed halfway a conversation are closed instead.
+	 */
+	void release(final PooledTransport pooled, final boolean reusable) {
+		try {
+			if (reusable && !closed) {
+				pooled.lastUsed = System.currentTimeMillis();
+				idleTransports.offerFirst(pooled);
+			} else {
+				pooled.close();
+			}
+		} finally {
+			permits.release();
+		}
+		evictExpired();
+		if (closed) {
+			closeIdleTransports();
+		}
+	}
+
+	/**
+	 * Closes all idle transports and refuses further borrowing. Transports that are still in use are closed when they are released.
+	 */
+	void close() {
+		closed = true;
+		closeIdleTransports();
+	}
+
+	int getMaxSize() {
+		return maxSize;
+	}
+
+	long getSessionTimeoutMillis() {
+		return sessionTimeoutMillis;
+	}
+
+	private PooledTransport connect() throws MessagingException {
+		final Transport transport = session.getTransport();
+		transport.connect(host, port, username, password);
+		LOGGER.debug("opened new SMTP connection to {}:{}", host, port);
+		return new PooledTransport(transport);
+	}
+
+	/**
+	 * Idle transports are kept most-recently-used first, so the expired ones are found at the end of the deque.
+	 */
+	private void evictExpired() {
+		final long now = System.currentTimeMillis();
+		final Iterator<PooledTransport> oldestFirst = idleTransports.descendingIterator();
+		while (oldestFirst.hasNext()) {
+			final PooledTransport pooled = oldestFirst.next();
+			if (!pooled.isExpired(now)) {
+				break;
+			}
+			if (idleTransports.removeLastOccurrence(pooled)) {
+				pooled.close();
+			}
+		}
+	}
+
+	private void closeIdleTransports() {
+		PooledTransport pooled;
+		while ((pooled = idleTransports.pollFirst()) != null) {
+			pooled.close();
+		}
+	}
+
+	final class PooledTransport {
+
+		private final Transport transport;
+		private long lastUsed;
+
+		private PooledTransport(final Transport transport) {
+			this.transport = transport;
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		Transport getTransport() {
+			return transport;
+		}
+
+		private boolean isExpired(final long now) {
+			return now - lastUsed >= sessionTimeoutMillis;
+		}
+
+		/**
+		 * For SMTP, {@link Transport#isConnected()} issues a NOOP, so it is only used when the transport has been idle for a while.
+		 */
+		private boolean isUsable(final long now) {
+			if (isExpired(now)) {
+				return false;
+			}
+			return now - lastUsed < VALIDATION_INTERVAL_MILLIS || transport.isConnected();
+		}
+
+		private void close() {
+			try {
+				transport.close();
+			} catch (final MessagingException e) {
+				LOGGER.debug("error closing SMTP connection, ignoring", e);
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+package org.testmail.email;
+
+import javax.mail.Provider;
+import java.util.Properties;
+
+/**
+ * Defines the way a {@link Mailer} connects to the SMTP server. Can be configured with {@link EmailUtils.Property#TRANSPORT_STRATEGY}, using
+ * the name of the constant (eg. {@code testmail.transportstrategy=SMTP_TLS}).
+ */
+public enum TransportStrategy {
+
+	/**
+	 * Plain SMTP without any encryption.
+	 */
+	SMTP_PLAIN("smtp", PipeliningSMTPTransport.class),
+
+	/**
+	 * SMTP upgraded to TLS with the STARTTLS command; the connection is refused if the server doesn't support it.
+	 */
+	SMTP_TLS("smtp", PipeliningSMTPTransport.class) {
+		@Override
+		void configure(final Properties properties) {
+			super.configure(properties);
+			properties.put("mail.smtp.starttls.enable", "true");
+			properties.put("mail.smtp.starttls.required", "true");
+		}
+	},
+
+	/**
+	 * SMTP over an SSL connection from the start.
+	 */
+	SMTP_SSL("smtps", PipeliningSMTPSSLTransport.class);
+
+	private final String protocol;
+
+	private final Class<? extends PipeliningSMTPTransport> transportClass;
+
+	TransportStrategy(final String protocol, final Class<? extends PipeliningSMTPTransport> transportClass) {
+		this.protocol = protocol;
+		this.transportClass = transportClass;
+	}
+
+	/**
+	 * @return The javax.mail protocol name used to look up the {@link javax.mail.Transport}.
+	 */
+	public String protocol() {
+		return protocol;
+	}
+
+	/**
+	 * @return The javax.mail provider of the transport for {@link #protocol()}, which pipelines the envelope when the server supports it.
+	 */
+	Provider transportProvider() {
+		return new Provider(Provider.Type.TRANSPORT, protocol, transportClass.getName(), "testmail", null);
+	}
+
+	/**
+	 * Adds the javax.mail session properties that are specific to this strategy.
+	 */
+	void configure(final Properties properties) {
+		properties.put("mail.transport.protocol", protocol);
+	}
+
+	/**
+	 * @return The strategy configured with {@link EmailUtils.Property#TRANSPORT_STRATEGY}, or {@link #SMTP_PLAIN} if none was configured.
+	 */
+	static TransportStrategy fromProperties() {
+		if (EmailUtils.hasProperty(EmailUtils.Property.TRANSPORT_STRATEGY)) {
+			return valueOf(EmailUtils.<String>getProperty(EmailUtils.Property.TRANSPORT_STRATEGY));
+		}
+		return SMTP_PLAIN;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,62 @@
+package org.testmail.email;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads (Java 21+) without raising the Java version this library is compiled for. The factory method is looked up
+ * reflectively, so on older JVMs virtual threads are simply reported as unsupported.
+ */
+final class VirtualThreads {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreads.class);
+
+	private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactoryMethod(Executors.class);
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @param executors The class declaring the factory method, {@link Executors} except in tests.
+	 * @return The factory method, or {@code null} if the class has none, as is the case before Java 21.
+	 */
+	static Method findFactoryMethod(final Class<?> executors) {
+		try {
+			return executors.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (final NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	static boolean isSupported() {
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * @return An executor that starts a new virtual thread for each task, or {@code null} if the running JVM has no virtual threads.
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		return newExecutor(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR);
+	}
+
+	/**
+	 * @param factory The static factory method found by {@link #findFactoryMethod(Class)}, or {@code null}.
+	 * @return The executor created by the factory method, or {@code null} if there is none or invoking it failed.
+	 */
+	static ExecutorService newExecutor(final Method factory) {
+		if (factory == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) factory.invoke(null);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			LOGGER.warn("could not create virtual thread executor", e);
+			return null;
+		}
+	}
+}
\ No newline at end of file
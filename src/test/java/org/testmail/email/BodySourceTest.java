@@ -0,0 +1,228 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Session;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class BodySourceTest {
+
+	private static final Session SESSION = Session.getInstance(new Properties());
+
+	@Test
+	public void compressedRoundTrips() throws Exception {
+		final String content = repeat("Grüße 😀 <p>compressible</p>\r\n", 200);
+		assertEquals(content, BodySource.compressed(content).read());
+		assertEquals(content, BodySource.compressIfSmaller(content).read());
+	}
+
+	@Test
+	public void compressedRejectsUnpairedSurrogates() {
+		for (final String content : new String[] { "bad\ud800name", "bad\udc00name", "end\ud83d", repeat("x", 10000) + "\udc00" }) {
+			try {
+				BodySource.compressed(content);
+				fail("expected an IllegalArgumentException for " + content);
+			} catch (final IllegalArgumentException e) {
+				assertEquals("content has unpaired surrogates, which UTF-8 can't encode", e.getMessage());
+			}
+			assertNull(BodySource.compressIfSmaller(repeat(content, 100)));
+		}
+	}
+
+	@Test
+	public void compressBodiesKeepsEmailEqual() {
+		final String text = repeat("text ", 1000);
+		final String textHTML = repeat("<p>html \ud800</p>", 1000);
+		final Email email = new Email(false);
+		email.setSubject("subject");
+		email.setText(text);
+		email.setTextHTML(textHTML);
+		final Email uncompressed = EmailBuilder.copyOf(email).build();
+		final int hashCode = email.hashCode();
+
+		email.compressBodies();
+
+		assertNotNull(email.getTextSource());
+		assertEquals(text, email.getText());
+		// left as string, since the unpaired surrogate would not read back the same
+		assertNull(email.getTextHTMLSource());
+		assertEquals(textHTML, email.getTextHTML());
+		assertEquals(uncompressed, email);
+		assertEquals(hashCode, email.hashCode());
+
+		email.setText("changed");
+		assertEquals(EmailBuilder.copyOf(email).build().hashCode(), email.hashCode());
+	}
+
+	@Test
+	public void builderCompressBodiesKeepsEmailEqual() {
+		final String text = repeat("text \udbff\udfff ", 1000);
+		final EmailBuilder builder = new EmailBuilder().subject("subject").text(text).textHTML("short");
+		final Email uncompressed = builder.build();
+
+		final Email compressed = builder.compressBodies().build();
+
+		assertNotNull(compressed.getTextSource());
+		assertNull(compressed.getTextHTMLSource());
+		assertEquals(text, compressed.getText());
+		assertEquals(uncompressed, compressed);
+		assertEquals(uncompressed.hashCode(), compressed.hashCode());
+	}
+
+	@Test
+	public void callsSupplierOnEveryRead() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		final BodySource source = BodySource.of(new Callable<CharSequence>() {
+			@Override
+			public CharSequence call() {
+				return new StringBuilder("body ").append(calls.incrementAndGet());
+			}
+		});
+		assertEquals("body 1", source.read());
+		assertEquals("body 2", source.read());
+		assertEquals("body 3", new String(RenderedBodyTest.readAll(source.openStream()), StandardCharsets.UTF_8));
+
+		final Email email = email();
+		email.setTextSource(source);
+		assertEquals("body 4", email.getText());
+		// every message written from one rendering reads the body again
+		final RenderedEmail rendered = RenderedEmail.of(email);
+		final int renderCalls = calls.get();
+		assertEquals("body " + (renderCalls + 1), parse(rendered.toMimeMessage(SESSION)).getContent());
+		assertEquals("body " + (renderCalls + 2), parse(rendered.toMimeMessage(SESSION)).getContent());
+	}
+
+	@Test
+	public void failsWhenSupplierReturnsNothing() throws Exception {
+		final BodySource source = BodySource.of(new Callable<CharSequence>() {
+			@Override
+			public CharSequence call() {
+				return null;
+			}
+		});
+		for (int i = 0; i < 2; i++) {
+			try {
+				if (i == 0) {
+					source.read();
+				} else {
+					source.openStream();
+				}
+				fail("expected an IOException");
+			} catch (final IOException e) {
+				assertEquals("supplier returned no body", e.getMessage());
+			}
+		}
+		final Email email = email();
+		email.setTextSource(source);
+		try {
+			email.getText();
+			fail("expected a MailException");
+		} catch (final MailException e) {
+			assertEquals("supplier returned no body", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void wrapsSupplierExceptions() throws Exception {
+		final IllegalStateException failure = new IllegalStateException("template missing");
+		try {
+			BodySource.of(new Callable<CharSequence>() {
+				@Override
+				public CharSequence call() {
+					throw failure;
+				}
+			}).read();
+			fail("expected an IOException");
+		} catch (final IOException e) {
+			assertEquals("could not supply body", e.getMessage());
+			assertSame(failure, e.getCause());
+		}
+		final IOException ioFailure = new IOException("disk gone");
+		try {
+			BodySource.of(new Callable<CharSequence>() {
+				@Override
+				public CharSequence call() throws IOException {
+					throw ioFailure;
+				}
+			}).read();
+			fail("expected an IOException");
+		} catch (final IOException e) {
+			assertSame(ioFailure, e);
+		}
+	}
+
+	@Test
+	public void declaresCharsetOfFile() throws Exception {
+		final Path file = Files.createTempFile("body", ".txt");
+		try {
+			Files.write(file, "Grüße aus Köln".getBytes(StandardCharsets.ISO_8859_1));
+			final BodySource source = BodySource.of(file, StandardCharsets.ISO_8859_1);
+			assertEquals("Grüße aus Köln", source.read());
+
+			final Email email = email();
+			email.setTextSource(source);
+			final MimeMessage parsed = parse(RenderedEmail.of(email).toMimeMessage(SESSION));
+			assertEquals("ISO-8859-1", new ContentType(parsed.getContentType()).getParameter("charset"));
+			assertEquals("Grüße aus Köln", parsed.getContent());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void leavesBufferPositionUntouched() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.wrap("skipped|Grüße|skipped".getBytes(StandardCharsets.UTF_16BE));
+		buffer.position("skipped|".length() * 2).limit("skipped|Grüße".length() * 2);
+		final BodySource source = BodySource.of(buffer, StandardCharsets.UTF_16BE);
+		assertEquals("Grüße", source.read());
+		assertEquals("Grüße", source.read());
+		assertEquals(16, buffer.position());
+		assertEquals(26, buffer.limit());
+
+		// moving the buffer afterwards doesn't change the source
+		buffer.position(0);
+		assertEquals("Grüße", source.read());
+		final Email email = email();
+		email.setTextSource(source);
+		assertEquals("Grüße", parse(RenderedEmail.of(email).toMimeMessage(SESSION)).getContent());
+		assertEquals(0, buffer.position());
+	}
+
+	private static Email email() {
+		final Email email = new Email(false);
+		email.setFromAddress(null, "from@example.com");
+		email.setSubject("subject");
+		return email;
+	}
+
+	private static MimeMessage parse(final MimeMessage message) throws Exception {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		message.writeTo(output);
+		return new MimeMessage(SESSION, new ByteArrayInputStream(output.toByteArray()));
+	}
+
+	static String repeat(final String s, final int count) {
+		final StringBuilder result = new StringBuilder(s.length() * count);
+		for (int i = 0; i < count; i++) {
+			result.append(s);
+		}
+		return result.toString();
+	}
+}
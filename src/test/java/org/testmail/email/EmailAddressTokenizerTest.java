@@ -0,0 +1,86 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class EmailAddressTokenizerTest {
+
+	@Test
+	public void splitsLikeRegex() {
+		final String[] lists = {
+				"a@domain.com",
+				"a@domain.com,b@domain.com",
+				"a@domain.com;b@domain.com",
+				"a@domain.com , b@domain.com ;  c@domain.com",
+				"Name <a@domain.com>, Other Name <b@domain.com>",
+				"Doe, John <john@domain.com>; Roe; Jane <jane@domain.com>",
+				"\"Doe, John\" <john@domain.com>, \"Roe; Jane\" <jane@domain.com>",
+				"\"a@b, quoted\" <c@domain.com>",
+				"\"Name; with@at\" <c@domain.com>; d@domain.com",
+				"a@domain.com,",
+				"a@domain.com; ",
+				"a@domain.com,,b@domain.com",
+				"a@domain.com, ,b@domain.com",
+				"a@domain.com;;",
+				",a@domain.com",
+				"no address, at all; here",
+				"  a@domain.com  ,  b@domain.com  ",
+				"a@domain.com\n, b@domain.com",
+				"a@domain\nb, c@domain.com",
+				"a@domain.com\r\n,\r\nb@domain.com",
+				"Name\t<a@domain.com>\t;\tb@domain.com",
+		};
+		for (final String list : lists) {
+			assertArrayEquals(list, splitWithRegex(list), EmailUtils.extractEmailAddresses(list));
+		}
+	}
+
+	@Test
+	public void dropsLineBreakAfterTrailingSeparator() {
+		assertArrayEquals(new String[] { "a@domain.com" }, EmailUtils.extractEmailAddresses("a@domain.com,\n"));
+		assertArrayEquals(new String[] { "a@domain.com", "b@domain.com" }, EmailUtils.extractEmailAddresses("a@domain.com; b@domain.com;\r\n"));
+	}
+
+	@Test
+	public void splitsRandomListsLikeRegex() {
+		final char[] alphabet = { 'a', 'b', '@', '.', ',', ';', ' ', '\t', '\n', '\r', '<', '>', '"', '\u0085', '\u2028' };
+		final Random random = new Random(42);
+		for (int n = 0; n < 100000; n++) {
+			final char[] chars = new char[1 + random.nextInt(16)];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = alphabet[random.nextInt(alphabet.length)];
+			}
+			final String list = new String(chars);
+			if (list.trim().isEmpty() || endsWithSeparatorAndLineBreak(list)) {
+				continue;
+			}
+			assertArrayEquals(escape(list), splitWithRegex(list), EmailUtils.extractEmailAddresses(list));
+		}
+	}
+
+	/**
+	 * The regular expression {@link EmailUtils#extractEmailAddresses(String)} used before it was replaced by {@link EmailAddressTokenizer}.
+	 */
+	private static String[] splitWithRegex(final String list) {
+		return list
+				.replaceAll("(@.*?>?)\\s*[,;]", "$1<|>")
+				.replaceAll("<\\|>$", "")
+				.split("\\s*<\\|>\\s*");
+	}
+
+	/**
+	 * Whether the list ends in the one case the tokenizer deliberately splits differently: a trailing separator after an address, followed by
+	 * a final line break, which the regular expression left attached to the last address.
+	 */
+	private static boolean endsWithSeparatorAndLineBreak(final String list) {
+		return list.replaceAll("(@.*?>?)\\s*[,;]", "$1<|>").matches("(?s).*<\\|>(\r\n|[\n\r\u0085\u2028\u2029])");
+	}
+
+	private static String escape(final String list) {
+		return Arrays.toString(list.toCharArray());
+	}
+}
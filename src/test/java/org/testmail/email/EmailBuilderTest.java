@@ -0,0 +1,162 @@
+package org.testmail.email;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EmailBuilderTest {
+
+	@After
+	public void clearProperties() {
+		EmailUtils.loadProperties(new Properties(), false);
+	}
+
+	@Test
+	public void copyOfLeavesOutId() {
+		final Email prototype = new EmailBuilder().id("<prototype@example.com>").from(null, "from@example.com").subject("subject")
+				.text("text").to(new Recipient(null, "to@example.com", null)).build();
+		final Email copy = EmailBuilder.copyOf(prototype).build();
+		assertNull(copy.getId());
+		assertEquals(prototype, copy);
+		assertEquals("<copy@example.com>", EmailBuilder.copyOf(prototype).id("<copy@example.com>").build().getId());
+	}
+
+	@Test
+	public void withRecipientsLeavesOutIdAndRecipients() {
+		final Email prototype = new EmailBuilder().id("<prototype@example.com>").from(null, "from@example.com").subject("subject")
+				.text("text").to(new Recipient(null, "to@example.com", null)).build();
+		final Recipient other = new Recipient(null, "other@example.com", RecipientType.TO);
+		final Email variant = prototype.withRecipients(other);
+		assertNull(variant.getId());
+		assertEquals(Collections.singletonList(other), variant.getRecipients());
+		assertEquals(prototype.getSubject(), variant.getSubject());
+		assertSame(prototype.getRenderedBody(), prototype.withRecipients(other).getRenderedBody());
+	}
+
+	@Test
+	public void builderChangesLeaveBuiltEmailUnchanged() {
+		for (final int count : new int[] { 1, RecipientList.COMPACT_THRESHOLD + 1 }) {
+			final EmailBuilder builder = new EmailBuilder().from(null, "from@example.com").subject("subject").text("text")
+					.addHeader("X-Tag", "a").addHeader("X-Tag", "b");
+			for (int i = 0; i < count; i++) {
+				builder.to(new Recipient(null, "to" + i + "@example.com", null));
+			}
+			final Email first = builder.build();
+			final State firstState = new State(first);
+
+			builder.cc("cc@example.com").to(new Recipient(null, "to0@example.com", RecipientType.BCC)).addHeader("X-Other", "c");
+			final Email second = builder.build();
+			final State secondState = new State(second);
+			builder.setHeader("X-Tag", "d").deduplicateRecipients();
+			firstState.assertUnchanged(first);
+			secondState.assertUnchanged(second);
+
+			builder.reset();
+			builder.to("after@example.com").addHeader("X-Tag", "e");
+			firstState.assertUnchanged(first);
+			secondState.assertUnchanged(second);
+			assertEquals(Arrays.asList("e"), builder.getHeaderValues("X-Tag"));
+			assertEquals(1, builder.getRecipients().size());
+		}
+	}
+
+	@Test
+	public void resetRestoresDefaults() {
+		final Properties properties = new Properties();
+		properties.setProperty(EmailUtils.Property.DEFAULT_FROM_ADDRESS.key(), "default@example.com");
+		properties.setProperty(EmailUtils.Property.DEFAULT_TO_ADDRESS.key(), "team@example.com");
+		properties.setProperty(EmailUtils.Property.DEFAULT_SUBJECT.key(), "default subject");
+		EmailUtils.loadProperties(properties, false);
+
+		final EmailBuilder builder = new EmailBuilder().id("<id@example.com>").from("Sender", "from@example.com")
+				.replyTo(null, "reply@example.com").subject("subject").textSource(BodySource.compressed("text")).textHTML("<p>html</p>")
+				.cc("cc@example.com").deduplicateRecipients().addHeader("X-Tag", "a").withReturnReceiptTo()
+				.addAttachment(Attachment.of("a.bin", "application/octet-stream", ByteBuffer.wrap(new byte[] { 1 })));
+		final Email built = builder.build();
+		final Email builtCopy = EmailBuilder.copyOf(built).id(built.getId()).build();
+		final State builtState = new State(built);
+
+		builder.reset();
+
+		final Email fresh = new EmailBuilder().build();
+		final Email afterReset = builder.build();
+		assertEquals(fresh, afterReset);
+		assertNull(afterReset.getId());
+		assertEquals(new Recipient(null, "default@example.com", null), afterReset.getFromRecipient());
+		assertNull(afterReset.getReplyToRecipient());
+		assertEquals("default subject", afterReset.getSubject());
+		assertNull(afterReset.getText());
+		assertNull(afterReset.getTextSource());
+		assertNull(afterReset.getTextHTML());
+		assertEquals(Collections.singletonList(new Recipient(null, "team@example.com", RecipientType.TO)), afterReset.getRecipients());
+		assertEquals(Collections.<String, String>emptyMap(), afterReset.getHeaders());
+		assertEquals(Collections.<Attachment>emptyList(), afterReset.getAttachments());
+		assertFalse(afterReset.isUseReturnReceiptTo());
+		assertNull(afterReset.getReturnReceiptTo());
+		// deduplication is off again
+		builder.to("team@example.com");
+		assertEquals(2, builder.getRecipients().size());
+
+		assertEquals(builtCopy, built);
+		assertEquals("<id@example.com>", built.getId());
+		assertEquals(1, built.getAttachments().size());
+		builtState.assertUnchanged(built);
+	}
+
+	@Test
+	public void copyOfAndPrototypeChangeIndependently() {
+		final Email prototype = new EmailBuilder().from(null, "from@example.com").subject("subject").text("text")
+				.to(new Recipient(null, "to@example.com", null)).addHeader("X-Tag", "a").build();
+		final State prototypeState = new State(prototype);
+
+		final EmailBuilder copy = EmailBuilder.copyOf(prototype).cc("cc@example.com").setHeader("X-Tag", "b");
+		prototypeState.assertUnchanged(prototype);
+
+		final State copyState = new State(copy.build());
+		prototype.addRecipients(null, RecipientType.BCC, "bcc@example.com");
+		prototype.addHeader("X-Tag", "c");
+		copyState.assertUnchanged(copy.build());
+		assertEquals(Arrays.asList("b"), copy.getHeaderValues("X-Tag"));
+		assertEquals(Arrays.asList("a", "c"), prototype.getHeaderValues("X-Tag"));
+	}
+
+	/**
+	 * The recipients and headers of an email, copied so that later changes to the email show.
+	 */
+	private static final class State {
+
+		private final List<Recipient> recipients;
+		private final Map<String, String> headers;
+		private final Map<String, List<String>> headerValues = new LinkedHashMap<>();
+
+		State(final Email email) {
+			recipients = new ArrayList<>(email.getRecipients());
+			headers = new LinkedHashMap<>(email.getHeaders());
+			for (final String name : headers.keySet()) {
+				headerValues.put(name, new ArrayList<>(email.getHeaderValues(name)));
+			}
+		}
+
+		void assertUnchanged(final Email email) {
+			assertEquals(recipients, email.getRecipients());
+			assertEquals(headers, email.getHeaders());
+			for (final Map.Entry<String, List<String>> entry : headerValues.entrySet()) {
+				assertEquals(entry.getValue(), email.getHeaderValues(entry.getKey()));
+			}
+		}
+	}
+}
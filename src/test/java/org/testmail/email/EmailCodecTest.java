@@ -0,0 +1,207 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EmailCodecTest {
+
+	private static final RecipientType[] TYPES = { RecipientType.TO, RecipientType.CC, RecipientType.BCC };
+
+	@Test
+	public void roundTripsRandomEmails() {
+		final Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			final Email email = randomEmail(random);
+			final ByteBuffer encoded = EmailCodec.encode(email);
+			assertEquals(EmailCodec.encodedSize(email), encoded.remaining());
+			final Email decoded = EmailCodec.decode(encoded);
+			assertFalse(encoded.hasRemaining());
+			assertEquals(email, decoded);
+			assertEquals(email.getId(), decoded.getId());
+			assertEquals(email.getText(), decoded.getText());
+			assertEquals(email.isUseReturnReceiptTo(), decoded.isUseReturnReceiptTo());
+			assertEquals(email.getAllHeaders(), decoded.getAllHeaders());
+		}
+	}
+
+	@Test
+	public void roundTripsLoneSurrogates() {
+		final Email email = new Email(false);
+		email.setSubject("bad\ud800name \udc00 😀 \ud83d");
+		assertEquals(email.getSubject(), EmailCodec.decode(EmailCodec.encode(email)).getSubject());
+	}
+
+	@Test
+	public void decodesConsecutiveEmails() {
+		final Random random = new Random(7);
+		final Email first = randomEmail(random);
+		final Email second = randomEmail(random);
+		final ByteBuffer buffer = ByteBuffer.allocate(EmailCodec.encodedSize(first) + EmailCodec.encodedSize(second));
+		EmailCodec.encode(first, buffer);
+		EmailCodec.encode(second, buffer);
+		buffer.flip();
+		assertEquals(first, EmailCodec.decode(buffer));
+		assertEquals(second, EmailCodec.decode(buffer));
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void readsEachBodySourceOnce() {
+		final AtomicInteger textReads = new AtomicInteger();
+		final AtomicInteger htmlReads = new AtomicInteger();
+		final Email email = new Email(false);
+		email.setSubject("subject");
+		email.setTextSource(BodySource.of(growingBody("text", textReads)));
+		email.setTextHTMLSource(BodySource.of(growingBody("<p>html</p>", htmlReads)));
+
+		final ByteBuffer encoded = EmailCodec.encode(email);
+		assertEquals(1, textReads.get());
+		assertEquals(1, htmlReads.get());
+		final Email decoded = EmailCodec.decode(encoded);
+		assertFalse(encoded.hasRemaining());
+		assertEquals("text", decoded.getText());
+		assertEquals("<p>html</p>", decoded.getTextHTML());
+	}
+
+	@Test
+	public void rejectsEmailsWithAttachments() {
+		final Email email = new Email(false);
+		email.addAttachment(Attachment.of("a.txt", "text/plain", ByteBuffer.wrap(new byte[] { 'a' })));
+		try {
+			EmailCodec.encode(email);
+			fail("attachments must not be dropped silently");
+		} catch (final IllegalArgumentException e) {
+			assertEquals("emails with attachments can't be encoded", e.getMessage());
+		}
+	}
+
+	@Test
+	public void rejectsUnsupportedVersion() {
+		assertInvalid(new byte[] { 2, 0, 0, 0 }, "unsupported email encoding version 2");
+	}
+
+	@Test
+	public void rejectsTruncatedEmails() {
+		final Email email = new Email(false);
+		email.setSubject("subject é");
+		email.addRecipients("Name", RecipientType.TO, "to@example.com");
+		final ByteBuffer encoded = EmailCodec.encode(email);
+		for (int length = 0; length < encoded.remaining(); length++) {
+			final byte[] truncated = Arrays.copyOf(encoded.array(), length);
+			try {
+				EmailCodec.decode(ByteBuffer.wrap(truncated));
+				fail("expected an error for " + length + " bytes");
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void rejectsInvalidUtf8() {
+		// version, subject only, then the subject: a two-byte sequence cut off by the length of the string
+		assertInvalid(new byte[] { 1, 1 << 5, 1, (byte) 0xC3, (byte) 0xA9, 0, 0 }, "truncated UTF-8 sequence in encoded email");
+		// four-byte sequence of which the last byte lies beyond the string
+		assertInvalid(new byte[] { 1, 1 << 5, 3, (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, 0, 0 },
+				"truncated UTF-8 sequence in encoded email");
+		// a continuation byte that isn't one
+		assertInvalid(new byte[] { 1, 1 << 5, 2, (byte) 0xC3, 'a', 0, 0 }, "invalid UTF-8 in encoded email");
+		// a stray continuation byte
+		assertInvalid(new byte[] { 1, 1 << 5, 1, (byte) 0xA9, 0, 0 }, "invalid UTF-8 in encoded email");
+		// a code point beyond U+10FFFF
+		assertInvalid(new byte[] { 1, 1 << 5, 4, (byte) 0xF7, (byte) 0xBF, (byte) 0xBF, (byte) 0xBF, 0, 0 }, "invalid UTF-8 in encoded email");
+	}
+
+	private static void assertInvalid(final byte[] encoded, final String message) {
+		try {
+			EmailCodec.decode(ByteBuffer.wrap(encoded));
+			fail("expected " + message);
+		} catch (final IllegalArgumentException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+
+	/**
+	 * @return A supplier that returns the body once more each time it is called.
+	 */
+	private static Callable<String> growingBody(final String body, final AtomicInteger reads) {
+		return new Callable<String>() {
+			@Override
+			public String call() {
+				final StringBuilder content = new StringBuilder();
+				for (int i = reads.incrementAndGet(); i > 0; i--) {
+					content.append(body);
+				}
+				return content.toString();
+			}
+		};
+	}
+
+	private static Email randomEmail(final Random random) {
+		final Email email = new Email(false);
+		if (random.nextBoolean()) {
+			email.setId("<" + random.nextInt() + "@example.com>");
+		}
+		if (random.nextBoolean()) {
+			email.setFromAddress(random.nextBoolean() ? randomString(random) : null, "from@example.com");
+		}
+		if (random.nextInt(4) == 0) {
+			email.setReplyToAddress(randomString(random), "reply@example.com");
+		}
+		if (random.nextBoolean()) {
+			email.setText(randomString(random));
+		}
+		if (random.nextBoolean()) {
+			email.setTextHTML(randomString(random));
+		}
+		if (random.nextBoolean()) {
+			email.setSubject(randomString(random));
+		}
+		if (random.nextInt(4) == 0) {
+			email.setReturnReceiptTo(new Recipient(null, "receipt@example.com", null));
+			email.setUseReturnReceiptTo(random.nextBoolean());
+		}
+		for (int i = random.nextInt(5); i > 0; i--) {
+			email.addRecipients(new Recipient(random.nextBoolean() ? randomString(random) : null, "r" + random.nextInt(100) + "@example.com",
+					TYPES[random.nextInt(TYPES.length)]));
+		}
+		for (int i = random.nextInt(4); i > 0; i--) {
+			email.addHeader("X-Header-" + random.nextInt(3), randomString(random));
+		}
+		return email;
+	}
+
+	/**
+	 * Mixes one-, two-, three- and four-byte characters, at least one.
+	 */
+	private static String randomString(final Random random) {
+		final StringBuilder s = new StringBuilder();
+		for (int i = 1 + random.nextInt(40); i > 0; i--) {
+			switch (random.nextInt(4)) {
+				case 0:
+					s.append((char) (' ' + random.nextInt(95)));
+					break;
+				case 1:
+					s.append((char) (0x80 + random.nextInt(0x780)));
+					break;
+				case 2:
+					s.append((char) (0x800 + random.nextInt(0xD000)));
+					break;
+				default:
+					s.appendCodePoint(0x10000 + random.nextInt(0x100000));
+			}
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,212 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class EmailFingerprintTest {
+
+	@Test
+	public void equalEmailsHaveSameFingerprint() {
+		final Email email = email();
+		final Email copy = EmailBuilder.copyOf(email).id("<other@example.com>").build();
+		assertEquals(email, copy);
+		assertEquals(email.getFingerprint(), copy.getFingerprint());
+		assertEquals(email.hashCode(), copy.hashCode());
+
+		copy.compressBodies();
+		copy.setTextHTMLSource(BodySource.compressed(copy.getTextHTML()));
+		assertEquals(email, copy);
+		assertEquals(email.getFingerprint(), copy.getFingerprint());
+	}
+
+	@Test
+	public void ignoresOrderOfRecipientsAndHeaders() {
+		final Email email = new Email(false);
+		email.addRecipients(new Recipient("A", "a@example.com", RecipientType.TO), new Recipient(null, "b@example.com", RecipientType.CC));
+		email.addRecipients(new Recipient(null, "c@example.com", RecipientType.BCC));
+		email.addHeader("X-One", "1");
+		email.addHeader("X-Two", "2");
+		final Email reordered = new Email(false);
+		reordered.addRecipients(new Recipient(null, "c@example.com", RecipientType.BCC));
+		reordered.addRecipients(new Recipient(null, "b@example.com", RecipientType.CC), new Recipient("A", "a@example.com", RecipientType.TO));
+		reordered.addHeader("x-two", "2");
+		reordered.addHeader("X-ONE", "1");
+
+		assertEquals(email, reordered);
+		assertEquals(email.getFingerprint(), reordered.getFingerprint());
+		assertEquals(email.hashCode(), reordered.hashCode());
+	}
+
+	@Test
+	public void differsWhenContentDiffers() {
+		final Email email = new Email(false);
+		email.setSubject("ab");
+		email.setText("c");
+		final Email shifted = new Email(false);
+		shifted.setSubject("a");
+		shifted.setText("bc");
+		assertFalse(email.getFingerprint().equals(shifted.getFingerprint()));
+
+		final Email swapped = new Email(false);
+		swapped.setSubject("ab");
+		swapped.setTextHTML("c");
+		assertFalse(email.getFingerprint().equals(swapped.getFingerprint()));
+	}
+
+	@Test
+	public void everyMutatorDiscardsFingerprint() throws Exception {
+		for (final Map.Entry<String, Mutation> mutation : mutations().entrySet()) {
+			final Email email = email();
+			final EmailFingerprint before = email.getFingerprint();
+			mutation.getValue().apply(email);
+			assertEquals(mutation.getKey(), EmailFingerprint.of(email), email.getFingerprint());
+			assertFalse(mutation.getKey(), before.equals(email.getFingerprint()));
+		}
+	}
+
+	@Test
+	public void idIsNotPartOfFingerprint() {
+		final Email email = email();
+		final EmailFingerprint before = email.getFingerprint();
+		email.setId("<changed@example.com>");
+		assertEquals(before, email.getFingerprint());
+		assertEquals(before, EmailFingerprint.of(email));
+	}
+
+	private static Email email() {
+		final Email email = new Email(false);
+		email.setId("<id@example.com>");
+		email.setFromAddress("From", "from@example.com");
+		email.setReplyToAddress("Reply", "reply@example.com");
+		email.setSubject("subject");
+		email.setText("text");
+		email.setTextHTML("<p>html</p>");
+		email.addRecipients(new Recipient("To", "to@example.com", RecipientType.TO), new Recipient(null, "cc@example.com", RecipientType.CC));
+		email.addHeader("X-Tag", "a");
+		return email;
+	}
+
+	/**
+	 * Each public method that changes the content, changing it to something else than {@link #email()} has.
+	 */
+	private static Map<String, Mutation> mutations() {
+		final Map<String, Mutation> mutations = new LinkedHashMap<>();
+		mutations.put("setFromAddress(String, String)", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setFromAddress("Other", "from@example.com");
+			}
+		});
+		mutations.put("setFromAddress(Recipient)", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setFromAddress(new Recipient("From", "other@example.com", null));
+			}
+		});
+		mutations.put("setReplyToAddress(String, String)", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setReplyToAddress(null, "reply@example.com");
+			}
+		});
+		mutations.put("setReplyToAddress(Recipient)", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setReplyToAddress(new Recipient("Reply", "other@example.com", null));
+			}
+		});
+		mutations.put("setSubject", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setSubject("other");
+			}
+		});
+		mutations.put("setUseReturnReceiptTo", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setUseReturnReceiptTo(true);
+			}
+		});
+		mutations.put("setReturnReceiptTo", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setReturnReceiptTo(new Recipient(null, "receipt@example.com", null));
+			}
+		});
+		mutations.put("setText", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setText("other");
+			}
+		});
+		mutations.put("setTextSource", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setTextSource(BodySource.compressed("other"));
+			}
+		});
+		mutations.put("setTextHTML", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setTextHTML(null);
+			}
+		});
+		mutations.put("setTextHTMLSource", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setTextHTMLSource(BodySource.compressed("<p>other</p>"));
+			}
+		});
+		mutations.put("addAttachment", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.addAttachment(Attachment.of("a.bin", "application/octet-stream", ByteBuffer.wrap(new byte[] { 1 })));
+			}
+		});
+		mutations.put("addRecipients(String, RecipientType, String...)", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.addRecipients(null, RecipientType.BCC, "bcc@example.com");
+			}
+		});
+		mutations.put("addRecipients(Recipient...)", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.addRecipients(new Recipient(null, "bcc@example.com", RecipientType.BCC));
+			}
+		});
+		mutations.put("deduplicateRecipients", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.addRecipients(new Recipient(null, "cc@example.com", RecipientType.TO));
+				email.getFingerprint();
+				email.deduplicateRecipients();
+			}
+		});
+		mutations.put("addHeader", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.addHeader("x-tag", "b");
+			}
+		});
+		mutations.put("setHeader", new Mutation() {
+			@Override
+			public void apply(final Email email) {
+				email.setHeader("X-TAG", "b");
+			}
+		});
+		return mutations;
+	}
+
+	private interface Mutation {
+
+		void apply(Email email) throws Exception;
+	}
+}
@@ -0,0 +1,157 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EmailJsonReaderTest {
+
+	@Test
+	public void roundTripsEmail() throws IOException {
+		final Email email = new Email(false);
+		email.setId("<id@example.com>");
+		email.setFromAddress("From \"Quoted\" \u00e9", "from@example.com");
+		email.setReplyToAddress(new Recipient(null, "reply@example.com", null));
+		email.setSubject("sub\\ject\n\t\u0001 \u2028 \ud83d\ude00");
+		email.setText("text");
+		email.setTextHTML("<b>html</b>");
+		email.addRecipients("To", RecipientType.TO, "to@example.com");
+		email.addRecipients(null, RecipientType.CC, "cc@example.com");
+		email.addRecipients("Bcc", RecipientType.BCC, "bcc@example.com");
+		email.addHeader("X-Priority", "2");
+		email.addHeader("Received", "r1");
+		email.addHeader("Received", "r2");
+		email.setReturnReceiptTo(new Recipient(null, "receipt@example.com", null));
+		email.setUseReturnReceiptTo(false);
+
+		final Email read = read(write(email));
+		assertEquals(email, read);
+		assertEquals(email.getId(), read.getId());
+		assertEquals(Arrays.asList("r1", "r2"), read.getHeaderValues("received"));
+		assertFalse(read.isUseReturnReceiptTo());
+	}
+
+	@Test
+	public void roundTripsArrayOfEmails() throws IOException {
+		final StringWriter json = new StringWriter();
+		try (EmailJsonWriter writer = new EmailJsonWriter(json)) {
+			writer.beginArray();
+			for (int i = 0; i < 3; i++) {
+				writer.write(email(i));
+			}
+			writer.endArray();
+		}
+		try (EmailJsonReader reader = new EmailJsonReader(new StringReader(json.toString()))) {
+			reader.beginArray();
+			for (int i = 0; i < 3; i++) {
+				assertTrue(reader.hasNext());
+				assertEquals(email(i), reader.readEmail());
+			}
+			assertFalse(reader.hasNext());
+			reader.endArray();
+		}
+	}
+
+	@Test
+	public void rejectsEmailsWithAttachments() throws IOException {
+		final Email email = new Email(false);
+		email.addAttachment(Attachment.of("a.txt", "text/plain", ByteBuffer.wrap(new byte[] { 'a' })));
+		final StringWriter json = new StringWriter();
+		try (EmailJsonWriter writer = new EmailJsonWriter(json)) {
+			writer.write(email);
+			fail("attachments must not be dropped silently");
+		} catch (final IllegalArgumentException e) {
+			assertEquals("emails with attachments can't be written as JSON", e.getMessage());
+		}
+		assertEquals("", json.toString());
+	}
+
+	@Test
+	public void skipsUnknownFields() throws IOException {
+		final Email read = read("{\"unknown\":[1,{\"a\":[true,null,-1.5e3]}],\"subject\":\"s\",\"other\":{}}");
+		assertEquals("s", read.getSubject());
+	}
+
+	@Test
+	public void rejectsTruncatedInput() throws IOException {
+		for (final String json : new String[] {
+				"", "{", "{\"unknown\":[", "{\"unknown\":[1,", "{\"unknown\":{", "{\"unknown\":{\"a\"", "{\"unknown\":{\"a\":1,",
+				"{\"subject\"", "{\"subject\":", "{\"subject\":\"s", "{\"subject\":\"s\"", "{\"subject\":\"s\",",
+				"{\"recipients\":[{\"address\":\"a@b.c\"}" }) {
+			assertMalformed(json, "unexpected end of input|unterminated string");
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedArray() throws IOException {
+		for (final String json : new String[] { "[", "[{}", "[{},", " [ \n" }) {
+			try (EmailJsonReader reader = new EmailJsonReader(new StringReader(json))) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					reader.readEmail();
+				}
+				fail("expected an error for " + json);
+			} catch (final IllegalArgumentException e) {
+				assertTrue(json + ": " + e.getMessage(), e.getMessage().endsWith("unexpected end of input"));
+			}
+		}
+	}
+
+	@Test
+	public void rejectsMalformedInput() throws IOException {
+		assertMalformed("{\"subject\" \"s\"}", "expected ':'");
+		assertMalformed("{\"subject\":\"s\" \"text\":\"t\"}", "expected ',' or '}'");
+		assertMalformed("{\"unknown\":[1 2]}", "expected ',' or ']'");
+		assertMalformed("{subject:\"s\"}", "expected name");
+		assertMalformed("{\"subject\":nope}", "unexpected value 'nope'");
+		assertMalformed("{\"subject\":\"\\x\"}", "invalid escape sequence");
+		assertMalformed("{\"subject\":\"\\u12g4\"}", "invalid unicode escape");
+		assertMalformed("{\"subject\":\"a\nb\"}", "unescaped control character in string");
+		assertMalformed("[]", "expected BEGIN_OBJECT but was BEGIN_ARRAY");
+		assertMalformed("{\"recipients\":[{\"address\":\"a@b.c\",\"type\":\"foo\"}]}", "unknown recipient type foo");
+	}
+
+	private static void assertMalformed(final String json, final String messagePattern) throws IOException {
+		try {
+			read(json);
+			fail("expected an error for " + json);
+		} catch (final IllegalArgumentException e) {
+			assertTrue(json + ": " + e.getMessage(), e.getMessage().matches("(malformed JSON at offset \\d+: )?(" + messagePattern + ")"));
+		}
+	}
+
+	private static Email email(final int i) {
+		final Email email = new Email(false);
+		email.setFromAddress(null, "from" + i + "@example.com");
+		email.setSubject("subject " + i);
+		email.setText("text " + i);
+		for (int j = 0; j < i; j++) {
+			email.addRecipients(null, RecipientType.TO, "to" + j + "@example.com");
+		}
+		return email;
+	}
+
+	private static String write(final Email email) throws IOException {
+		final StringWriter json = new StringWriter();
+		try (EmailJsonWriter writer = new EmailJsonWriter(json)) {
+			writer.write(email);
+		}
+		return json.toString();
+	}
+
+	private static Email read(final String json) throws IOException {
+		try (EmailJsonReader reader = new EmailJsonReader(new StringReader(json))) {
+			return reader.readEmail();
+		}
+	}
+}
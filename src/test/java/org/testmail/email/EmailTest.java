@@ -0,0 +1,127 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class EmailTest {
+
+	@Test
+	public void appendsBodiesUpToLimit() throws Exception {
+		assertEquals("'abcde'", text("abcde", 5));
+		assertEquals("'abcd'... (5 characters)", text("abcde", 4));
+		assertEquals("''... (5 characters)", text("abcde", 0));
+		assertEquals("''", text("", 0));
+		assertEquals("'null'", text(null, 0));
+	}
+
+	@Test
+	public void appendsBodySourcesUpToLimit() throws Exception {
+		assertEquals("'abcde'", textSource("abcde", 5));
+		assertEquals("'abcd'... (truncated)", textSource("abcde", 4));
+		assertEquals("''... (truncated)", textSource("abcde", 0));
+		assertEquals("''", textSource("", 0));
+		// beyond the size of the read buffer
+		final String large = BodySourceTest.repeat("0123456789", 1000);
+		assertEquals("'" + large + "'", textSource(large, 10000));
+		assertEquals("'" + large.substring(0, 9999) + "'... (truncated)", textSource(large, 9999));
+		assertEquals("'" + large.substring(0, 8193) + "'... (truncated)", textSource(large, 8193));
+	}
+
+	@Test
+	public void appendsRecipientsUpToLimit() throws Exception {
+		final Recipient a = new Recipient(null, "a@example.com", RecipientType.TO);
+		final Recipient b = new Recipient("B", "b@example.com", RecipientType.CC);
+		final Email email = new Email(false);
+		email.addRecipients(a, b);
+		assertEquals("[" + a + ", " + b + "]", recipients(email, 2));
+		assertEquals("[" + a + ", ... 1 more]", recipients(email, 1));
+		assertEquals("[... 2 more]", recipients(email, 0));
+		assertEquals("[]", recipients(new Email(false), 0));
+	}
+
+	@Test
+	public void appendsWholeEmail() throws Exception {
+		final Email email = new Email(false);
+		email.setId("<id@example.com>");
+		email.setFromAddress("From", "from@example.com");
+		email.setSubject("subject");
+		email.setText("text");
+		email.setTextHTMLSource(BodySource.compressed("<p>html</p>"));
+		email.addRecipients(null, RecipientType.TO, "a@example.com, b@example.com");
+		email.addHeader("X-Tag", "a");
+		email.setReturnReceiptTo(new Recipient(null, "receipt@example.com", null));
+
+		final String expected = "Email{\n"
+				+ "\tid=<id@example.com>\n"
+				+ "\tfromRecipient=Recipient{name='From', address='from@example.com', type=null},\n"
+				+ "\treplyToRecipient=null,\n"
+				+ "\ttext='text',\n"
+				+ "\ttextHTML='<p>html</p>',\n"
+				+ "\tsubject='subject',\n"
+				+ "\trecipients=[Recipient{name='null', address='a@example.com', type=To}, "
+				+ "Recipient{name='null', address='b@example.com', type=To}],\n"
+				+ "\tuseReturnReceiptTo=true,\n"
+				+ "\t\treturnReceiptTo=Recipient{name='null', address='receipt@example.com', type=null},\n"
+				+ "\theaders={X-Tag=a}\n"
+				+ "}";
+		assertEquals(expected, email.toString());
+		assertEquals(expected, email.appendTo(new StringBuilder(), LimitOptions.UNLIMITED).toString());
+		assertEquals(expected.replace("'text'", "'te'... (4 characters)").replace("'<p>html</p>'", "'<p'... (truncated)")
+				.replace(", Recipient{name='null', address='b@example.com', type=To}", ", ... 1 more"),
+				email.appendTo(new StringBuilder(), new LimitOptions(2, 1)).toString());
+	}
+
+	@Test
+	public void rejectsNegativeLimits() {
+		try {
+			new LimitOptions(-1, 0);
+			fail("expected an IllegalArgumentException");
+		} catch (final IllegalArgumentException e) {
+			assertEquals("maxBodyLength must not be negative: -1", e.getMessage());
+		}
+		try {
+			new LimitOptions(0, -1);
+			fail("expected an IllegalArgumentException");
+		} catch (final IllegalArgumentException e) {
+			assertEquals("maxRecipients must not be negative: -1", e.getMessage());
+		}
+	}
+
+	private static String text(final String text, final int maxBodyLength) throws Exception {
+		final Email email = new Email(false);
+		email.setText(text);
+		return field(email, "text", new LimitOptions(maxBodyLength, 0));
+	}
+
+	private static String textSource(final String text, final int maxBodyLength) throws Exception {
+		final Email email = new Email(false);
+		email.setTextSource(BodySource.of(new Callable<String>() {
+			@Override
+			public String call() {
+				return text;
+			}
+		}));
+		return field(email, "text", new LimitOptions(maxBodyLength, 0));
+	}
+
+	private static String recipients(final Email email, final int maxRecipients) throws Exception {
+		return field(email, "recipients", new LimitOptions(0, maxRecipients));
+	}
+
+	/**
+	 * @return What is written for the field, without its name and the separator that follows it.
+	 */
+	private static String field(final Email email, final String name, final LimitOptions limits) throws Exception {
+		final String written = email.appendTo(new StringBuilder(), limits).toString();
+		final String prefix = "\n\t" + name + "=";
+		final int start = written.indexOf(prefix) + prefix.length();
+		final int end = written.indexOf('\n', start);
+		final String field = written.substring(start, end);
+		return field.endsWith(",") ? field.substring(0, field.length() - 1) : field;
+	}
+}
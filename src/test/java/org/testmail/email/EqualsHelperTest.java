@@ -0,0 +1,95 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EqualsHelperTest {
+
+	private static final Recipient A = new Recipient("A", "a@example.com", RecipientType.TO);
+	private static final Recipient B = new Recipient(null, "b@example.com", RecipientType.TO);
+	private static final Recipient B_CC = new Recipient(null, "b@example.com", RecipientType.CC);
+	private static final Recipient X = new Recipient("X", "x@example.com", RecipientType.BCC);
+
+	@Test
+	public void comparesRecipientsAsMultisets() {
+		assertUnequal(Arrays.asList(A, A, B), Arrays.asList(A, B, B));
+		assertUnequal(Arrays.asList(X, A, A, B), Arrays.asList(X, A, B, B));
+		assertUnequal(Arrays.asList(A, B), Arrays.asList(A, B_CC));
+		assertUnequal(Arrays.asList(A, B), Arrays.asList(A, B, B));
+	}
+
+	@Test
+	public void ignoresRecipientOrder() {
+		assertEqual(Arrays.asList(A, B, X), Arrays.asList(X, B, A));
+		assertEqual(Arrays.asList(A, A, B), Arrays.asList(A, B, A));
+		assertEqual(Arrays.asList(X, A, B, B_CC), Arrays.asList(X, B_CC, B, A));
+	}
+
+	@Test
+	public void comparesListsInSameOrderPairwise() {
+		final List<Recipient> recipients = Arrays.asList(A, B, B_CC, X);
+		final List<Recipient> copy = Arrays.asList(new Recipient("A", "a@example.com", RecipientType.TO), B, B_CC, X);
+		assertTrue(EqualsHelper.isEqualRecipientList(new WithoutSubList(recipients), new WithoutSubList(copy)));
+		assertFalse(EqualsHelper.isEqualRecipientList(new WithoutSubList(recipients), Arrays.asList(A, B, B_CC)));
+	}
+
+	@Test
+	public void comparesEmailsAsMultisets() {
+		final Email email = new Email(false);
+		email.addRecipients(A, A, B);
+		final Email other = new Email(false);
+		other.addRecipients(A, B, B);
+		assertFalse(email.equals(other));
+		assertFalse(other.equals(email));
+
+		final Email reordered = new Email(false);
+		reordered.addRecipients(B, A, A);
+		assertEquals(email, reordered);
+		assertEquals(email.hashCode(), reordered.hashCode());
+	}
+
+	private static void assertEqual(final List<Recipient> recipients, final List<Recipient> otherRecipients) {
+		assertTrue(EqualsHelper.isEqualRecipientList(recipients, otherRecipients));
+		assertTrue(EqualsHelper.isEqualRecipientList(otherRecipients, recipients));
+	}
+
+	private static void assertUnequal(final List<Recipient> recipients, final List<Recipient> otherRecipients) {
+		assertFalse(EqualsHelper.isEqualRecipientList(recipients, otherRecipients));
+		assertFalse(EqualsHelper.isEqualRecipientList(otherRecipients, recipients));
+	}
+
+	/**
+	 * Fails when the part after the common prefix would be counted, which only happens when the lists differ in order.
+	 */
+	private static final class WithoutSubList extends AbstractList<Recipient> {
+
+		private final List<Recipient> recipients;
+
+		WithoutSubList(final List<Recipient> recipients) {
+			this.recipients = recipients;
+		}
+
+		@Override
+		public Recipient get(final int index) {
+			return recipients.get(index);
+		}
+
+		@Override
+		public int size() {
+			return recipients.size();
+		}
+
+		@Override
+		public List<Recipient> subList(final int fromIndex, final int toIndex) {
+			throw new AssertionError("lists in the same order should be compared pairwise");
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package org.testmail.email;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves SMTP connections and records the commands it receives in batches: the replies to a batch are held back until the client stops
+ * writing, so commands the client pipelines end up in one batch and commands it sends one at a time each in their own.
+ */
+final class FakeSMTPServer {
+
+	private static final int QUIET_MILLIS = 200;
+
+	private final ServerSocket serverSocket = new ServerSocket(0);
+	private final List<List<String>> batches = new ArrayList<>();
+	private final List<Socket> connections = new ArrayList<>();
+	private final List<Thread> threads = new ArrayList<>();
+	final Map<String, String> rcptReplies = new ConcurrentHashMap<>();
+	volatile String mailReply = "250 ok";
+	private volatile Exception failure;
+
+	FakeSMTPServer() throws IOException {
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	void start(final String... extensions) {
+		startThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						accept(serverSocket.accept(), extensions);
+					}
+				} catch (final IOException e) {
+					if (!serverSocket.isClosed()) {
+						failure = e;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The number of connections accepted so far.
+	 */
+	synchronized int getConnectionCount() {
+		return connections.size();
+	}
+
+	/**
+	 * @return The number of commands received so far that start with the given prefix.
+	 */
+	synchronized int countCommands(final String prefix) {
+		int count = 0;
+		for (final List<String> batch : batches) {
+			for (final String command : batch) {
+				if (command.startsWith(prefix)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return The batch whose first command starts with the given prefix, or {@code null} when there is none.
+	 */
+	synchronized List<String> batchStartingWith(final String prefix) {
+		for (final List<String> batch : batches) {
+			if (!batch.isEmpty() && batch.get(0).startsWith(prefix)) {
+				return batch;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Closes the open connections without saying goodbye, like a server that drops idle clients.
+	 */
+	synchronized void dropConnections() throws IOException {
+		for (final Socket connection : connections) {
+			connection.close();
+		}
+	}
+
+	void close() throws IOException, InterruptedException {
+		serverSocket.close();
+		dropConnections();
+		final List<Thread> started;
+		synchronized (this) {
+			started = new ArrayList<>(threads);
+		}
+		for (final Thread thread : started) {
+			thread.join(10000);
+		}
+		if (failure != null) {
+			throw new AssertionError(failure);
+		}
+	}
+
+	private synchronized void accept(final Socket socket, final String[] extensions) {
+		connections.add(socket);
+		startThread(new Runnable() {
+			@Override
+			public void run() {
+				try (Socket connection = socket) {
+					serve(connection, extensions);
+				} catch (final IOException e) {
+					if (!socket.isClosed()) {
+						failure = e;
+					}
+				}
+			}
+		});
+	}
+
+	private synchronized void startThread(final Runnable runnable) {
+		final Thread thread = new Thread(runnable);
+		threads.add(thread);
+		thread.start();
+	}
+
+	private void serve(final Socket socket, final String[] extensions) throws IOException {
+		socket.setSoTimeout(QUIET_MILLIS);
+		final InputStream in = socket.getInputStream();
+		final OutputStream out = socket.getOutputStream();
+		write(out, "220 localhost ESMTP\r\n");
+
+		final StringBuilder line = new StringBuilder();
+		final StringBuilder replies = new StringBuilder();
+		List<String> batch = new ArrayList<>();
+		boolean inData = false;
+		while (true) {
+			final int b;
+			try {
+				b = in.read();
+			} catch (final SocketTimeoutException e) {
+				if (replies.length() > 0) {
+					endBatch(batch);
+					batch = new ArrayList<>();
+					write(out, replies.toString());
+					replies.setLength(0);
+				}
+				continue;
+			}
+			if (b == -1) {
+				return;
+			}
+			if (b != '\n') {
+				if (b != '\r') {
+					line.append((char) b);
+				}
+				continue;
+			}
+			final String command = line.toString();
+			line.setLength(0);
+			if (inData) {
+				if (command.equals(".")) {
+					inData = false;
+					batch.add(command);
+					replies.append("250 queued\r\n");
+				}
+				continue;
+			}
+			batch.add(command);
+			if (command.startsWith("EHLO")) {
+				replies.append("250-localhost");
+				for (final String extension : extensions) {
+					replies.append("\r\n250-").append(extension);
+				}
+				replies.append("\r\n250 HELP\r\n");
+			} else if (command.startsWith("MAIL FROM:")) {
+				replies.append(mailReply).append("\r\n");
+			} else if (command.startsWith("RCPT TO:")) {
+				final String address = command.substring("RCPT TO:<".length(), command.indexOf('>'));
+				final String reply = rcptReplies.get(address);
+				replies.append(reply != null ? reply : "250 ok").append("\r\n");
+			} else if (command.equals("DATA")) {
+				inData = true;
+				replies.append("354 go ahead\r\n");
+			} else if (command.equals("QUIT")) {
+				endBatch(batch);
+				write(out, replies + "221 bye\r\n");
+				return;
+			} else {
+				replies.append("250 ok\r\n");
+			}
+		}
+	}
+
+	private synchronized void endBatch(final List<String> batch) {
+		batches.add(batch);
+	}
+
+	private static void write(final OutputStream out, final String replies) throws IOException {
+		out.write(replies.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+}
@@ -0,0 +1,161 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HeaderListTest {
+
+	@Test
+	public void looksUpNamesIgnoringCase() {
+		final HeaderList headers = new HeaderList();
+		headers.add("X-Tag", "a");
+		headers.add("Comments", "c");
+		headers.add("x-tag", "b");
+		headers.add("ÄÖ-Header", "d");
+
+		assertEquals("a", headers.get("X-TAG"));
+		assertEquals(Arrays.asList("a", "b"), headers.getAll("x-Tag"));
+		assertEquals(Collections.singletonList("d"), headers.getAll("äö-header"));
+		assertEquals(Collections.emptyList(), headers.getAll("X-Other"));
+		assertNull(headers.get("X-Other"));
+	}
+
+	@Test
+	public void setReplacesAllValuesAtPositionOfFirst() {
+		final HeaderList headers = new HeaderList();
+		headers.add("X-Tag", "a");
+		headers.add("Comments", "c");
+		headers.add("x-tag", "b");
+		headers.add("Keywords", "k");
+		headers.set("X-TAG", "d");
+
+		assertEquals(3, headers.size());
+		assertEquals("X-Tag", headers.name(0));
+		assertEquals("d", headers.value(0));
+		assertEquals("Comments", headers.name(1));
+		assertEquals("Keywords", headers.name(2));
+		assertEquals(Collections.singletonList("d"), headers.getAll("x-tag"));
+
+		headers.set("X-New", "n");
+		assertEquals("X-New", headers.name(3));
+	}
+
+	@Test
+	public void tellsFirstWithName() {
+		final HeaderList headers = new HeaderList();
+		headers.add("Received", "1");
+		headers.add("X-Tag", "a");
+		headers.add("received", "2");
+		headers.add("RECEIVED", "3");
+
+		assertTrue(headers.isFirstWithName(0));
+		assertTrue(headers.isFirstWithName(1));
+		assertFalse(headers.isFirstWithName(2));
+		assertFalse(headers.isFirstWithName(3));
+	}
+
+	@Test
+	public void snapshotIsCopiedOnWrite() {
+		final HeaderList headers = new HeaderList();
+		for (int i = 0; i < 3; i++) {
+			headers.add("X-" + i, "v" + i);
+		}
+		final HeaderList snapshot = headers.snapshot();
+		headers.add("X-3", "v3");
+		headers.set("X-0", "changed");
+		assertEquals(3, snapshot.size());
+		assertEquals("v0", snapshot.get("X-0"));
+		assertNull(snapshot.get("X-3"));
+
+		final HeaderList second = snapshot.snapshot();
+		snapshot.clear();
+		assertEquals(0, snapshot.size());
+		assertEquals(3, second.size());
+		assertEquals("v0", second.get("x-0"));
+		assertEquals("changed", headers.get("x-0"));
+		assertEquals(4, headers.size());
+	}
+
+	@Test
+	public void mapViewIsEqualIgnoringCaseWithSameHashCode() {
+		final HeaderList headers = new HeaderList();
+		headers.add("X-Tag", "a");
+		headers.add("x-tag", "b");
+		headers.add("Comments", "c");
+		final HeaderList other = new HeaderList();
+		other.add("COMMENTS", "c");
+		other.add("x-TAG", "a");
+
+		final Map<String, String> map = headers.asMap();
+		assertEquals(2, map.size());
+		assertEquals("a", map.get("X-TAG"));
+		assertTrue(map.containsKey("comments"));
+		assertEquals(map, other.asMap());
+		assertEquals(map.hashCode(), other.asMap().hashCode());
+
+		other.add("X-Other", "o");
+		assertFalse(map.equals(other.asMap()));
+		other.set("x-tag", "b");
+		assertFalse(headers.asMap().equals(other.asMap()));
+	}
+
+	@Test
+	public void builderHeadersAreMutableCopy() {
+		final EmailBuilder builder = new EmailBuilder().addHeader("X-Tag", "a");
+		final Map<String, String> headers = builder.getHeaders();
+		assertEquals(Collections.singletonMap("X-Tag", "a"), headers);
+		headers.put("X-Other", "b");
+		assertEquals(new LinkedHashMap<>(Collections.singletonMap("X-Tag", "a")), builder.getHeaders());
+	}
+
+	@Test
+	public void encodesHeaderBlockInOrder() throws Exception {
+		final Email email = new Email(false);
+		email.setFromAddress(null, "from@example.com");
+		email.addRecipients(null, RecipientType.TO, "to@example.com");
+		email.setSubject("subject");
+		email.addHeader("Received", "from a by b");
+		email.addHeader("X-Tag", "1");
+		email.addHeader("subject", "replaced");
+		email.addHeader("received", "from c by d");
+		email.addHeader("x-tag", "2");
+		email.addHeader("Return-Path", "<bounce@example.com>");
+
+		final HeaderList block = MimeMessageHelper.encodeHeaderBlock(email);
+		assertEquals(Arrays.asList("From", "Subject", "Received", "X-Tag", "received", "x-tag", "Return-Path"), names(block));
+		assertEquals("replaced", block.get("Subject"));
+
+		final MimeMessage message = RenderedEmail.of(email).toMimeMessage(Session.getInstance(new Properties()));
+		assertArrayEquals(new String[] { "from a by b", "from c by d" }, message.getHeader("Received"));
+		assertArrayEquals(new String[] { "1", "2" }, message.getHeader("X-Tag"));
+		assertArrayEquals(new String[] { "replaced" }, message.getHeader("Subject"));
+		// trace headers go on top, Return-Path first and the Received headers in the order they were added
+		final Object[] lines = Collections.list(message.getAllHeaderLines()).toArray();
+		assertEquals("Return-Path: <bounce@example.com>", lines[0]);
+		assertEquals("Received: from a by b", lines[1]);
+		assertEquals("received: from c by d", lines[2]);
+	}
+
+	private static List<String> names(final HeaderList headers) {
+		final String[] names = new String[headers.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = headers.name(i);
+		}
+		return Arrays.asList(names);
+	}
+}
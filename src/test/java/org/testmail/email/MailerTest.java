@@ -0,0 +1,237 @@
+package org.testmail.email;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MailerTest {
+
+	@After
+	public void clearProperties() {
+		EmailUtils.loadProperties(new Properties(), false);
+	}
+
+	@Test
+	public void setsDefaultTimeouts() {
+		try (Mailer mailer = new Mailer("localhost", 25, null, null, TransportStrategy.SMTP_PLAIN)) {
+			assertEquals(String.valueOf(Mailer.DEFAULT_CONNECTION_TIMEOUT_MILLIS_VALUE),
+					mailer.getSession().getProperty("mail.smtp.connectiontimeout"));
+			assertEquals(String.valueOf(Mailer.DEFAULT_TIMEOUT_MILLIS_VALUE), mailer.getSession().getProperty("mail.smtp.timeout"));
+		}
+	}
+
+	@Test
+	public void readsNumbersGivenAsStrings() {
+		final Properties properties = new Properties();
+		properties.setProperty(EmailUtils.Property.DEFAULT_TIMEOUT_MILLIS.key(), " 300 ");
+		// loaded as a boolean
+		properties.setProperty(EmailUtils.Property.DEFAULT_CONNECTION_TIMEOUT_MILLIS.key(), "0");
+		EmailUtils.loadProperties(properties, false);
+		try (Mailer mailer = new Mailer("localhost", 25, null, null, TransportStrategy.SMTP_PLAIN)) {
+			assertEquals("300", mailer.getSession().getProperty("mail.smtp.timeout"));
+			assertEquals("0", mailer.getSession().getProperty("mail.smtp.connectiontimeout"));
+		}
+
+		properties.setProperty(EmailUtils.Property.DEFAULT_POOL_SIZE.key(), "four");
+		EmailUtils.loadProperties(properties, false);
+		try {
+			new Mailer("localhost", 25, null, null, TransportStrategy.SMTP_PLAIN).close();
+			fail("expected an IllegalArgumentException");
+		} catch (final IllegalArgumentException e) {
+			assertEquals("testmail.defaults.poolsize should be a number, was 'four'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void failsWhenServerStalls() throws IOException, InterruptedException {
+		final Properties properties = new Properties();
+		properties.setProperty(EmailUtils.Property.DEFAULT_CONNECTION_TIMEOUT_MILLIS.key(), "2000");
+		properties.setProperty(EmailUtils.Property.DEFAULT_TIMEOUT_MILLIS.key(), "300");
+		EmailUtils.loadProperties(properties, true);
+
+		// accepts connections but never sends the greeting
+		final List<Socket> connections = Collections.synchronizedList(new ArrayList<Socket>());
+		try (ServerSocket server = new ServerSocket(0)) {
+			final Thread acceptor = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							connections.add(server.accept());
+						}
+					} catch (final IOException e) {
+						// closed
+					}
+				}
+			};
+			acceptor.start();
+			try (Mailer mailer = new Mailer("localhost", server.getLocalPort(), null, null, TransportStrategy.SMTP_PLAIN)) {
+				assertEquals("300", mailer.getSession().getProperty("mail.smtp.timeout"));
+				final Email email = new Email(false);
+				email.setFromAddress(null, "from@example.com");
+				email.addRecipients(new Recipient(null, "to@example.com", javax.mail.Message.RecipientType.TO));
+				email.setText("text");
+				final long start = System.nanoTime();
+				try {
+					mailer.sendMail(email);
+					fail("expected a timeout");
+				} catch (final MailException e) {
+					final long millis = (System.nanoTime() - start) / 1000000;
+					assertTrue("took " + millis + " ms", millis < 10000);
+				}
+			}
+			server.close();
+			acceptor.join();
+		} finally {
+			for (final Socket connection : connections) {
+				connection.close();
+			}
+		}
+	}
+
+	@Test
+	public void sendAsyncNotifiesCallbackOnceOnSuccess() throws Exception {
+		final FakeSMTPServer server = new FakeSMTPServer();
+		server.start();
+		try (Mailer mailer = new Mailer("localhost", server.getPort(), null, null, TransportStrategy.SMTP_PLAIN)) {
+			final RecordingCallback callback = new RecordingCallback();
+			final Future<SendResult> future = mailer.sendAsync(email("to@example.com"), callback);
+			callback.await();
+			assertEquals(1, callback.calls.get());
+			assertSame(future.get(), callback.result);
+			assertNull(callback.cause);
+			assertEquals(1, server.countCommands("RCPT TO:<to@example.com>"));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void sendAsyncNotifiesCallbackOnceOnFailure() throws Exception {
+		final FakeSMTPServer server = new FakeSMTPServer();
+		server.rcptReplies.put("bad@example.com", "550 no such user");
+		server.start();
+		try (Mailer mailer = new Mailer("localhost", server.getPort(), null, null, TransportStrategy.SMTP_PLAIN)) {
+			final RecordingCallback callback = new RecordingCallback();
+			final Email email = email("bad@example.com");
+			final Future<SendResult> future = mailer.sendAsync(email, callback);
+			callback.await();
+			assertEquals(1, callback.calls.get());
+			assertSame(email, callback.failedEmail);
+			assertTrue(callback.cause instanceof MailException);
+			assertNull(callback.result);
+			try {
+				future.get();
+				fail("expected an ExecutionException");
+			} catch (final ExecutionException e) {
+				assertSame(callback.cause, e.getCause());
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void rejectsAsyncSendsAfterClose() throws Exception {
+		final FakeSMTPServer server = new FakeSMTPServer();
+		server.start();
+		try {
+			final Mailer used = new Mailer("localhost", server.getPort(), null, null, TransportStrategy.SMTP_PLAIN);
+			used.sendAsync(email("to@example.com")).get(10, TimeUnit.SECONDS);
+			used.close();
+			assertRejected(used);
+
+			// also when the executor was never created
+			final Mailer unused = new Mailer("localhost", server.getPort(), null, null, TransportStrategy.SMTP_PLAIN);
+			unused.close();
+			assertRejected(unused);
+			assertEquals(1, server.getConnectionCount());
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void fallsBackToThreadPoolWithoutVirtualThreads() throws Exception {
+		final Properties properties = new Properties();
+		properties.setProperty(EmailUtils.Property.TRANSPORT_MODE_VIRTUAL_THREADS.key(), "true");
+		properties.setProperty(EmailUtils.Property.TRANSPORT_MODE_LOGGING_ONLY.key(), "true");
+		EmailUtils.loadProperties(properties, true);
+
+		try (Mailer mailer = new Mailer("localhost", 25, null, null, TransportStrategy.SMTP_PLAIN)) {
+			final RecordingCallback callback = new RecordingCallback();
+			mailer.sendAsync(email("to@example.com"), callback).get(10, TimeUnit.SECONDS);
+			callback.await();
+			assertEquals(!VirtualThreads.isSupported(), callback.thread.getName().startsWith("testmail-sender-"));
+		}
+	}
+
+	private static void assertRejected(final Mailer mailer) {
+		final RecordingCallback callback = new RecordingCallback();
+		try {
+			mailer.sendAsync(email("to@example.com"), callback);
+			fail("expected a RejectedExecutionException");
+		} catch (final RejectedExecutionException e) {
+			assertEquals("mailer has been closed", e.getMessage());
+		}
+		assertEquals(0, callback.calls.get());
+	}
+
+	private static Email email(final String to) {
+		final Email email = new Email(false);
+		email.setFromAddress(null, "from@example.com");
+		email.addRecipients(null, javax.mail.Message.RecipientType.TO, to);
+		email.setText("text");
+		return email;
+	}
+
+	private static final class RecordingCallback implements SendCallback {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicInteger calls = new AtomicInteger();
+		private volatile SendResult result;
+		private volatile Email failedEmail;
+		private volatile Throwable cause;
+		private volatile Thread thread;
+
+		@Override
+		public void onSuccess(final SendResult result) {
+			this.result = result;
+			this.thread = Thread.currentThread();
+			calls.incrementAndGet();
+			done.countDown();
+		}
+
+		@Override
+		public void onFailure(final Email email, final Throwable cause) {
+			this.failedEmail = email;
+			this.cause = cause;
+			this.thread = Thread.currentThread();
+			calls.incrementAndGet();
+			done.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertTrue("callback was not notified", done.await(10, TimeUnit.SECONDS));
+		}
+	}
+}
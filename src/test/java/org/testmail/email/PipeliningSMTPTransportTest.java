@@ -0,0 +1,202 @@
+package org.testmail.email;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.URLName;
+import javax.mail.event.TransportAdapter;
+import javax.mail.event.TransportEvent;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipeliningSMTPTransportTest {
+
+	private static final String FROM = "from@example.com";
+	private static final String GOOD = "good@example.com";
+	private static final String OTHER = "other@example.com";
+	private static final String BAD = "bad@example.com";
+
+	private FakeSMTPServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new FakeSMTPServer();
+		server.rcptReplies.put(BAD, "550 no such user");
+	}
+
+	@After
+	public void stopServer() throws IOException, InterruptedException {
+		server.close();
+	}
+
+	@Test
+	public void pipelinesEnvelope() throws Exception {
+		server.start("PIPELINING");
+		send(new Properties(), GOOD, OTHER);
+
+		assertEquals(Arrays.asList("MAIL FROM:<" + FROM + ">", "RCPT TO:<" + GOOD + ">", "RCPT TO:<" + OTHER + ">"),
+				server.batchStartingWith("MAIL"));
+		assertEquals(Arrays.asList("DATA"), server.batchStartingWith("DATA"));
+		assertEquals(Arrays.asList("."), server.batchStartingWith("."));
+	}
+
+	@Test
+	public void sendsOneCommandAtATimeWithoutPipelining() throws Exception {
+		server.start();
+		send(new Properties(), GOOD, OTHER);
+
+		assertEquals(Arrays.asList("MAIL FROM:<" + FROM + ">"), server.batchStartingWith("MAIL"));
+		assertEquals(Arrays.asList("RCPT TO:<" + GOOD + ">"), server.batchStartingWith("RCPT TO:<" + GOOD));
+		assertEquals(Arrays.asList("RCPT TO:<" + OTHER + ">"), server.batchStartingWith("RCPT TO:<" + OTHER));
+		assertNotNull(server.batchStartingWith("."));
+	}
+
+	@Test
+	public void sendsOneCommandAtATimeForDeliveryStatusNotifications() throws Exception {
+		server.start("PIPELINING", "DSN");
+		final Properties properties = new Properties();
+		properties.setProperty("mail.smtp.dsn.notify", "FAILURE");
+		send(properties, GOOD);
+
+		assertEquals(Arrays.asList("MAIL FROM:<" + FROM + ">"), server.batchStartingWith("MAIL"));
+		assertEquals(Arrays.asList("RCPT TO:<" + GOOD + "> NOTIFY=FAILURE"), server.batchStartingWith("RCPT"));
+	}
+
+	@Test
+	public void notifiesTransportListeners() throws Exception {
+		server.start("PIPELINING");
+		final AtomicReference<TransportEvent> delivered = new AtomicReference<>();
+		final PipeliningSMTPTransport transport = connect(new Properties());
+		try {
+			transport.addTransportListener(new TransportAdapter() {
+				@Override
+				public void messageDelivered(final TransportEvent e) {
+					delivered.set(e);
+				}
+			});
+			transport.sendMessage(message(GOOD), InternetAddress.parse(GOOD));
+		} finally {
+			transport.close();
+		}
+
+		assertEquals(Arrays.asList("MAIL FROM:<" + FROM + ">"), server.batchStartingWith("MAIL"));
+		// notification is dispatched on a separate thread
+		for (int i = 0; i < 100 && delivered.get() == null; i++) {
+			Thread.sleep(50);
+		}
+		assertNotNull(delivered.get());
+	}
+
+	@Test
+	public void rejectsMessageWithFailedRecipient() throws Exception {
+		server.start("PIPELINING");
+		try {
+			send(new Properties(), GOOD, BAD, OTHER);
+			fail("expected a SendFailedException");
+		} catch (final SendFailedException e) {
+			assertFalse(e instanceof SMTPSendFailedException);
+			assertArrayEquals(InternetAddress.parse(GOOD + "," + OTHER), e.getValidUnsentAddresses());
+			assertArrayEquals(InternetAddress.parse(BAD), e.getInvalidAddresses());
+			final SMTPAddressFailedException failure = (SMTPAddressFailedException) e.getNextException();
+			assertEquals(new InternetAddress(BAD), failure.getAddress());
+			assertEquals(550, failure.getReturnCode());
+			assertEquals(null, failure.getNextException());
+		}
+
+		assertEquals(Arrays.asList("MAIL FROM:<" + FROM + ">", "RCPT TO:<" + GOOD + ">", "RCPT TO:<" + BAD + ">",
+				"RCPT TO:<" + OTHER + ">"), server.batchStartingWith("MAIL"));
+		assertNotNull(server.batchStartingWith("RSET"));
+		assertEquals(null, server.batchStartingWith("DATA"));
+	}
+
+	@Test
+	public void sendsPartially() throws Exception {
+		server.start("PIPELINING");
+		server.rcptReplies.put(OTHER, "452 mailbox full");
+		final Properties properties = new Properties();
+		properties.setProperty("mail.smtp.sendpartial", "true");
+		try {
+			send(properties, BAD, GOOD, OTHER);
+			fail("expected an SMTPSendFailedException");
+		} catch (final SMTPSendFailedException e) {
+			assertArrayEquals(InternetAddress.parse(GOOD), e.getValidSentAddresses());
+			assertArrayEquals(InternetAddress.parse(OTHER), e.getValidUnsentAddresses());
+			assertArrayEquals(InternetAddress.parse(BAD), e.getInvalidAddresses());
+			final SMTPAddressFailedException first = (SMTPAddressFailedException) e.getNextException();
+			assertEquals(550, first.getReturnCode());
+			final SMTPAddressFailedException second = (SMTPAddressFailedException) first.getNextException();
+			assertEquals(new InternetAddress(OTHER), second.getAddress());
+			assertEquals(452, second.getReturnCode());
+		}
+
+		assertNotNull(server.batchStartingWith("."));
+	}
+
+	@Test
+	public void rejectsMessageWithFailedSender() throws Exception {
+		server.start("PIPELINING");
+		server.mailReply = "553 sender rejected";
+		try {
+			send(new Properties(), GOOD);
+			fail("expected an SMTPSendFailedException");
+		} catch (final SMTPSendFailedException e) {
+			assertEquals(553, e.getReturnCode());
+			assertTrue(e.getNextException().getMessage(), e.getNextException().getMessage().contains("sender rejected"));
+		}
+
+		assertEquals(Arrays.asList("MAIL FROM:<" + FROM + ">", "RCPT TO:<" + GOOD + ">"), server.batchStartingWith("MAIL"));
+		assertEquals(null, server.batchStartingWith("DATA"));
+	}
+
+	private void send(final Properties properties, final String... recipients) throws MessagingException {
+		final PipeliningSMTPTransport transport = connect(properties);
+		try {
+			final Address[] addresses = new Address[recipients.length];
+			for (int i = 0; i < recipients.length; i++) {
+				addresses[i] = new InternetAddress(recipients[i]);
+			}
+			transport.sendMessage(message(recipients[0]), addresses);
+		} finally {
+			transport.close();
+		}
+	}
+
+	private PipeliningSMTPTransport connect(final Properties properties) throws MessagingException {
+		properties.setProperty("mail.smtp.localhost", "client.example.com");
+		properties.setProperty("mail.smtp.timeout", "10000");
+		final Session session = Session.getInstance(properties);
+		final PipeliningSMTPTransport transport = new PipeliningSMTPTransport(session,
+				new URLName("smtp", "localhost", server.getPort(), null, null, null));
+		transport.connect();
+		return transport;
+	}
+
+	private static MimeMessage message(final String to) throws MessagingException {
+		final MimeMessage message = new MimeMessage((Session) null);
+		message.setFrom(new InternetAddress(FROM));
+		message.setRecipient(Message.RecipientType.TO, new InternetAddress(to));
+		message.setSubject("subject");
+		message.setText("text");
+		message.saveChanges();
+		return message;
+	}
+}
@@ -0,0 +1,230 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecipientListTest {
+
+	private static final String[] NAMES = {
+			"plain", "Latin-1 éÿ", "Cyrillic Ж", "CJK 中", "emoji 😀", "bad\ud800name", "bad\udc00name",
+			"trailing \ud83d", "reversed \ude00\ud83d", null
+	};
+
+	@Test
+	public void compactedRecipientsReadBackAsAdded() {
+		final RecipientList list = new RecipientList();
+		final List<Recipient> added = new ArrayList<>();
+		for (int i = 0; i <= RecipientList.COMPACT_THRESHOLD * 2; i++) {
+			final String name = NAMES[i % NAMES.length];
+			final Recipient recipient = new Recipient(name != null ? name + i : null, "r" + i + "@exämple.com",
+					i % 3 == 0 ? RecipientType.TO : i % 3 == 1 ? RecipientType.CC : RecipientType.BCC);
+			list.add(recipient);
+			added.add(recipient);
+		}
+		assertEquals(added.size(), list.size());
+		for (int i = 0; i < added.size(); i++) {
+			assertEquals(added.get(i).getName(), list.get(i).getName());
+			assertEquals(added.get(i).getAddress(), list.get(i).getAddress());
+			assertEquals(added.get(i).getType(), list.get(i).getType());
+		}
+		assertEquals(added, list);
+	}
+
+	@Test
+	public void compactedUnpairedSurrogateKeepsEqualToObjectList() {
+		final Email compacted = new Email(false);
+		final Email small = new Email(false);
+		for (int i = 0; i <= RecipientList.COMPACT_THRESHOLD; i++) {
+			compacted.addRecipients(new Recipient("bad\ud800name", "r" + i + "@example.com", RecipientType.TO));
+		}
+		small.addRecipients(new Recipient("bad\ud800name", "r0@example.com", RecipientType.TO));
+		assertEquals("bad\ud800name", compacted.getRecipients().get(0).getName());
+		assertEquals(small.getRecipients().get(0), compacted.getRecipients().get(0));
+	}
+
+	@Test
+	public void deduplicationKeepsFirstAddedRecipient() {
+		final RecipientList list = new RecipientList();
+		list.deduplicate();
+		assertTrue(list.add(new Recipient("First", "a@example.com", RecipientType.CC)));
+		assertTrue(list.add(new Recipient(null, "b@example.com", RecipientType.TO)));
+		assertFalse(list.add(new Recipient("Second", "a@example.com", RecipientType.BCC)));
+		// takes the type that comes first, but keeps name and position
+		assertFalse(list.add(new Recipient("Third", "a@example.com", RecipientType.TO)));
+
+		assertEquals(2, list.size());
+		assertEquals(new Recipient("First", "a@example.com", RecipientType.TO), list.get(0));
+		assertEquals(new Recipient(null, "b@example.com", RecipientType.TO), list.get(1));
+	}
+
+	@Test
+	public void deduplicationIgnoresSpacesAndDomainCase() {
+		final RecipientList list = new RecipientList();
+		list.deduplicate();
+		list.add(new Recipient(null, " a@Example.COM ", RecipientType.TO));
+		assertFalse(list.add(new Recipient(null, "a@example.com", RecipientType.TO)));
+		assertFalse(list.add(new Recipient(null, "a@EXAMPLE.com\t", RecipientType.CC)));
+		// the local part is case sensitive
+		assertTrue(list.add(new Recipient(null, "A@example.com", RecipientType.TO)));
+
+		assertEquals(2, list.size());
+		assertEquals(" a@Example.COM ", list.get(0).getAddress());
+		assertEquals("A@example.com", list.get(1).getAddress());
+	}
+
+	@Test
+	public void deduplicationFollowsPrecedence() {
+		final RecipientList list = new RecipientList();
+		list.deduplicate(RecipientType.BCC);
+		list.add(new Recipient(null, "a@example.com", RecipientType.TO));
+		list.add(new Recipient(null, "a@example.com", RecipientType.BCC));
+		list.add(new Recipient(null, "a@example.com", RecipientType.CC));
+		list.add(new Recipient(null, "b@example.com", RecipientType.CC));
+		list.add(new Recipient(null, "b@example.com", RecipientType.TO));
+
+		assertEquals(2, list.size());
+		assertEquals(RecipientType.BCC, list.get(0).getType());
+		// types that are not listed rank the same, so the first one stays
+		assertEquals(RecipientType.CC, list.get(1).getType());
+	}
+
+	@Test
+	public void deduplicationMergesRecipientsAlreadyAdded() {
+		final RecipientList list = new RecipientList();
+		list.add(new Recipient("Bcc", "a@example.com", RecipientType.BCC));
+		list.add(new Recipient(null, "b@example.com", RecipientType.CC));
+		list.add(new Recipient("To", "a@example.com", RecipientType.TO));
+		list.deduplicate();
+
+		assertEquals(2, list.size());
+		assertEquals(new Recipient("Bcc", "a@example.com", RecipientType.TO), list.get(0));
+		assertEquals(new Recipient(null, "b@example.com", RecipientType.CC), list.get(1));
+	}
+
+	@Test
+	public void clearTurnsDeduplicationOff() {
+		final RecipientList list = new RecipientList();
+		list.deduplicate();
+		list.add(new Recipient(null, "a@example.com", RecipientType.TO));
+		final RecipientList snapshot = list.snapshot();
+		list.clear();
+		assertTrue(list.add(new Recipient(null, "a@example.com", RecipientType.TO)));
+		assertTrue(list.add(new Recipient(null, "a@example.com", RecipientType.CC)));
+		assertEquals(2, list.size());
+
+		// the snapshot still deduplicates
+		assertFalse(snapshot.add(new Recipient(null, "a@example.com", RecipientType.CC)));
+		assertEquals(1, snapshot.size());
+	}
+
+	@Test
+	public void typeViewsFollowDeduplication() {
+		final RecipientList list = new RecipientList();
+		final List<Recipient> to = list.ofType(RecipientType.TO);
+		final List<Recipient> cc = list.ofType(RecipientType.CC);
+		list.deduplicate();
+		list.add(new Recipient(null, "a@example.com", RecipientType.CC));
+		list.add(new Recipient(null, "b@example.com", RecipientType.TO));
+		list.add(new Recipient(null, "c@example.com", RecipientType.CC));
+		assertEquals(Collections.singletonList(list.get(1)), to);
+		assertEquals(Arrays.asList(list.get(0), list.get(2)), cc);
+
+		// moves from CC to TO, ahead of the recipient that was added after it
+		list.add(new Recipient(null, "a@example.com", RecipientType.TO));
+		assertEquals(Arrays.asList(list.get(0), list.get(1)), to);
+		assertEquals(RecipientType.TO, to.get(0).getType());
+		assertEquals(Collections.singletonList(list.get(2)), cc);
+		assertTypeViewsMatch(list);
+
+		list.clear();
+		assertEquals(0, to.size());
+		assertEquals(0, cc.size());
+	}
+
+	@Test
+	public void typeViewsOfSnapshotDontChange() {
+		final RecipientList list = new RecipientList();
+		list.add(new Recipient(null, "a@example.com", RecipientType.TO));
+		list.add(new Recipient(null, "b@example.com", RecipientType.BCC));
+		final RecipientList snapshot = list.snapshot();
+		final List<Recipient> snapshotTo = snapshot.ofType(RecipientType.TO);
+
+		list.add(new Recipient(null, "c@example.com", RecipientType.TO));
+		list.deduplicate();
+		list.add(new Recipient(null, "b@example.com", RecipientType.TO));
+		assertEquals(3, list.ofType(RecipientType.TO).size());
+		assertEquals(0, list.ofType(RecipientType.BCC).size());
+		assertTypeViewsMatch(list);
+
+		assertEquals(Collections.singletonList(new Recipient(null, "a@example.com", RecipientType.TO)), snapshotTo);
+		assertEquals(1, snapshot.ofType(RecipientType.BCC).size());
+		assertTypeViewsMatch(snapshot);
+
+		list.clear();
+		assertEquals(1, snapshotTo.size());
+	}
+
+	@Test
+	public void typeViewsOfCompactedList() {
+		final RecipientList list = new RecipientList();
+		final RecipientType[] types = { RecipientType.TO, RecipientType.CC, RecipientType.BCC };
+		for (int i = 0; i <= RecipientList.COMPACT_THRESHOLD * 2; i++) {
+			list.add(new Recipient(null, "r" + i + "@example.com", types[i % 7 % 3]));
+		}
+		assertTypeViewsMatch(list);
+		final RecipientList snapshot = list.snapshot();
+
+		// changes the types of compacted recipients
+		list.deduplicate(RecipientType.BCC, RecipientType.CC);
+		for (int i = 0; i <= RecipientList.COMPACT_THRESHOLD * 2; i += 5) {
+			list.add(new Recipient(null, "r" + i + "@example.com", RecipientType.BCC));
+		}
+		assertTypeViewsMatch(list);
+		assertTypeViewsMatch(snapshot);
+
+		// a type the views don't cover
+		list.add(new Recipient(null, "news@example.com", MimeMessage.RecipientType.NEWSGROUPS));
+		list.add(new Recipient(null, "r1@example.com", RecipientType.CC));
+		assertTypeViewsMatch(list);
+		assertEquals(list.size() - 1, list.ofType(RecipientType.TO).size() + list.ofType(RecipientType.CC).size()
+				+ list.ofType(RecipientType.BCC).size());
+	}
+
+	@Test
+	public void emailTypeViewsAddUpToRecipients() {
+		final Email email = new Email(false);
+		email.addRecipients(null, RecipientType.CC, "a@example.com, b@example.com");
+		email.addRecipients(null, RecipientType.TO, "b@example.com");
+		email.addRecipients(null, RecipientType.BCC, "c@example.com");
+		email.deduplicateRecipients();
+		assertEquals(email.getRecipients().size(), email.getToRecipients().size() + email.getCcRecipients().size()
+				+ email.getBccRecipients().size());
+		assertEquals(Collections.singletonList(new Recipient(null, "b@example.com", RecipientType.TO)), email.getToRecipients());
+		assertEquals(Collections.singletonList(new Recipient(null, "a@example.com", RecipientType.CC)), email.getCcRecipients());
+	}
+
+	/**
+	 * Checks that each view has exactly the recipients of its type, in the order of the list.
+	 */
+	private static void assertTypeViewsMatch(final RecipientList list) {
+		for (final RecipientType type : new RecipientType[] { RecipientType.TO, RecipientType.CC, RecipientType.BCC }) {
+			final List<Recipient> expected = new ArrayList<>();
+			for (final Recipient recipient : list) {
+				if (type.equals(recipient.getType())) {
+					expected.add(recipient);
+				}
+			}
+			assertEquals(expected, list.ofType(type));
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package org.testmail.email;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import java.util.Collections;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class RecipientPoolTest {
+
+	@After
+	public void clearProperties() {
+		EmailUtils.loadProperties(new Properties(), false);
+	}
+
+	@Test
+	public void internsEqualRecipients() {
+		final RecipientPool pool = pool(100);
+		final Recipient first = recipient("a");
+		assertSame(first, pool.internRecipient(first));
+		assertSame(first, pool.internRecipient(recipient("a")));
+		final Recipient other = recipient("b");
+		assertSame(other, pool.internRecipient(other));
+		final Recipient otherType = new Recipient(null, "a@example.com", RecipientType.CC);
+		assertSame(otherType, pool.internRecipient(otherType));
+	}
+
+	@Test
+	public void keepsRecipientsUsedDuringLastGeneration() {
+		// two generations of two recipients
+		final RecipientPool pool = pool(4);
+		final Recipient a = pool.internRecipient(recipient("a"));
+		final Recipient b = pool.internRecipient(recipient("b"));
+		// the first generation is full, a and b are now in the previous one
+		assertSame(a, pool.internRecipient(recipient("a")));
+		final Recipient c = pool.internRecipient(recipient("c"));
+		// a and c filled the next generation, so b, which was not used during it, is dropped
+		assertSame(a, pool.internRecipient(recipient("a")));
+		assertSame(c, pool.internRecipient(recipient("c")));
+		assertNotSame(b, pool.internRecipient(recipient("b")));
+	}
+
+	@Test
+	public void isDisabledBelowTwo() {
+		assertSame(RecipientPool.DISABLED, RecipientPool.resolve(ConfigSnapshot.EMPTY));
+		assertSame(RecipientPool.DISABLED, pool(0));
+		assertSame(RecipientPool.DISABLED, pool(1));
+		final Recipient recipient = recipient("a");
+		assertSame(recipient, RecipientPool.DISABLED.internRecipient(recipient));
+		assertNotSame(recipient, RecipientPool.DISABLED.internRecipient(recipient("a")));
+	}
+
+	@Test
+	public void rejectsNegativeSize() {
+		try {
+			pool(-1);
+			fail("expected an IllegalArgumentException");
+		} catch (final IllegalArgumentException e) {
+			assertEquals("testmail.recipients.poolsize must not be negative", e.getMessage());
+		}
+	}
+
+	@Test
+	public void readsSizeGivenAsString() {
+		final Properties properties = new Properties();
+		properties.setProperty(EmailUtils.Property.RECIPIENT_POOL_SIZE.key(), " 10 ");
+		EmailUtils.loadProperties(properties, false);
+		final Recipient recipient = recipient("a");
+		assertSame(recipient, RecipientPool.intern(recipient));
+		assertSame(recipient, RecipientPool.intern(recipient("a")));
+
+		properties.setProperty(EmailUtils.Property.RECIPIENT_POOL_SIZE.key(), "ten");
+		EmailUtils.loadProperties(properties, false);
+		try {
+			RecipientPool.intern(recipient);
+			fail("expected an IllegalArgumentException");
+		} catch (final IllegalArgumentException e) {
+			assertEquals("testmail.recipients.poolsize should be a number, was 'ten'", e.getMessage());
+		}
+	}
+
+	private static RecipientPool pool(final int maxSize) {
+		return RecipientPool.resolve(ConfigSnapshot.EMPTY.with(
+				Collections.<EmailUtils.Property, Object>singletonMap(EmailUtils.Property.RECIPIENT_POOL_SIZE, maxSize), false));
+	}
+
+	private static Recipient recipient(final String name) {
+		return new Recipient(null, name + "@example.com", RecipientType.TO);
+	}
+}
@@ -0,0 +1,146 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderedBodyTest {
+
+	private static final Session SESSION = Session.getInstance(new Properties());
+
+	@Test
+	public void writesAttachmentsAsValidMime() throws Exception {
+		final byte[] logo = randomBytes(3000, 1);
+		final byte[] report = randomBytes(10000, 2);
+		final ByteBuffer logoBuffer = ByteBuffer.wrap(logo);
+		final Email email = email();
+		email.setText("text");
+		email.setTextHTML("<img src=\"cid:logo\">");
+		email.addAttachment(Attachment.of("logo.png", "image/png", logoBuffer).inline("logo"));
+		email.addAttachment(Attachment.of("Bericht für Ärzte.pdf", "application/pdf", ByteBuffer.wrap(report)));
+		assertTrue(email.getRenderedBody().isStreamed());
+
+		final MimeMessage parsed = parse(RenderedEmail.of(email).toMimeMessage(SESSION));
+
+		assertTrue(parsed.isMimeType("multipart/mixed"));
+		final MimeMultipart mixed = (MimeMultipart) parsed.getContent();
+		assertEquals(2, mixed.getCount());
+
+		final MimeBodyPart relatedPart = (MimeBodyPart) mixed.getBodyPart(0);
+		assertTrue(relatedPart.isMimeType("multipart/related"));
+		final MimeMultipart related = (MimeMultipart) relatedPart.getContent();
+		assertEquals(2, related.getCount());
+		final MimeBodyPart alternativePart = (MimeBodyPart) related.getBodyPart(0);
+		assertTrue(alternativePart.isMimeType("multipart/alternative"));
+		final MimeMultipart alternative = (MimeMultipart) alternativePart.getContent();
+		assertEquals(2, alternative.getCount());
+		assertTrue(alternative.getBodyPart(0).isMimeType("text/plain"));
+		assertEquals("text", alternative.getBodyPart(0).getContent());
+		assertTrue(alternative.getBodyPart(1).isMimeType("text/html"));
+		assertEquals("<img src=\"cid:logo\">", alternative.getBodyPart(1).getContent());
+
+		final MimeBodyPart logoPart = (MimeBodyPart) related.getBodyPart(1);
+		assertTrue(logoPart.isMimeType("image/png"));
+		assertEquals("<logo>", logoPart.getContentID());
+		assertEquals(Part.INLINE, logoPart.getDisposition());
+		assertEquals("logo.png", logoPart.getFileName());
+		assertEquals("base64", logoPart.getEncoding());
+		assertArrayEquals(logo, readAll(logoPart.getInputStream()));
+		assertEquals(0, logoBuffer.position());
+
+		final MimeBodyPart reportPart = (MimeBodyPart) mixed.getBodyPart(1);
+		assertTrue(reportPart.isMimeType("application/pdf"));
+		assertEquals(Part.ATTACHMENT, reportPart.getDisposition());
+		assertEquals("Bericht für Ärzte.pdf", reportPart.getFileName());
+		// in UTF-8 regardless of the platform charset
+		final String encodedName = "UTF-8''Bericht%20f%C3%BCr%20%C3%84rzte.pdf";
+		assertTrue(reportPart.getHeader("Content-Disposition", null).contains("filename*=" + encodedName));
+		assertTrue(reportPart.getHeader("Content-Type", null).contains("name*=" + encodedName));
+		assertEquals(null, reportPart.getContentID());
+		assertArrayEquals(report, readAll(reportPart.getInputStream()));
+	}
+
+	@Test
+	public void writesSameContentAsContentStream() throws Exception {
+		final Email email = email();
+		email.setText("text with ümlauts\r\nand a second line");
+		email.setTextHTML("<p>html</p>");
+		assertFalse(email.getRenderedBody().isStreamed());
+		assertContentStreamMatchesWrittenContent(RenderedEmail.of(email).toMimeMessage(SESSION));
+
+		email.addAttachment(Attachment.of("a.bin", "application/octet-stream", ByteBuffer.wrap(randomBytes(500, 3))));
+		assertTrue(email.getRenderedBody().isStreamed());
+		assertContentStreamMatchesWrittenContent(RenderedEmail.of(email).toMimeMessage(SESSION));
+	}
+
+	private static void assertContentStreamMatchesWrittenContent(final MimeMessage message) throws IOException, MessagingException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		message.writeTo(output);
+		final byte[] written = output.toByteArray();
+		final int bodyStart = indexOf(written, new byte[] { '\r', '\n', '\r', '\n' }) + 4;
+		assertArrayEquals(Arrays.copyOfRange(written, bodyStart, written.length), readAll(message.getRawInputStream()));
+	}
+
+	private static Email email() {
+		final Email email = new Email(false);
+		email.setFromAddress("Sender", "from@example.com");
+		email.addRecipients("Recipient", RecipientType.TO, "to@example.com");
+		email.setSubject("subject");
+		return email;
+	}
+
+	private static MimeMessage parse(final MimeMessage message) throws IOException, MessagingException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		message.writeTo(output);
+		return new MimeMessage(SESSION, new ByteArrayInputStream(output.toByteArray()));
+	}
+
+	private static byte[] randomBytes(final int length, final long seed) {
+		final byte[] bytes = new byte[length];
+		new Random(seed).nextBytes(bytes);
+		return bytes;
+	}
+
+	static byte[] readAll(final InputStream input) throws IOException {
+		try (InputStream in = input) {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				output.write(buffer, 0, read);
+			}
+			return output.toByteArray();
+		}
+	}
+
+	private static int indexOf(final byte[] data, final byte[] pattern) {
+		outer:
+		for (int i = 0; i <= data.length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		throw new AssertionError("no header separator");
+	}
+}
@@ -0,0 +1,127 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RenderedEmailTest {
+
+	private static final Session SESSION = Session.getInstance(new Properties());
+
+	private static final Recipient[] RECIPIENTS = {
+			new Recipient("Första Mottagare", "first@example.com", RecipientType.TO),
+			new Recipient(null, "second@example.com", RecipientType.CC),
+			new Recipient("Third", "third@example.com", null),
+	};
+
+	@Test
+	public void rejectsEmailWithoutSender() {
+		final Email email = new Email(false);
+		email.setText("text");
+		try {
+			RenderedEmail.of(email);
+			fail("expected a MailException");
+		} catch (final MailException e) {
+			assertEquals("email has no sender", e.getMessage());
+		}
+	}
+
+	@Test
+	public void writesSameMessagesAsConvertingPerSend() throws Exception {
+		for (final String textHTML : new String[] { null, "<p>Grüße, 😀</p>" }) {
+			final Email email = new Email(false);
+			email.setId("<fixed@example.com>");
+			email.setFromAddress("Avsändare", "from@example.com");
+			email.setReplyToAddress(null, "reply@example.com");
+			email.setSubject("Ämne with a subject long enough to be folded across more than one line of the header block");
+			email.setText("Hej, " + BodySourceTest.repeat("lines of text\r\n", 100));
+			email.setTextHTML(textHTML);
+			email.addHeader("X-Priority", 2);
+			email.setReturnReceiptTo(new Recipient(null, "receipt@example.com", null));
+
+			final RenderedEmail rendered = RenderedEmail.of(email);
+			for (final Recipient recipient : RECIPIENTS) {
+				final Recipient addressed = recipient.getType() != null
+						? recipient
+						: new Recipient(recipient.getName(), recipient.getAddress(), RecipientType.TO);
+				assertEquals(write(convertPerSend(email, addressed)), write(rendered.toMimeMessage(SESSION, recipient)));
+			}
+		}
+	}
+
+	/**
+	 * How a message was produced before bodies were rendered once: everything set on a new MimeMessage, which encodes the content for every
+	 * message.
+	 */
+	private static MimeMessage convertPerSend(final Email email, final Recipient recipient)
+			throws MessagingException, UnsupportedEncodingException {
+		final MimeMessage message = new MimeMessage(SESSION) {
+			@Override
+			protected void updateMessageID() throws MessagingException {
+				setHeader("Message-ID", email.getId());
+			}
+		};
+		message.setSubject(email.getSubject(), "UTF-8");
+		message.setFrom(MimeMessageHelper.toInternetAddress(email.getFromRecipient()));
+		if (email.getReplyToRecipient() != null) {
+			message.setReplyTo(new InternetAddress[] { MimeMessageHelper.toInternetAddress(email.getReplyToRecipient()) });
+		}
+		message.addRecipient(recipient.getType(), MimeMessageHelper.toInternetAddress(recipient));
+		if (email.getText() != null && email.getTextHTML() != null) {
+			final MimeMultipart alternative = new MimeMultipart("alternative");
+			final MimeBodyPart textPart = new MimeBodyPart();
+			textPart.setText(email.getText(), "UTF-8");
+			alternative.addBodyPart(textPart);
+			final MimeBodyPart htmlPart = new MimeBodyPart();
+			htmlPart.setText(email.getTextHTML(), "UTF-8", "html");
+			alternative.addBodyPart(htmlPart);
+			message.setContent(alternative);
+		} else if (email.getTextHTML() != null) {
+			message.setText(email.getTextHTML(), "UTF-8", "html");
+		} else {
+			message.setText(email.getText() != null ? email.getText() : "", "UTF-8");
+		}
+		for (final Map.Entry<String, String> header : email.getHeaders().entrySet()) {
+			message.setHeader(header.getKey(), header.getValue());
+		}
+		if (email.isUseReturnReceiptTo() && email.getReturnReceiptTo() != null) {
+			final String address = MimeMessageHelper.toInternetAddress(email.getReturnReceiptTo()).toString();
+			message.setHeader("Disposition-Notification-To", address);
+			message.setHeader("Return-Receipt-To", address);
+		}
+		message.setSentDate(new Date());
+		message.saveChanges();
+		return message;
+	}
+
+	/**
+	 * @return The written message with the sent date and the multipart boundaries, which differ per message, replaced.
+	 */
+	private static String write(final MimeMessage message) throws IOException, MessagingException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		message.writeTo(output);
+		String written = new String(output.toByteArray(), StandardCharsets.ISO_8859_1);
+		written = written.replace(message.getHeader("Date", null), "DATE");
+		if (message.isMimeType("multipart/*")) {
+			written = written.replace(new ContentType(message.getContentType()).getParameter("boundary"), "BOUNDARY");
+		}
+		return written;
+	}
+}
@@ -0,0 +1,190 @@
+package org.testmail.email;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.mail.Session;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransportPoolTest {
+
+	private static final long NO_TIMEOUT = 60000;
+
+	private FakeSMTPServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new FakeSMTPServer();
+		server.start();
+	}
+
+	@After
+	public void stopServer() throws IOException, InterruptedException {
+		server.close();
+	}
+
+	@Test
+	public void reusesMostRecentlyReleasedFirst() throws Exception {
+		final TransportPool pool = pool(2, NO_TIMEOUT);
+		final TransportPool.PooledTransport first = pool.borrow();
+		final TransportPool.PooledTransport second = pool.borrow();
+		assertNotSame(first, second);
+		assertEquals(2, server.getConnectionCount());
+
+		pool.release(first, true);
+		pool.release(second, true);
+		assertSame(second, pool.borrow());
+		assertSame(first, pool.borrow());
+		assertEquals(2, server.getConnectionCount());
+		assertEquals(0, server.countCommands("NOOP"));
+		pool.close();
+	}
+
+	@Test
+	public void closesTransportsThatAreNotReusable() throws Exception {
+		final TransportPool pool = pool(1, NO_TIMEOUT);
+		final TransportPool.PooledTransport first = pool.borrow();
+		pool.release(first, false);
+		assertFalse(first.getTransport().isConnected());
+		assertEquals(1, server.countCommands("QUIT"));
+
+		assertNotSame(first, pool.borrow());
+		assertEquals(2, server.getConnectionCount());
+		pool.close();
+	}
+
+	@Test
+	public void checksConnectionAfterOneSecondIdle() throws Exception {
+		final TransportPool pool = pool(1, NO_TIMEOUT);
+		final TransportPool.PooledTransport pooled = pool.borrow();
+		pool.release(pooled, true);
+		Thread.sleep(1100);
+		assertSame(pooled, pool.borrow());
+		assertEquals(1, server.countCommands("NOOP"));
+		assertEquals(1, server.getConnectionCount());
+
+		// a connection the server dropped is replaced by a new one
+		pool.release(pooled, true);
+		server.dropConnections();
+		Thread.sleep(1100);
+		final TransportPool.PooledTransport replacement = pool.borrow();
+		assertNotSame(pooled, replacement);
+		assertFalse(pooled.getTransport().isConnected());
+		assertEquals(2, server.getConnectionCount());
+		pool.close();
+	}
+
+	@Test
+	public void evictsExpiredTransports() throws Exception {
+		final TransportPool pool = pool(2, 300);
+		final TransportPool.PooledTransport first = pool.borrow();
+		final TransportPool.PooledTransport second = pool.borrow();
+		pool.release(first, true);
+		Thread.sleep(400);
+		// releasing closes the idle transports that have expired
+		pool.release(second, true);
+		assertFalse(first.getTransport().isConnected());
+		assertEquals(1, server.countCommands("QUIT"));
+		assertSame(second, pool.borrow());
+
+		// borrowing skips an expired transport without checking it with the server
+		pool.release(second, true);
+		Thread.sleep(400);
+		final TransportPool.PooledTransport third = pool.borrow();
+		assertNotSame(second, third);
+		assertFalse(second.getTransport().isConnected());
+		assertEquals(0, server.countCommands("NOOP"));
+		assertEquals(3, server.getConnectionCount());
+		pool.close();
+	}
+
+	@Test
+	public void waitsForReleaseWhenAllTransportsAreInUse() throws Exception {
+		final TransportPool pool = pool(1, NO_TIMEOUT);
+		final TransportPool.PooledTransport pooled = pool.borrow();
+		final AtomicReference<Object> borrowed = new AtomicReference<>();
+		final Thread waiting = borrowInThread(pool, borrowed);
+		waiting.join(300);
+		assertTrue(waiting.isAlive());
+
+		pool.release(pooled, true);
+		waiting.join(10000);
+		assertSame(pooled, borrowed.get());
+		assertEquals(1, server.getConnectionCount());
+		pool.close();
+	}
+
+	@Test
+	public void failsWhenInterruptedWhileWaiting() throws Exception {
+		final TransportPool pool = pool(1, NO_TIMEOUT);
+		final TransportPool.PooledTransport pooled = pool.borrow();
+		final AtomicReference<Object> borrowed = new AtomicReference<>();
+		final Thread waiting = borrowInThread(pool, borrowed);
+		waiting.join(300);
+		waiting.interrupt();
+		waiting.join(10000);
+		assertTrue(borrowed.get() instanceof MailException);
+
+		// the interrupted borrow did not take a permit
+		pool.release(pooled, true);
+		assertSame(pooled, pool.borrow());
+		pool.close();
+	}
+
+	@Test
+	public void closesIdleAndReleasedTransportsWhenClosed() throws Exception {
+		final TransportPool pool = pool(2, NO_TIMEOUT);
+		final TransportPool.PooledTransport idle = pool.borrow();
+		final TransportPool.PooledTransport inUse = pool.borrow();
+		pool.release(idle, true);
+
+		pool.close();
+		assertFalse(idle.getTransport().isConnected());
+		assertTrue(inUse.getTransport().isConnected());
+		try {
+			pool.borrow();
+			fail("expected an IllegalStateException");
+		} catch (final IllegalStateException e) {
+			assertEquals("transport pool has been closed", e.getMessage());
+		}
+
+		pool.release(inUse, true);
+		assertFalse(inUse.getTransport().isConnected());
+		assertEquals(2, server.countCommands("QUIT"));
+	}
+
+	private TransportPool pool(final int maxSize, final long sessionTimeoutMillis) {
+		final Properties properties = new Properties();
+		properties.setProperty("mail.transport.protocol", "smtp");
+		properties.setProperty("mail.smtp.timeout", "5000");
+		return new TransportPool(Session.getInstance(properties), "localhost", server.getPort(), null, null, maxSize, sessionTimeoutMillis);
+	}
+
+	/**
+	 * @return A started thread that borrows a transport and stores it, or the exception that borrowing failed with, in the given reference.
+	 */
+	private static Thread borrowInThread(final TransportPool pool, final AtomicReference<Object> borrowed) {
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					borrowed.set(pool.borrow());
+				} catch (final Exception e) {
+					borrowed.set(e);
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+}
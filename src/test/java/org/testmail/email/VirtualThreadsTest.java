@@ -0,0 +1,60 @@
+package org.testmail.email;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class VirtualThreadsTest {
+
+	@Test
+	public void isUnsupportedWithoutFactoryMethod() {
+		assertNull(VirtualThreads.findFactoryMethod(Pre21Executors.class));
+		assertNull(VirtualThreads.newExecutor(null));
+	}
+
+	@Test
+	public void isUnsupportedWhenFactoryMethodFails() {
+		assertNull(VirtualThreads.newExecutor(VirtualThreads.findFactoryMethod(FailingExecutors.class)));
+	}
+
+	@Test
+	public void createsExecutorWithFactoryMethod() throws Exception {
+		final ExecutorService executor = VirtualThreads.newExecutor(VirtualThreads.findFactoryMethod(WorkingExecutors.class));
+		assertNotNull(executor);
+		assertEquals("done", executor.submit(new Runnable() {
+			@Override
+			public void run() {
+			}
+		}, "done").get());
+		executor.shutdown();
+	}
+
+	@Test
+	public void isSupportedFromJava21() {
+		final String version = System.getProperty("java.specification.version");
+		final int major = Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+		assertEquals(major >= 21, VirtualThreads.isSupported());
+	}
+
+	public static final class Pre21Executors {
+	}
+
+	public static final class FailingExecutors {
+
+		public static ExecutorService newVirtualThreadPerTaskExecutor() {
+			throw new UnsupportedOperationException("no virtual threads");
+		}
+	}
+
+	public static final class WorkingExecutors {
+
+		public static ExecutorService newVirtualThreadPerTaskExecutor() {
+			return Executors.newSingleThreadExecutor();
+		}
+	}
+}